@@ -0,0 +1,61 @@
+package com.example.bankcards.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+import org.springframework.stereotype.Component;
+
+/**
+ * При старте замеряет время одного BCrypt-хэша для нескольких значений cost на текущем железе
+ * и пишет таблицу в лог, чтобы подобрать security.bcrypt.strength и размер пула.
+ */
+@Component
+@Slf4j
+public class BCryptCalibration {
+    private final boolean enabled;
+    private final int minCost;
+    private final int maxCost;
+    private final int configuredCost;
+    private final int poolSize;
+
+    public BCryptCalibration(@Value("${security.bcrypt.calibrate:true}") boolean enabled,
+                             @Value("${security.bcrypt.calibrate-min-cost:8}") int minCost,
+                             @Value("${security.bcrypt.calibrate-max-cost:13}") int maxCost,
+                             @Value("${security.bcrypt.strength:10}") int configuredCost,
+                             @Value("${security.bcrypt.pool-size:0}") int poolSize) {
+        this.enabled = enabled;
+        this.minCost = minCost;
+        this.maxCost = maxCost;
+        this.configuredCost = configuredCost;
+        this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::calibrate, "bcrypt-calibration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void calibrate() {
+        StringBuilder table = new StringBuilder("Калибровка BCrypt (cost -> мс на хэш, логинов/с на пул из ")
+                .append(poolSize).append(" потоков):");
+        for (int cost = minCost; cost <= maxCost; cost++) {
+            String salt = BCrypt.gensalt(cost);
+            BCrypt.hashpw("warmup", salt);
+
+            long start = System.nanoTime();
+            BCrypt.hashpw("calibration-password", salt);
+            double ms = (System.nanoTime() - start) / 1_000_000.0;
+
+            table.append(String.format("%n  cost=%2d: %8.1f мс, ~%6.0f логинов/с%s",
+                    cost, ms, poolSize * 1000.0 / ms, cost == configuredCost ? "  <- текущий" : ""));
+        }
+        log.info(table.toString());
+    }
+}
@@ -5,18 +5,51 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Configuration
 public class CryptoConfig {
 
     @Value("${card.crypto.key}")
     private String key;
 
+    // Дополнительные версии ключей для ротации: "2=base64:...,3=hex:..."; key выше — версия 1
+    @Value("${card.crypto.keys:}")
+    private String extraKeys;
+
+    @Value("${card.crypto.active-key-version:1}")
+    private int activeKeyVersion;
+
     @Value("${card.crypto.transformation:AES/ECB/PKCS5Padding}")
     private String transformation;
 
+    @Value("${card.crypto.pool-size:64}")
+    private int poolSize;
+
+    @Value("${card.crypto.index-key:}")
+    private String indexKey;
+
     @Bean
     public CryptoService cryptoService() {
-        return new CryptoService(key, transformation);
+        return new CryptoService(keyRing(), activeKeyVersion, transformation, poolSize, indexKey);
+    }
+
+    private Map<Integer, String> keyRing() {
+        Map<Integer, String> keys = new HashMap<>();
+        keys.put(1, key);
+
+        if (extraKeys == null || extraKeys.isBlank()) {
+            return keys;
+        }
+        for (String entry : extraKeys.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Invalid card.crypto.keys entry, expected <version>=<key>");
+            }
+            keys.put(Integer.parseInt(entry.substring(0, eq).trim()), entry.substring(eq + 1).trim());
+        }
+        return keys;
     }
 
 }
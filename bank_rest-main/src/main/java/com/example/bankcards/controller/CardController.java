@@ -1,11 +1,19 @@
 package com.example.bankcards.controller;
 
+import com.example.bankcards.dto.BatchTransferRequestDto;
+import com.example.bankcards.dto.BatchTransferResponseDto;
 import com.example.bankcards.dto.CardCreateDto;
 import com.example.bankcards.dto.CardResponseDto;
 import com.example.bankcards.dto.CardUpdateDto;
 import com.example.bankcards.dto.PageCardResponseSchema;
+import com.example.bankcards.dto.TransferStatusDto;
+import com.example.bankcards.entity.Money;
 import com.example.bankcards.util.AuthUtils;
+import com.example.bankcards.service.AsyncTransferService;
 import com.example.bankcards.service.CardService;
+import com.example.bankcards.service.GroupCommitTransferExecutor;
+import com.example.bankcards.service.IdempotentTransferService;
+import com.example.bankcards.service.TransferVelocity;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.Parameters;
@@ -15,6 +23,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -26,6 +35,8 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.net.URI;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/cards")
@@ -35,6 +46,10 @@ import java.math.BigDecimal;
 public class CardController {
 
     private final CardService service;
+    private final IdempotentTransferService idempotentTransfers;
+    private final GroupCommitTransferExecutor transferExecutor;
+    private final AsyncTransferService asyncTransfers;
+    private final TransferVelocity velocity;
 
 
     @Operation(
@@ -179,9 +194,13 @@ public class CardController {
 
     @Operation(
             summary = "Перевод между своими картами (USER)",
-            description = "Перевод средств между картами текущего пользователя."
+            description = "Перевод средств между картами текущего пользователя. " +
+                    "С заголовком Idempotency-Key повтор запроса возвращает исходный ответ без повторного списания."
     )
+    @ApiResponse(responseCode = "422", description = "Ключ идемпотентности использован для другого перевода")
     @Parameters({
+            @Parameter(name = "Idempotency-Key", description = "Ключ идемпотентности (до 100 символов)",
+                    example = "8f14e45f-ceea-467f-a0e6-1b8b7e1d2c3a"),
             @Parameter(name = "cardNumberFrom", description = "Откуда (16 цифр)", required = true, example = "5555444433332222"),
             @Parameter(name = "cardNumberTo", description = "Куда (16 цифр)", required = true, example = "4111111111111111"),
             @Parameter(name = "amount", description = "Сумма перевода", required = true, example = "250.00")
@@ -195,21 +214,91 @@ public class CardController {
             @RequestParam("cardNumberTo")
             @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
             String cardNumberTo,
-            @RequestParam("amount") BigDecimal amount
+            @RequestParam("amount") BigDecimal amount,
+            @RequestHeader(value = "Idempotency-Key", required = false)
+            @Size(max = 100, message = "Ключ идемпотентности не длиннее 100 символов")
+            String idempotencyKey
     ){
         Long userId = AuthUtils.currentUserId();
         log.info("Вызван transferBetweenUserCards");
-        service.transferBetweenUserCards(userId, cardNumberFrom, cardNumberTo, amount);
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            IdempotentTransferService.Receipt receipt =
+                    idempotentTransfers.transfer(userId, idempotencyKey, cardNumberFrom, cardNumberTo, amount);
+            return ResponseEntity.status(receipt.statusCode())
+                    .header("Idempotent-Replayed", String.valueOf(receipt.replayed()))
+                    .body(receipt.body());
+        }
+        transferExecutor.transfer(userId, cardNumberFrom, cardNumberTo, amount);
         return ResponseEntity.ok("Перевод выполнен");
     }
 
+    @Operation(
+            summary = "Асинхронный перевод между своими картами (USER)",
+            description = "Перевод ставится в очередь и выполняется в фоне; статус доступен по GET /api/cards/transfers/{id}."
+    )
+    @ApiResponse(responseCode = "202", description = "Перевод принят",
+            content = @Content(schema = @Schema(implementation = TransferStatusDto.class)))
+    @Parameters({
+            @Parameter(name = "cardNumberFrom", description = "Откуда (16 цифр)", required = true, example = "5555444433332222"),
+            @Parameter(name = "cardNumberTo", description = "Куда (16 цифр)", required = true, example = "4111111111111111"),
+            @Parameter(name = "amount", description = "Сумма перевода", required = true, example = "250.00")
+    })
+    @PostMapping("/transfers")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<TransferStatusDto> submitTransfer(
+            @RequestParam("cardNumberFrom")
+            @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
+            String cardNumberFrom,
+            @RequestParam("cardNumberTo")
+            @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
+            String cardNumberTo,
+            @RequestParam("amount") BigDecimal amount
+    ){
+        Long userId = AuthUtils.currentUserId();
+        log.info("Вызван submitTransfer");
+        velocity.check(userId, cardNumberFrom, amount);
+        TransferStatusDto accepted = asyncTransfers.submit(userId, cardNumberFrom, cardNumberTo, amount);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/cards/transfers/" + accepted.getId()))
+                .body(accepted);
+    }
+
+    @Operation(summary = "Статус асинхронного перевода (USER)")
+    @ApiResponse(responseCode = "200", description = "Статус перевода",
+            content = @Content(schema = @Schema(implementation = TransferStatusDto.class)))
+    @ApiResponse(responseCode = "404", description = "Перевод не найден")
+    @GetMapping("/transfers/{id}")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<TransferStatusDto> getTransfer(@PathVariable UUID id) {
+        Long userId = AuthUtils.currentUserId();
+        log.info("Вызван getTransfer: id = {}", id);
+        return ResponseEntity.ok(asyncTransfers.get(userId, id));
+    }
+
+    @Operation(
+            summary = "Пачка переводов между своими картами (USER)",
+            description = "Все карты пачки блокируются один раз по возрастанию id, изменения фиксируются одним коммитом. " +
+                    "ALL_OR_NOTHING откатывает пачку при первой ошибке, BEST_EFFORT пропускает ошибочные переводы."
+    )
+    @ApiResponse(responseCode = "200", description = "Итог по каждому переводу",
+            content = @Content(schema = @Schema(implementation = BatchTransferResponseDto.class)))
+    @PostMapping("/transfer/batch")
+    @PreAuthorize("hasRole('USER')")
+    public ResponseEntity<BatchTransferResponseDto> transferBatch(
+            @Valid @RequestBody BatchTransferRequestDto request
+    ){
+        Long userId = AuthUtils.currentUserId();
+        log.info("Вызван transferBatch: {} переводов", request.getTransfers().size());
+        return ResponseEntity.ok(service.transferBatch(userId, request));
+    }
+
     @Operation(summary = "Получить баланс по номеру карты (USER)")
     @Parameters({
             @Parameter(name = "cardNumber", description = "Номер карты (16 цифр)", required = true, example = "5555444433332222")
     })
     @GetMapping("/balance")
     @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<BigDecimal> getBalance (
+    public ResponseEntity<Money> getBalance (
             @RequestParam
             @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
             String cardNumber
@@ -12,6 +12,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.ErrorResponse;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -43,18 +45,19 @@ public class TokenController {
                     @ApiResponse(responseCode = "401", description = "Неверные имя пользователя или пароль",
                             content = @Content(schema = @Schema(
                                     example = "{\"message\": \"Unauthorized\", \"detailedMessage\": \"Bad credentials\"}"
-                            )))
+                            ))),
+                    @ApiResponse(responseCode = "503", description = "Пул проверки паролей перегружен, повторите позже")
             }
     )
     @PostMapping
     public ResponseEntity<?> login(@RequestBody LoginRequest request) {
-        authenticationManager.authenticate(
+        Authentication authentication = authenticationManager.authenticate(
                 new UsernamePasswordAuthenticationToken(
                         request.getUsername(),
                         request.getPassword()
                 )
         );
-        String token = jwtService.generateToken(request.getUsername());
+        String token = jwtService.generateToken((UserDetails) authentication.getPrincipal());
         log.info("Выдан токен пользователю: {}", request.getUsername());
         return ResponseEntity.ok(Map.of("token", token));
     }
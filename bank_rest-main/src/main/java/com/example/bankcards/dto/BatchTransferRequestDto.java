@@ -0,0 +1,28 @@
+package com.example.bankcards.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class BatchTransferRequestDto {
+
+    @Schema(description = "Режим: ALL_OR_NOTHING — откат всей пачки при первой ошибке, BEST_EFFORT — ошибочные пропускаются",
+            example = "ALL_OR_NOTHING")
+    @Builder.Default
+    private BatchTransferMode mode = BatchTransferMode.ALL_OR_NOTHING;
+
+    @Schema(description = "Переводы между картами текущего пользователя, применяются по порядку")
+    @NotEmpty(message = "Список переводов не может быть пустым")
+    @Size(max = 1000, message = "Не больше 1000 переводов за запрос")
+    private List<@Valid TransferItemDto> transfers;
+}
@@ -0,0 +1,24 @@
+package com.example.bankcards.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class BatchTransferResponseDto {
+
+    @Schema(description = "Режим обработки пачки", example = "ALL_OR_NOTHING")
+    private BatchTransferMode mode;
+
+    @Schema(description = "Применено ли хоть что-то (для ALL_OR_NOTHING — вся пачка)", example = "true")
+    private boolean committed;
+
+    @Schema(description = "Итог по каждому переводу")
+    private List<TransferItemResultDto> results;
+}
@@ -1,6 +1,7 @@
 package com.example.bankcards.dto;
 
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.*;
@@ -32,6 +33,9 @@ public class CardResponseDto {
     @Schema(description = "Статус карты", example = "ACTIVE")
     private CardStatus status;
 
-    @Schema(description = "Текущий баланс", example = "1999.99")
-    private BigDecimal balance;
+    @Schema(description = "Текущий баланс", example = "1999.99", implementation = BigDecimal.class)
+    private Money balance;
+
+    @Schema(description = "Дневной лимит списаний; null — без лимита", example = "50000.00", implementation = BigDecimal.class)
+    private Money dailyLimit;
 }
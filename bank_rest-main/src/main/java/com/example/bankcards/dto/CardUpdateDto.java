@@ -36,4 +36,17 @@ public class CardUpdateDto {
     @Schema(description = "Новый баланс", example = "0.00", minimum = "0.00")
     @DecimalMin(value = "0.00", inclusive = true, message = "Баланс не может быть отрицательным")
     private BigDecimal balance;
+
+    @Schema(description = "Число шардов баланса (0 — без шардирования)", example = "8", minimum = "0", maximum = "64")
+    @Min(value = 0, message = "Число шардов не может быть отрицательным")
+    @Max(value = 64, message = "Число шардов не больше 64")
+    private Integer balanceShards;
+
+    @Schema(description = "Дневной лимит списаний с карты", example = "50000.00", minimum = "0.00")
+    @DecimalMin(value = "0.00", inclusive = true, message = "Дневной лимит не может быть отрицательным")
+    @Digits(integer = 13, fraction = 2, message = "Дневной лимит — не больше 13 знаков до запятой и 2 после")
+    private BigDecimal dailyLimit;
+
+    @Schema(description = "true — снять дневной лимит (dailyLimit при этом игнорируется)", example = "false")
+    private Boolean clearDailyLimit;
 }
@@ -0,0 +1,36 @@
+package com.example.bankcards.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Digits;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import lombok.*;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class TransferItemDto {
+
+    @Schema(description = "Откуда (16 цифр)", example = "5555444433332222")
+    @NotBlank(message = "Поле 'cardNumberFrom' обязательно")
+    @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
+    private String cardNumberFrom;
+
+    @Schema(description = "Куда (16 цифр)", example = "4111111111111111")
+    @NotBlank(message = "Поле 'cardNumberTo' обязательно")
+    @Pattern(regexp = "\\d{16}", message = "Номер карты должен содержать 16 цифр")
+    private String cardNumberTo;
+
+    @Schema(description = "Сумма перевода", example = "250.00")
+    @NotNull(message = "Поле 'amount' обязательно")
+    @DecimalMin(value = "0.01", message = "Сумма перевода должна быть не меньше 0.01")
+    @Digits(integer = 13, fraction = 2, message = "Сумма перевода — не больше 13 знаков до запятой и 2 после")
+    private BigDecimal amount;
+}
@@ -0,0 +1,22 @@
+package com.example.bankcards.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class TransferItemResultDto {
+
+    @Schema(description = "Индекс перевода в запросе", example = "0")
+    private int index;
+
+    @Schema(description = "Итог: APPLIED, REJECTED или SKIPPED (не выполнялся из-за отката пачки)", example = "APPLIED")
+    private TransferItemStatus status;
+
+    @Schema(description = "Причина отказа", example = "Недостаточно средств на карте **** **** **** 2222")
+    private String message;
+}
@@ -0,0 +1,7 @@
+package com.example.bankcards.dto;
+
+public enum TransferItemStatus {
+    APPLIED,
+    REJECTED,
+    SKIPPED
+}
@@ -0,0 +1,36 @@
+package com.example.bankcards.dto;
+
+import com.example.bankcards.entity.TransferOutboxStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class TransferStatusDto {
+
+    @Schema(description = "ID перевода", example = "3f1c6f5e-3b0a-4a57-9f53-2c1d4f7a9b10")
+    private UUID id;
+
+    @Schema(description = "Статус перевода", example = "PENDING")
+    private TransferOutboxStatus status;
+
+    @Schema(description = "Сумма перевода", example = "250.00")
+    private BigDecimal amount;
+
+    @Schema(description = "Причина отказа для FAILED", example = "Недостаточно средств на карте **** **** **** 2222")
+    private String errorMessage;
+
+    @Schema(description = "Время приёма")
+    private LocalDateTime createdAt;
+
+    @Schema(description = "Время последнего изменения статуса")
+    private LocalDateTime updatedAt;
+}
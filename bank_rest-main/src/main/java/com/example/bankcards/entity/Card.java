@@ -1,11 +1,12 @@
 package com.example.bankcards.entity;
 
 import jakarta.persistence.*;
-import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Future;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.*;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.Formula;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -17,6 +18,7 @@ import java.time.LocalDate;
 @Setter
 @ToString
 @Builder
+@DynamicUpdate
 @Table(name = "cards")
 public class Card {
     @Id
@@ -28,6 +30,15 @@ public class Card {
     @NotBlank
     private String cardNumberEncrypted;
 
+    @Column(name = "key_version", nullable = false)
+    private Integer keyVersion;
+
+    @Column(name = "card_number_hash", unique = true, length = 64)
+    private String cardNumberHash;
+
+    @Column(name = "card_last4", length = 4)
+    private String cardLast4;
+
     @ManyToOne(fetch = FetchType.LAZY, optional = false)
     @JoinColumn(name = "user_id", nullable = false)
     @NotNull
@@ -41,8 +52,52 @@ public class Card {
     @Column(name = "status", nullable = false, length = 20)
     private CardStatus status;
 
+    // Неотрицательность баланса обеспечивают проверки переводов в CardService
     @Column(name = "balance", nullable = false, precision = 15, scale = 2)
-    @DecimalMin(value = "0.00", inclusive = true)
-    private BigDecimal balance;
+    @Convert(converter = MoneyConverter.class)
+    private Money balance;
+
+    // null — без лимита. Расход за день (spent_today, spent_day) ведут только запросы CardRepository
+    @Column(name = "daily_limit", precision = 15, scale = 2)
+    @Convert(converter = MoneyConverter.class)
+    private Money dailyLimit;
+
+    // Сколько проводок card_ledger уже перенесено в balance; сверяется проверкой журнала
+    @Column(name = "ledger_compacted_sum", nullable = false, precision = 15, scale = 2)
+    @Builder.Default
+    private BigDecimal ledgerCompactedSum = BigDecimal.ZERO;
+
+    // Растёт при каждом изменении баланса, в том числе в нативных UPDATE из CardRepository
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
+    // 0 — баланс только в balance; N > 0 — зачисления распределяются по N строкам card_balance_shards
+    @Column(name = "balance_shards", nullable = false)
+    private int balanceShards;
+
+    // Сумма ещё не свёрнутых проводок card_ledger; только для отображения, проверки баланса читают её отдельно после блокировки
+    @Formula("(SELECT COALESCE(SUM(l.amount), 0) FROM card_ledger l WHERE l.card_id = id AND NOT l.compacted)")
+    private BigDecimal pendingLedger;
+
+    @Formula("(SELECT COALESCE(SUM(s.balance), 0) FROM card_balance_shards s WHERE s.card_id = id)")
+    private BigDecimal shardBalance;
+
+    public boolean isSharded() {
+        return balanceShards > 0;
+    }
 
+    public Money getAvailableBalance() {
+        if (balance == null) {
+            return null;
+        }
+        Money total = balance;
+        if (pendingLedger != null) {
+            total = total.plus(Money.of(pendingLedger));
+        }
+        if (shardBalance != null) {
+            total = total.plus(Money.of(shardBalance));
+        }
+        return total;
+    }
 }
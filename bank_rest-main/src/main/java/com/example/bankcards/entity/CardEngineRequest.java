@@ -0,0 +1,27 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ключ запроса, перевод по которому движок балансов уже записал в cards: пишется в той же транзакции,
+ * что и дельты, и отвечает на повтор перевода после рестарта.
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+@Table(name = "card_engine_requests")
+public class CardEngineRequest {
+    @Id
+    @Column(name = "request_key", length = 32)
+    private String requestKey;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,59 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Проводка по карте: списание (amount < 0) или зачисление (amount > 0).
+ * Записи только добавляются; compacted выставляет задача свёртки, когда сумма перенесена в cards.balance.
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+@Builder
+@Table(name = "card_ledger")
+public class CardLedgerEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "card_id", nullable = false, updatable = false)
+    private Long cardId;
+
+    @Column(name = "transfer_id", nullable = false, updatable = false)
+    private UUID transferId;
+
+    @Column(name = "amount", nullable = false, updatable = false, precision = 15, scale = 2)
+    private BigDecimal amount;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "compacted", nullable = false)
+    private boolean compacted;
+
+    public static CardLedgerEntry debit(UUID transferId, Long cardId, BigDecimal amount) {
+        return entry(transferId, cardId, amount.negate());
+    }
+
+    public static CardLedgerEntry credit(UUID transferId, Long cardId, BigDecimal amount) {
+        return entry(transferId, cardId, amount);
+    }
+
+    private static CardLedgerEntry entry(UUID transferId, Long cardId, BigDecimal amount) {
+        return CardLedgerEntry.builder()
+                .transferId(transferId)
+                .cardId(cardId)
+                .amount(amount)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+}
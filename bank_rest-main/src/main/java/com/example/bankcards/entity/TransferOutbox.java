@@ -0,0 +1,60 @@
+package com.example.bankcards.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Перевод, принятый асинхронно: запись создаётся в запросе пользователя и выполняется воркером.
+ * Номера карт хранятся зашифрованными ключом версии keyVersion, как в cards.
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString(exclude = {"cardNumberFromEncrypted", "cardNumberToEncrypted"})
+@Builder
+@Table(name = "transfer_outbox")
+public class TransferOutbox {
+    @Id
+    @Column(name = "id")
+    private UUID id;
+
+    @Column(name = "user_id", nullable = false, updatable = false)
+    private Long userId;
+
+    @Column(name = "card_number_from", nullable = false, updatable = false)
+    private String cardNumberFromEncrypted;
+
+    @Column(name = "card_number_to", nullable = false, updatable = false)
+    private String cardNumberToEncrypted;
+
+    @Column(name = "key_version", nullable = false, updatable = false)
+    private Integer keyVersion;
+
+    @Column(name = "amount", nullable = false, updatable = false, precision = 15, scale = 2)
+    private BigDecimal amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private TransferOutboxStatus status;
+
+    @Column(name = "error_message", length = 255)
+    private String errorMessage;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
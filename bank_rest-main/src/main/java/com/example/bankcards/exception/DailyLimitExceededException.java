@@ -0,0 +1,7 @@
+package com.example.bankcards.exception;
+
+public class DailyLimitExceededException extends RuntimeException {
+    public DailyLimitExceededException(String message) {
+        super(message);
+    }
+}
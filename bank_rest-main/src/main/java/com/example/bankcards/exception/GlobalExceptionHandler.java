@@ -2,6 +2,8 @@ package com.example.bankcards.exception;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -92,6 +94,19 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(errorDto);
     }
 
+    @ExceptionHandler(TransferNotFoundException.class)
+    public ResponseEntity<ErrorResponseDto> TransferNotFoundExceptionHandler(Exception e){
+        log.error("Обнаружено Transfer Not Found Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Перевод не найден",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorDto);
+    }
+
     @ExceptionHandler(NotVerifyException.class)
     public ResponseEntity<ErrorResponseDto> NotVerifyExceptionHandler(Exception e){
         log.error("Обнаружено Not Verify Exception: {}", e.getMessage());
@@ -116,6 +131,84 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(errorDto);
     }
 
+    @ExceptionHandler(DailyLimitExceededException.class)
+    public ResponseEntity<ErrorResponseDto> DailyLimitExceededExceptionHandler(Exception e){
+        log.warn("Обнаружено Daily Limit Exceeded Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Превышен дневной лимит списаний по карте",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(errorDto);
+    }
+
+    @ExceptionHandler({TransferConflictException.class, ObjectOptimisticLockingFailureException.class})
+    public ResponseEntity<ErrorResponseDto> TransferConflictExceptionHandler(Exception e){
+        log.warn("Обнаружено Transfer Conflict Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Карта изменена параллельным запросом",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(errorDto);
+    }
+
+    @ExceptionHandler(IdempotencyKeyReuseException.class)
+    public ResponseEntity<ErrorResponseDto> IdempotencyKeyReuseExceptionHandler(Exception e){
+        log.error("Обнаружено Idempotency Key Reuse Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Ключ идемпотентности уже использован",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(errorDto);
+    }
+
+    @ExceptionHandler(TransferVelocityException.class)
+    public ResponseEntity<ErrorResponseDto> TransferVelocityExceptionHandler(Exception e){
+        log.warn("Обнаружено Transfer Velocity Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Превышена допустимая частота переводов",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(errorDto);
+    }
+
+    @ExceptionHandler({TransferBusyException.class, PessimisticLockingFailureException.class})
+    public ResponseEntity<ErrorResponseDto> TransferBusyExceptionHandler(Exception e){
+        log.warn("Обнаружено Transfer Busy Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Карта занята другой операцией",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .body(errorDto);
+    }
+
+    @ExceptionHandler(LoginOverloadedException.class)
+    public ResponseEntity<ErrorResponseDto> LoginOverloadedExceptionHandler(Exception e){
+        log.warn("Обнаружено Login Overloaded Exception: {}", e.getMessage());
+
+        var errorDto = new ErrorResponseDto(
+                "Сервис входа перегружен",
+                e.getMessage(),
+                LocalDateTime.now()
+        );
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .body(errorDto);
+    }
+
     @ExceptionHandler(UsernameNotFoundException.class)
     public ResponseEntity<ErrorResponseDto> UsernameNotFoundExceptionHandler(Exception e){
         log.error("Обнаружено Username Not Found Exception: {}", e.getMessage());
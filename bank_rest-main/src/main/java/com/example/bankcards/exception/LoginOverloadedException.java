@@ -0,0 +1,7 @@
+package com.example.bankcards.exception;
+
+public class LoginOverloadedException extends RuntimeException {
+    public LoginOverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.bankcards.exception;
+
+public class TransferBusyException extends RuntimeException {
+    public TransferBusyException(String message) {
+        super(message);
+    }
+
+    public TransferBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.bankcards.exception;
+
+public class TransferVelocityException extends RuntimeException {
+    public TransferVelocityException(String message) {
+        // Без stack trace: при всплеске отказов его заполнение стоило бы дороже самой проверки
+        super(message, null, false, false);
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.bankcards.repository;
+
+public interface CardCipherView {
+    Long getId();
+
+    String getCardNumber();
+
+    Integer getKeyVersion();
+}
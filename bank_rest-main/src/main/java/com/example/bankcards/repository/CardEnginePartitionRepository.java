@@ -0,0 +1,45 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardEnginePartition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface CardEnginePartitionRepository extends JpaRepository<CardEnginePartition, Integer> {
+
+    @Modifying
+    @Query(value = """
+    INSERT INTO card_engine_partitions (partition_id, applied_seq, updated_at)
+    VALUES (:partition, 0, :now)
+    ON CONFLICT (partition_id) DO NOTHING
+""", nativeQuery = true)
+    int createIfAbsent(
+            @Param("partition") int partition,
+            @Param("now") LocalDateTime now);
+
+    /**
+     * Блокирует строку партиции до конца транзакции записи, чтобы повтор той же пачки не применился дважды.
+     */
+    @Query(value = """
+    SELECT applied_seq
+    FROM card_engine_partitions
+    WHERE partition_id = :partition
+    FOR UPDATE
+""", nativeQuery = true)
+    long lockAppliedSeq(@Param("partition") int partition);
+
+    @Modifying
+    @Query(value = """
+    UPDATE card_engine_partitions
+    SET applied_seq = :seq,
+        updated_at = :now
+    WHERE partition_id = :partition
+""", nativeQuery = true)
+    int setAppliedSeq(
+            @Param("partition") int partition,
+            @Param("seq") long seq,
+            @Param("now") LocalDateTime now);
+}
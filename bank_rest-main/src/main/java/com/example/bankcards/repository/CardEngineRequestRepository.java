@@ -0,0 +1,36 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardEngineRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+
+public interface CardEngineRequestRepository extends JpaRepository<CardEngineRequest, String> {
+
+    @Modifying
+    @Query(value = """
+    INSERT INTO card_engine_requests (request_key, created_at)
+    VALUES (:key, :now)
+    ON CONFLICT (request_key) DO NOTHING
+""", nativeQuery = true)
+    int insertIfAbsent(
+            @Param("key") String key,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = """
+    DELETE FROM card_engine_requests
+    WHERE request_key IN (
+        SELECT request_key
+        FROM card_engine_requests
+        WHERE created_at < :cutoff
+        LIMIT :limit
+    )
+""", nativeQuery = true)
+    int deleteOlderThan(
+            @Param("cutoff") LocalDateTime cutoff,
+            @Param("limit") int limit);
+}
@@ -0,0 +1,20 @@
+package com.example.bankcards.repository;
+
+import java.math.BigDecimal;
+
+public interface CardEngineView {
+    Long getId();
+
+    String getCardNumberHash();
+
+    String getStatus();
+
+    // Доступный баланс: balance + несвёрнутые проводки card_ledger + шарды
+    BigDecimal getBalance();
+
+    // null — без лимита
+    BigDecimal getDailyLimit();
+
+    // Расход за переданный в запрос день: 0, если spent_day другой
+    BigDecimal getSpentToday();
+}
@@ -0,0 +1,127 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardLedgerEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface CardLedgerRepository extends JpaRepository<CardLedgerEntry, Long> {
+
+    @Query("""
+    SELECT COALESCE(SUM(l.amount), 0) FROM CardLedgerEntry l
+    WHERE l.cardId = :cardId
+      AND l.compacted = false
+""")
+    BigDecimal sumPending(@Param("cardId") Long cardId);
+
+    /**
+     * Помечает незакрытые проводки карт свёрнутыми и возвращает их суммы по картам.
+     * Вызывать только под блокировкой этих карт: снимок обновляет вызывающий код.
+     */
+    @Query(value = """
+    WITH moved AS (
+        UPDATE card_ledger
+        SET compacted = true
+        WHERE card_id IN (:cardIds)
+          AND NOT compacted
+        RETURNING card_id, amount
+    )
+    SELECT card_id AS cardId, SUM(amount) AS pending
+    FROM moved
+    GROUP BY card_id
+""", nativeQuery = true)
+    List<CardPendingView> compactPending(@Param("cardIds") Collection<Long> cardIds);
+
+    @Query(value = """
+    SELECT DISTINCT card_id
+    FROM card_ledger
+    WHERE NOT compacted
+    LIMIT :limit
+""", nativeQuery = true)
+    List<Long> findCardIdsWithPending(@Param("limit") int limit);
+
+    /**
+     * Блокирует строку карты перед {@link #compactCard}. Сам compactCard сначала обновляет
+     * card_ledger и лишь потом cards, а переводы пачкой берут карты раньше журнала, поэтому
+     * без этой блокировки встречные транзакции взаимно ждут друг друга (40P01).
+     */
+    @Query(value = """
+    SELECT id
+    FROM cards
+    WHERE id = :cardId
+    FOR UPDATE
+""", nativeQuery = true)
+    Optional<Long> lockCard(@Param("cardId") Long cardId);
+
+    /**
+     * Переносит все видимые незакрытые проводки карты в cards.balance одним оператором,
+     * чтобы снимок и флаги compacted менялись атомарно. Возвращает число свёрнутых проводок.
+     * Вызывать в одной транзакции после {@link #lockCard}.
+     */
+    @Modifying
+    @Query(value = """
+    WITH moved AS (
+        UPDATE card_ledger
+        SET compacted = true
+        WHERE card_id = :cardId
+          AND NOT compacted
+        RETURNING amount
+    ), total AS (
+        SELECT COUNT(*) AS cnt, COALESCE(SUM(amount), 0) AS delta FROM moved
+    )
+    UPDATE cards
+    SET balance = balance + total.delta,
+        ledger_compacted_sum = ledger_compacted_sum + total.delta,
+        version = version + 1
+    FROM total
+    WHERE cards.id = :cardId
+      AND total.cnt > 0
+""", nativeQuery = true)
+    int compactCard(@Param("cardId") Long cardId);
+
+    @Query(value = """
+    SELECT transfer_id
+    FROM card_ledger
+    GROUP BY transfer_id
+    HAVING COUNT(*) > 2
+        OR (COUNT(*) = 2 AND SUM(amount) <> 0)
+    LIMIT :limit
+""", nativeQuery = true)
+    List<UUID> findUnbalancedTransfers(@Param("limit") int limit);
+
+    @Query(value = """
+    SELECT c.id
+    FROM cards c
+    LEFT JOIN (
+        SELECT card_id, SUM(amount) AS total
+        FROM card_ledger
+        WHERE compacted
+        GROUP BY card_id
+    ) l ON l.card_id = c.id
+    WHERE COALESCE(l.total, 0) <> c.ledger_compacted_sum
+    LIMIT :limit
+""", nativeQuery = true)
+    List<Long> findSnapshotMismatches(@Param("limit") int limit);
+
+    @Query(value = """
+    SELECT c.id
+    FROM cards c
+    JOIN (
+        SELECT card_id, SUM(amount) AS pending
+        FROM card_ledger
+        WHERE NOT compacted
+        GROUP BY card_id
+    ) l ON l.card_id = c.id
+    WHERE c.balance + l.pending
+          + COALESCE((SELECT SUM(s.balance) FROM card_balance_shards s WHERE s.card_id = c.id), 0) < 0
+    LIMIT :limit
+""", nativeQuery = true)
+    List<Long> findOverdrawn(@Param("limit") int limit);
+}
@@ -0,0 +1,16 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
+
+public interface CardRefView {
+    Long getId();
+
+    String getCardNumberHash();
+
+    CardStatus getStatus();
+
+    Integer getBalanceShards();
+
+    Money getDailyLimit();
+}
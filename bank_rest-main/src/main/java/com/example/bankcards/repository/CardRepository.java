@@ -2,6 +2,7 @@ package com.example.bankcards.repository;
 
 import com.example.bankcards.entity.Card;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
 import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -11,7 +12,10 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface CardRepository extends JpaRepository<Card, Long> {
@@ -42,10 +46,10 @@ public interface CardRepository extends JpaRepository<Card, Long> {
 
     @Query("""
         SELECT c FROM Card c
-        WHERE c.cardNumberEncrypted = :cardNumberEncrypted
+        WHERE c.cardNumberHash = :cardNumberHash
 """)
-    Optional<Card> findByCardNumberEncrypted(
-            @Param("cardNumberEncrypted") String cardNumberEncrypted
+    Optional<Card> findByCardNumberHash(
+            @Param("cardNumberHash") String cardNumberHash
     );
 
     @Lock(LockModeType.PESSIMISTIC_WRITE)
@@ -64,21 +68,380 @@ public interface CardRepository extends JpaRepository<Card, Long> {
 
     @Query("""
     SELECT c FROM Card c
-    WHERE c.cardNumberEncrypted = :cardNumberEncrypted
+    WHERE c.cardNumberHash = :cardNumberHash
       AND c.user.id = :userId
       AND c.status = :status
 """)
-    Optional<Card> findByCardNumberEncryptedAndUser_IdAndStatus(
-            @Param("cardNumberEncrypted") String cardNumberEncrypted,
+    Optional<Card> findByCardNumberHashAndUser_IdAndStatus(
+            @Param("cardNumberHash") String cardNumberHash,
             @Param("userId") Long userId,
             @Param("status") CardStatus status);
 
     @Query("""
     SELECT c FROM Card c
-    WHERE c.cardNumberEncrypted = :cardNumberEncrypted
+    WHERE c.cardNumberHash = :cardNumberHash
       AND c.user.id = :userId
 """)
-    Optional<Card> findByCardNumberEncryptedAndUser_Id(
-            @Param("cardNumberEncrypted") String enc,
+    Optional<Card> findByCardNumberHashAndUser_Id(
+            @Param("cardNumberHash") String hash,
             @Param("userId") Long userId);
+
+    @Query("""
+    SELECT c FROM Card c
+    WHERE (c.cardLast4 IS NULL OR c.cardNumberHash IS NULL)
+      AND c.id > :afterId
+    ORDER BY c.id
+""")
+    List<Card> findNeedingBackfillAfter(
+            @Param("afterId") Long afterId,
+            Pageable pageable);
+
+    @Query(value = """
+    SELECT c.id AS id, c.card_number AS cardNumber, c.key_version AS keyVersion
+    FROM cards c
+    WHERE c.key_version <> :activeVersion
+      AND c.id > :afterId
+    ORDER BY c.id
+    LIMIT :limit
+    FOR UPDATE SKIP LOCKED
+""", nativeQuery = true)
+    List<CardCipherView> lockForReencryption(
+            @Param("activeVersion") int activeVersion,
+            @Param("afterId") Long afterId,
+            @Param("limit") int limit);
+
+    @Modifying
+    @Query("""
+    UPDATE Card c
+    SET c.cardNumberEncrypted = :encrypted,
+        c.keyVersion = :newVersion
+    WHERE c.id = :cardId
+      AND c.keyVersion = :oldVersion
+""")
+    int updateCipherText(
+            @Param("cardId") Long cardId,
+            @Param("encrypted") String encrypted,
+            @Param("oldVersion") Integer oldVersion,
+            @Param("newVersion") Integer newVersion);
+
+    @Query("""
+    SELECT c.id AS id, c.cardNumberHash AS cardNumberHash, c.status AS status,
+           c.balanceShards AS balanceShards, c.dailyLimit AS dailyLimit
+    FROM Card c
+    WHERE c.cardNumberHash IN (:hashes)
+      AND c.user.id = :userId
+""")
+    List<CardRefView> findRefsByHashes(
+            @Param("hashes") Collection<String> hashes,
+            @Param("userId") Long userId);
+
+    /**
+     * Списание с проверкой остатка и дневного лимита в одном UPDATE. Расход за прошлые дни
+     * обнуляется здесь же: spent_today учитывается, только пока spent_day — сегодняшняя дата БД.
+     */
+    @Query(value = """
+    UPDATE cards
+    SET balance = balance - :amount,
+        spent_today = CASE WHEN spent_day = CURRENT_DATE THEN spent_today ELSE 0 END + :amount,
+        spent_day = CURRENT_DATE,
+        version = version + 1
+    WHERE id = :cardId
+      AND user_id = :userId
+      AND status = 'ACTIVE'
+      AND balance >= :amount
+      AND (daily_limit IS NULL
+           OR CASE WHEN spent_day = CURRENT_DATE THEN spent_today ELSE 0 END + :amount <= daily_limit)
+    RETURNING balance
+""", nativeQuery = true)
+    Optional<BigDecimal> debitIfSufficient(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId,
+            @Param("amount") BigDecimal amount);
+
+    /**
+     * Учёт расхода по дневному лимиту для путей, где баланс списывается не условным UPDATE карты
+     * (блокировка строки, журнал, шарды, оптимистичная запись). Версию не меняет: строка карты
+     * в этих путях может быть загружена как сущность, и её UPDATE сверяет version.
+     */
+    @Modifying
+    @Query(value = """
+    UPDATE cards
+    SET spent_today = CASE WHEN spent_day = CURRENT_DATE THEN spent_today ELSE 0 END + :amount,
+        spent_day = CURRENT_DATE
+    WHERE id = :cardId
+      AND (daily_limit IS NULL
+           OR CASE WHEN spent_day = CURRENT_DATE THEN spent_today ELSE 0 END + :amount <= daily_limit)
+""", nativeQuery = true)
+    int spendWithinDailyLimit(
+            @Param("cardId") Long cardId,
+            @Param("amount") BigDecimal amount);
+
+    @Query(value = """
+    UPDATE cards
+    SET balance = balance + :amount,
+        version = version + 1
+    WHERE id = :cardId
+      AND user_id = :userId
+      AND status = 'ACTIVE'
+    RETURNING balance
+""", nativeQuery = true)
+    Optional<BigDecimal> creditActive(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId,
+            @Param("amount") BigDecimal amount);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+    SELECT c FROM Card c
+    WHERE c.id IN (:cardIds)
+      AND c.user.id = :userId
+    ORDER BY c.id
+""")
+    List<Card> lockAllByIdsAndUser(
+            @Param("cardIds") Collection<Long> cardIds,
+            @Param("userId") Long userId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("""
+    SELECT c FROM Card c
+    WHERE c.id IN (:cardIds)
+    ORDER BY c.id
+""")
+    List<Card> lockAllByIds(@Param("cardIds") Collection<Long> cardIds);
+
+    @Query(value = """
+    UPDATE card_balance_shards s
+    SET balance = s.balance + :amount
+    FROM cards c
+    WHERE s.card_id = :cardId
+      AND s.shard = :shard
+      AND c.id = s.card_id
+      AND c.user_id = :userId
+      AND c.status = 'ACTIVE'
+    RETURNING s.balance
+""", nativeQuery = true)
+    Optional<BigDecimal> creditShard(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId,
+            @Param("shard") int shard,
+            @Param("amount") BigDecimal amount);
+
+    @Query(value = """
+    UPDATE card_balance_shards s
+    SET balance = s.balance - :amount
+    FROM cards c
+    WHERE s.card_id = :cardId
+      AND s.shard = :shard
+      AND s.balance >= :amount
+      AND c.id = s.card_id
+      AND c.user_id = :userId
+      AND c.status = 'ACTIVE'
+    RETURNING s.balance
+""", nativeQuery = true)
+    Optional<BigDecimal> debitShard(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId,
+            @Param("shard") int shard,
+            @Param("amount") BigDecimal amount);
+
+    @Query(value = """
+    SELECT balance
+    FROM cards
+    WHERE id = :cardId
+      AND user_id = :userId
+      AND status = 'ACTIVE'
+    FOR UPDATE
+""", nativeQuery = true)
+    Optional<BigDecimal> lockActiveBalance(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId);
+
+    @Query(value = """
+    SELECT shard AS shard, balance AS balance
+    FROM card_balance_shards
+    WHERE card_id = :cardId
+    ORDER BY shard
+    FOR UPDATE
+""", nativeQuery = true)
+    List<CardShardView> lockShards(@Param("cardId") Long cardId);
+
+    @Query(value = """
+    SELECT COALESCE(SUM(balance), 0)
+    FROM card_balance_shards
+    WHERE card_id = :cardId
+""", nativeQuery = true)
+    BigDecimal sumShards(@Param("cardId") Long cardId);
+
+    /**
+     * Раскладывает остаток поровну по шардам карты (хвост от деления — в шард 0) и обнуляет cards.balance.
+     * Вызывать под блокировкой строки карты и всех её шардов.
+     */
+    @Modifying
+    @Query(value = """
+    WITH spread AS (
+        UPDATE card_balance_shards
+        SET balance = :each + CASE WHEN shard = 0 THEN :remainder ELSE 0 END
+        WHERE card_id = :cardId
+    )
+    UPDATE cards
+    SET balance = 0,
+        version = version + 1
+    WHERE id = :cardId
+""", nativeQuery = true)
+    int spreadOverShards(
+            @Param("cardId") Long cardId,
+            @Param("each") BigDecimal each,
+            @Param("remainder") BigDecimal remainder);
+
+    /**
+     * Обнуляет шарды карт и возвращает снятые суммы; вызывающий код добавляет их к cards.balance.
+     * Вызывать под блокировкой этих карт.
+     */
+    @Query(value = """
+    WITH taken AS (
+        SELECT card_id, shard, balance
+        FROM card_balance_shards
+        WHERE card_id IN (:cardIds)
+          AND balance <> 0
+        FOR UPDATE
+    ), cleared AS (
+        UPDATE card_balance_shards s
+        SET balance = 0
+        FROM taken t
+        WHERE s.card_id = t.card_id
+          AND s.shard = t.shard
+    )
+    SELECT card_id AS cardId, SUM(balance) AS pending
+    FROM taken
+    GROUP BY card_id
+""", nativeQuery = true)
+    List<CardPendingView> takeShardBalances(@Param("cardIds") Collection<Long> cardIds);
+
+    /**
+     * Удаляет шарды карты, перенося их сумму в cards.balance.
+     */
+    @Modifying
+    @Query(value = """
+    WITH gone AS (
+        DELETE FROM card_balance_shards
+        WHERE card_id = :cardId
+        RETURNING balance
+    )
+    UPDATE cards
+    SET balance = balance + (SELECT COALESCE(SUM(balance), 0) FROM gone),
+        version = version + 1
+    WHERE id = :cardId
+""", nativeQuery = true)
+    int foldShards(@Param("cardId") Long cardId);
+
+    @Modifying
+    @Query(value = """
+    INSERT INTO card_balance_shards (card_id, shard, balance)
+    SELECT :cardId, g, 0
+    FROM generate_series(0, :shards - 1) AS g
+""", nativeQuery = true)
+    int createShards(
+            @Param("cardId") Long cardId,
+            @Param("shards") int shards);
+
+    @Query("""
+    SELECT c.id AS id, c.balance AS balance, c.version AS version, c.status AS status
+    FROM Card c
+    WHERE c.id = :cardId
+      AND c.user.id = :userId
+""")
+    Optional<CardVersionView> findVersionedState(
+            @Param("cardId") Long cardId,
+            @Param("userId") Long userId);
+
+    /**
+     * Оптимистичная запись баланса: проходит, только если с момента чтения версия карты не менялась.
+     */
+    @Modifying
+    @Query("""
+    UPDATE Card c
+    SET c.balance = :balance,
+        c.version = c.version + 1
+    WHERE c.id = :cardId
+      AND c.version = :version
+      AND c.status = com.example.bankcards.entity.CardStatus.ACTIVE
+""")
+    int compareAndSetBalance(
+            @Param("cardId") Long cardId,
+            @Param("version") Long version,
+            @Param("balance") Money balance);
+
+    @Query(value = "SELECT set_config('lock_timeout', :timeout, true)", nativeQuery = true)
+    String setLocalLockTimeout(@Param("timeout") String timeout);
+
+    @Query(value = """
+    SELECT c.id AS id, c.card_number_hash AS cardNumberHash, c.status AS status,
+           c.balance
+             + (SELECT COALESCE(SUM(l.amount), 0) FROM card_ledger l WHERE l.card_id = c.id AND NOT l.compacted)
+             + (SELECT COALESCE(SUM(s.balance), 0) FROM card_balance_shards s WHERE s.card_id = c.id) AS balance,
+           c.daily_limit AS dailyLimit,
+           CASE WHEN c.spent_day = :today THEN c.spent_today ELSE 0 END AS spentToday
+    FROM cards c
+    WHERE c.user_id = :userId
+""", nativeQuery = true)
+    List<CardEngineView> findEngineCards(
+            @Param("userId") Long userId,
+            @Param("today") LocalDate today);
+
+    @Query(value = """
+    SELECT c.id AS id, c.card_number_hash AS cardNumberHash, c.status AS status,
+           c.balance
+             + (SELECT COALESCE(SUM(l.amount), 0) FROM card_ledger l WHERE l.card_id = c.id AND NOT l.compacted)
+             + (SELECT COALESCE(SUM(s.balance), 0) FROM card_balance_shards s WHERE s.card_id = c.id) AS balance,
+           c.daily_limit AS dailyLimit,
+           CASE WHEN c.spent_day = :today THEN c.spent_today ELSE 0 END AS spentToday
+    FROM cards c
+    WHERE c.id IN (:ids)
+""", nativeQuery = true)
+    List<CardEngineView> findEngineCardsByIds(
+            @Param("ids") Collection<Long> ids,
+            @Param("today") LocalDate today);
+
+    /**
+     * Запись изменений движка балансов: перевод уже подтверждён и записан в журнал, но списание,
+     * уводящее доступный баланс (с проводками и шардами) в минус, не пишется — 0 строк.
+     */
+    @Modifying
+    @Query(value = """
+    UPDATE cards c
+    SET balance = c.balance + :delta,
+        version = c.version + 1
+    WHERE c.id = :cardId
+      AND (:delta >= 0
+           OR c.balance + :delta
+              + (SELECT COALESCE(SUM(l.amount), 0) FROM card_ledger l WHERE l.card_id = c.id AND NOT l.compacted)
+              + (SELECT COALESCE(SUM(s.balance), 0) FROM card_balance_shards s WHERE s.card_id = c.id) >= 0)
+""", nativeQuery = true)
+    int addEngineDelta(
+            @Param("cardId") Long cardId,
+            @Param("delta") BigDecimal delta);
+
+    /**
+     * Расход по дневному лимиту, уже проверенный движком балансов: записывается без сверки с daily_limit.
+     */
+    @Modifying
+    @Query(value = """
+    UPDATE cards
+    SET spent_today = CASE WHEN spent_day = :day THEN spent_today ELSE 0 END + :amount,
+        spent_day = :day
+    WHERE id = :cardId
+""", nativeQuery = true)
+    int addEngineSpent(
+            @Param("cardId") Long cardId,
+            @Param("amount") BigDecimal amount,
+            @Param("day") LocalDate day);
+
+    @Query(value = "SELECT txid_current()", nativeQuery = true)
+    long currentTxid();
+
+    /**
+     * committed / aborted / in progress; null, если транзакция слишком старая.
+     */
+    @Query(value = "SELECT txid_status(:txid)", nativeQuery = true)
+    String txidStatus(@Param("txid") long txid);
 }
@@ -0,0 +1,9 @@
+package com.example.bankcards.repository;
+
+import java.math.BigDecimal;
+
+public interface CardShardView {
+    Integer getShard();
+
+    BigDecimal getBalance();
+}
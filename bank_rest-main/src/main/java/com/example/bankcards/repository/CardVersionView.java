@@ -0,0 +1,14 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
+
+public interface CardVersionView {
+    Long getId();
+
+    Money getBalance();
+
+    Long getVersion();
+
+    CardStatus getStatus();
+}
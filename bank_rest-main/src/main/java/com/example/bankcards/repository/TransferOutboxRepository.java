@@ -0,0 +1,84 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.TransferOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface TransferOutboxRepository extends JpaRepository<TransferOutbox, UUID> {
+
+    @Query("""
+    SELECT o FROM TransferOutbox o
+    WHERE o.id = :id
+      AND o.userId = :userId
+""")
+    Optional<TransferOutbox> findByIdAndUserId(
+            @Param("id") UUID id,
+            @Param("userId") Long userId);
+
+    /**
+     * Забирает следующий готовый перевод; строки, уже взятые другими воркерами или узлами, пропускаются.
+     */
+    @Query(value = """
+    SELECT *
+    FROM transfer_outbox
+    WHERE status = 'PENDING'
+      AND available_at <= :now
+    ORDER BY available_at
+    LIMIT 1
+    FOR UPDATE SKIP LOCKED
+""", nativeQuery = true)
+    Optional<TransferOutbox> claimNext(@Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = """
+    UPDATE transfer_outbox
+    SET status = :status,
+        error_message = :message,
+        attempts = :attempts,
+        available_at = :availableAt,
+        updated_at = :now
+    WHERE id = :id
+      AND status = 'PENDING'
+""", nativeQuery = true)
+    int recordFailure(
+            @Param("id") UUID id,
+            @Param("status") String status,
+            @Param("message") String message,
+            @Param("attempts") int attempts,
+            @Param("availableAt") LocalDateTime availableAt,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = """
+    UPDATE transfer_outbox
+    SET status = 'COMPLETED',
+        error_message = NULL,
+        updated_at = :now
+    WHERE id = :id
+      AND status = 'PENDING'
+""", nativeQuery = true)
+    int complete(
+            @Param("id") UUID id,
+            @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = """
+    DELETE FROM transfer_outbox
+    WHERE id IN (
+        SELECT id
+        FROM transfer_outbox
+        WHERE status <> 'PENDING'
+          AND updated_at < :cutoff
+        LIMIT :limit
+    )
+""", nativeQuery = true)
+    int deleteFinishedBefore(
+            @Param("cutoff") LocalDateTime cutoff,
+            @Param("limit") int limit);
+}
@@ -0,0 +1,49 @@
+package com.example.bankcards.repository;
+
+import com.example.bankcards.entity.TransferRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface TransferRequestRepository extends JpaRepository<TransferRequest, Long> {
+
+    @Query("""
+    SELECT r FROM TransferRequest r
+    WHERE r.userId = :userId
+      AND r.idempotencyKey = :key
+""")
+    Optional<TransferRequest> findByUserIdAndKey(
+            @Param("userId") Long userId,
+            @Param("key") String key);
+
+    @Modifying
+    @Query(value = """
+    UPDATE transfer_requests
+    SET status_code = :statusCode,
+        response_body = :body
+    WHERE id = :id
+""", nativeQuery = true)
+    int complete(
+            @Param("id") Long id,
+            @Param("statusCode") int statusCode,
+            @Param("body") String body);
+
+    @Modifying
+    @Query(value = """
+    DELETE FROM transfer_requests
+    WHERE id IN (
+        SELECT id
+        FROM transfer_requests
+        WHERE created_at < :cutoff
+        ORDER BY created_at
+        LIMIT :limit
+    )
+""", nativeQuery = true)
+    int deleteOlderThan(
+            @Param("cutoff") LocalDateTime cutoff,
+            @Param("limit") int limit);
+}
@@ -5,6 +5,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -16,4 +17,11 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> getByUsername (
             @Param("username") String username
     );
+
+    @Query("""
+        SELECT u.id AS id, u.tokenVersion AS tokenVersion, u.enabled AS enabled
+        FROM User u
+        WHERE u.tokenVersion > 0 OR u.enabled = false
+""")
+    List<UserTokenStateView> findTokenStates();
 }
@@ -0,0 +1,9 @@
+package com.example.bankcards.repository;
+
+public interface UserTokenStateView {
+    Long getId();
+
+    Integer getTokenVersion();
+
+    Boolean getEnabled();
+}
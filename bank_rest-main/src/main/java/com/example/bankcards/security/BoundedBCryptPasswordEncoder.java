@@ -0,0 +1,83 @@
+package com.example.bankcards.security;
+
+import com.example.bankcards.exception.LoginOverloadedException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BCrypt, у которого проверка пароля выполняется на отдельном ограниченном пуле.
+ * <p>
+ * При всплеске логинов одновременно считается не больше poolSize хэшей, ещё queueCapacity ждут
+ * в очереди, остальные сразу получают {@link LoginOverloadedException} (503), а не занимают
+ * потоки Tomcat на сотни миллисекунд CPU каждый.
+ */
+public class BoundedBCryptPasswordEncoder implements PasswordEncoder, DisposableBean {
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final Duration waitTimeout;
+
+    public BoundedBCryptPasswordEncoder(int strength, int poolSize, int queueCapacity, Duration waitTimeout) {
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.waitTimeout = waitTimeout;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "bcrypt-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        Future<Boolean> result;
+        try {
+            result = executor.submit(() -> delegate.matches(rawPassword, encodedPassword));
+        } catch (RejectedExecutionException e) {
+            throw new LoginOverloadedException("Слишком много одновременных входов, повторите позже");
+        }
+
+        try {
+            return result.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            throw new LoginOverloadedException("Проверка пароля не уложилась в " + waitTimeout.toMillis() + " мс");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LoginOverloadedException("Проверка пароля прервана");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка проверки пароля", e.getCause());
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.bankcards.security;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.Collection;
+
+/**
+ * Принципал, собранный из подписанных claims JWT без обращения к БД.
+ */
+public record JwtPrincipal(
+        Long userId,
+        String username,
+        int tokenVersion,
+        Collection<? extends GrantedAuthority> authorities
+) {
+}
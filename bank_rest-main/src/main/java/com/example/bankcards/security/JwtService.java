@@ -1,46 +1,99 @@
 package com.example.bankcards.security;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
-import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
 @Service
-@RequiredArgsConstructor
 public class JwtService {
-    private final UserDetailsService userDetailsService;
+    static final String USER_ID_CLAIM = "uid";
+    static final String TOKEN_VERSION_CLAIM = "ver";
+    static final String ROLES_CLAIM = "roles";
 
-    @Value("${jwt.secret:${JWT_SECRET:}}")
-    private String secretKey;
+    private final Key signKey;
+    private final JwtParser parser;
+    private final long ttlMs;
 
-    public String generateToken(String username) {
-        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+    public JwtService(@Value("${jwt.secret:${JWT_SECRET:}}") String secretKey,
+                      @Value("${jwt.ttl-ms:86400000}") long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.signKey = Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8));
+        // JwtParser неизменяем и потокобезопасен — собираем один раз
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signKey)
+                .build();
+    }
+
+    /**
+     * Выпускает токен для уже аутентифицированного принципала — без повторной загрузки пользователя.
+     */
+    public String generateToken(UserDetails userDetails) {
         Map<String, Object> claims = new HashMap<>();
-        claims.put("roles", userDetails.getAuthorities());
+        claims.put(ROLES_CLAIM, userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .toList());
+        if (userDetails instanceof CustomUserDetails custom) {
+            claims.put(USER_ID_CLAIM, custom.getUser().getId());
+            claims.put(TOKEN_VERSION_CLAIM, custom.getUser().getTokenVersion());
+        }
         return Jwts.builder()
                 .setClaims(claims)
                 .setSubject(userDetails.getUsername())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 24))
-                .signWith(getSignKey(), SignatureAlgorithm.HS256)
+                .setExpiration(new Date(System.currentTimeMillis() + ttlMs))
+                .signWith(signKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
-    private Key getSignKey() {
-        byte[] keyBytes = secretKey.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+    /**
+     * Проверяет подпись и срок действия один раз; результат переиспользуется в рамках запроса.
+     *
+     * @throws io.jsonwebtoken.JwtException если токен некорректен, подделан или истёк
+     */
+    public Claims parseClaims(String token) {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    /**
+     * Собирает принципал из уже проверенных claims.
+     *
+     * @return null для токенов, выпущенных без uid/ver — для них нужен путь через БД
+     */
+    public JwtPrincipal toPrincipal(Claims claims) {
+        Number userId = claims.get(USER_ID_CLAIM, Number.class);
+        Number version = claims.get(TOKEN_VERSION_CLAIM, Number.class);
+        if (userId == null || version == null) {
+            return null;
+        }
+        return new JwtPrincipal(userId.longValue(), claims.getSubject(), version.intValue(), authorities(claims));
+    }
+
+    private static List<GrantedAuthority> authorities(Claims claims) {
+        Object raw = claims.get(ROLES_CLAIM);
+        if (!(raw instanceof Collection<?> roles)) {
+            return List.of();
+        }
+        return roles.stream()
+                .map(role -> role instanceof Map<?, ?> map ? map.get("authority") : role)
+                .filter(role -> role != null)
+                .<GrantedAuthority>map(role -> new SimpleGrantedAuthority(role.toString()))
+                .toList();
     }
 
     public String extractUsername(String token) {
@@ -48,20 +101,18 @@ public class JwtService {
     }
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = Jwts.parser()
-                .setSigningKey(secretKey.getBytes(StandardCharsets.UTF_8))
-                .parseClaimsJws(token)
-                .getBody();
-        return claimsResolver.apply(claims);
+        return claimsResolver.apply(parseClaims(token));
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return username.equals(userDetails.getUsername()) && !isTokenExpired(token);
+        return isTokenValid(parseClaims(token), userDetails);
+    }
+
+    public boolean isTokenValid(Claims claims, UserDetails userDetails) {
+        return claims.getSubject().equals(userDetails.getUsername()) && !isTokenExpired(claims);
     }
 
-    private boolean isTokenExpired(String token) {
-        final Date expiration = extractClaim(token, Claims::getExpiration);
-        return expiration.before(new Date());
+    private boolean isTokenExpired(Claims claims) {
+        return claims.getExpiration().before(new Date());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package com.example.bankcards.security;
+
+import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.repository.UserTokenStateView;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Компактная карта отзыва токенов: userId -> текущая token_version.
+ * <p>
+ * Хранятся только пользователи с версией больше 0 или отключённые (DISABLED), остальные считаются
+ * пользователями с версией 0. Карта целиком перечитывается из БД раз в refresh-ms, а изменения
+ * на этом узле применяются сразу после коммита. Удалённые пользователи хранятся как DISABLED
+ * не дольше срока жизни токена.
+ * <p>
+ * Удаление физическое, а надгробие есть только на узле, который удалял, поэтому пользователь,
+ * которого нет в карте, дополнительно проверяется на существование в БД. Ответ кэшируется
+ * на тот же refresh-ms: удалённый на другом узле или до рестарта пользователь теряет доступ
+ * с той же задержкой, что и при смене версии.
+ */
+@Component
+@Slf4j
+public class TokenVersionRegistry {
+    private static final int DISABLED = -1;
+
+    private record Tombstone(long deletedAt) {
+    }
+
+    private final UserRepository userRepository;
+    private final long tokenTtlMs;
+    private volatile Map<Long, Integer> versions = new ConcurrentHashMap<>();
+    private final Map<Long, Tombstone> deleted = new ConcurrentHashMap<>();
+    private final LoadingCache<Long, Boolean> existing;
+
+    public TokenVersionRegistry(UserRepository userRepository,
+                                @Value("${jwt.ttl-ms:86400000}") long tokenTtlMs,
+                                @Value("${jwt.revocation-refresh-ms:5000}") long refreshMs,
+                                @Value("${jwt.known-users-cache-size:100000}") long knownUsersCacheSize) {
+        this.userRepository = userRepository;
+        this.tokenTtlMs = tokenTtlMs;
+        this.existing = Caffeine.newBuilder()
+                .maximumSize(knownUsersCacheSize)
+                .expireAfterWrite(Duration.ofMillis(refreshMs))
+                .build(userRepository::existsById);
+    }
+
+    public boolean isCurrent(Long userId, int tokenVersion) {
+        if (deleted.containsKey(userId)) {
+            return false;
+        }
+        Integer current = versions.get(userId);
+        if (current == null) {
+            return tokenVersion >= 0 && Boolean.TRUE.equals(existing.get(userId));
+        }
+        // Токен новее известной версии означает, что карта этого узла ещё не обновилась
+        return current != DISABLED && tokenVersion >= current;
+    }
+
+    public void publishAfterCommit(Long userId, int tokenVersion, boolean enabled) {
+        runAfterCommit(() -> versions.put(userId, enabled ? tokenVersion : DISABLED));
+    }
+
+    public void revokeAfterCommit(Long userId) {
+        runAfterCommit(() -> {
+            deleted.put(userId, new Tombstone(System.currentTimeMillis()));
+            versions.put(userId, DISABLED);
+            existing.invalidate(userId);
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.revocation-refresh-ms:5000}")
+    public void refresh() {
+        Map<Long, Integer> fresh = new ConcurrentHashMap<>();
+        for (UserTokenStateView state : userRepository.findTokenStates()) {
+            fresh.put(state.getId(), Boolean.TRUE.equals(state.getEnabled()) ? state.getTokenVersion() : DISABLED);
+        }
+        long expiredBefore = System.currentTimeMillis() - tokenTtlMs;
+        deleted.entrySet().removeIf(e -> e.getValue().deletedAt() < expiredBefore);
+        deleted.keySet().forEach(id -> fresh.put(id, DISABLED));
+        versions = fresh;
+        log.debug("Обновлена карта версий токенов: {} записей", fresh.size());
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.dto.TransferStatusDto;
+import com.example.bankcards.entity.TransferOutbox;
+import com.example.bankcards.entity.TransferOutboxStatus;
+import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.exception.TransferNotFoundException;
+import com.example.bankcards.repository.TransferOutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Приём переводов в transfer_outbox и чтение их статуса. Выполняет переводы TransferOutboxWorker.
+ */
+@Service
+@Slf4j
+public class AsyncTransferService {
+    private final TransferOutboxRepository outboxRepository;
+    private final CryptoService cryptoService;
+    private final TransferOutboxWorker worker;
+
+    public AsyncTransferService(TransferOutboxRepository outboxRepository,
+                                CryptoService cryptoService,
+                                TransferOutboxWorker worker) {
+        this.outboxRepository = outboxRepository;
+        this.cryptoService = cryptoService;
+        this.worker = worker;
+    }
+
+    @Transactional
+    public TransferStatusDto submit(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new TransferException("Сумма перевода должна быть больше 0");
+        }
+        if (Objects.equals(cardNumberFrom, cardNumberTo)) {
+            throw new TransferException("Нельзя переводить на ту же самую карту");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        TransferOutbox saved = outboxRepository.save(TransferOutbox.builder()
+                .id(UUID.randomUUID())
+                .userId(userId)
+                .cardNumberFromEncrypted(cryptoService.encrypt(cardNumberFrom))
+                .cardNumberToEncrypted(cryptoService.encrypt(cardNumberTo))
+                .keyVersion(cryptoService.activeKeyVersion())
+                .amount(amount.setScale(2, RoundingMode.HALF_UP))
+                .status(TransferOutboxStatus.PENDING)
+                .availableAt(now)
+                .createdAt(now)
+                .updatedAt(now)
+                .build());
+
+        // Локальные воркеры подхватывают перевод сразу после коммита, не дожидаясь следующего опроса
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                worker.wakeUp();
+            }
+        });
+
+        log.info("Перевод принят в очередь: id = {}; пользователь: id = {}", saved.getId(), userId);
+        return toDto(saved);
+    }
+
+    @Transactional(readOnly = true)
+    public TransferStatusDto get(Long userId, UUID id) {
+        return outboxRepository.findByIdAndUserId(id, userId)
+                .map(AsyncTransferService::toDto)
+                .orElseThrow(() -> new TransferNotFoundException("Перевод не найден: " + id));
+    }
+
+    private static TransferStatusDto toDto(TransferOutbox outbox) {
+        return TransferStatusDto.builder()
+                .id(outbox.getId())
+                .status(outbox.getStatus())
+                .amount(outbox.getAmount())
+                .errorMessage(outbox.getErrorMessage())
+                .createdAt(outbox.getCreatedAt())
+                .updatedAt(outbox.getUpdatedAt())
+                .build();
+    }
+}
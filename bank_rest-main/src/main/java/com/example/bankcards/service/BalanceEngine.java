@@ -0,0 +1,323 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.CardEnginePartition;
+import com.example.bankcards.exception.TransferBusyException;
+import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.repository.CardEngineRequestRepository;
+import com.example.bankcards.repository.CardEngineView;
+import com.example.bankcards.repository.CardEnginePartitionRepository;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.util.CardMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Необязательный движок балансов в памяти (card.transfer.engine.enabled) для переводов без ожидания коммита Postgres.
+ * <p>
+ * Карты делятся на card.transfer.engine.partitions партиций по владельцу: перевод всегда между картами
+ * одного пользователя, поэтому целиком исполняется одной партицией ({@link BalanceEnginePartition}).
+ * Перевод подтверждается после записи в журнал партиции на диске, в cards изменения попадают пачками
+ * (write-behind) вместе с позицией журнала в card_engine_partitions.
+ * <p>
+ * При старте журнал сверяется с card_engine_partitions: записи после applied_seq доприменяются к cards,
+ * после чего балансы в памяти загружаются из БД заново. Движок рассчитан на один экземпляр приложения:
+ * журнал локальный, а балансы в памяти не видят чужих подтверждённых, но ещё не записанных переводов.
+ * <p>
+ * Вызывающая сторона передаёт ключ запроса и зовёт движок уже после коммита своей строки запроса:
+ * повтор с тем же ключом не спишет деньги второй раз (ключи записываются в card_engine_requests).
+ */
+@Component
+@Slf4j
+public class BalanceEngine {
+    private final CardRepository cardRepository;
+    private final CardEnginePartitionRepository partitionRepository;
+    private final CardEngineRequestRepository requestRepository;
+    private final UserRepository userRepository;
+    private final CryptoService cryptoService;
+    private final TransactionTemplate tx;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final int partitionCount;
+    private final Path journalDir;
+    private final int queueCapacity;
+    private final int maxBatch;
+    private final Duration flushInterval;
+    private final int flushBatch;
+    private final int maxUsers;
+    private final Timer flushTime;
+
+    private volatile BalanceEnginePartition[] partitions;
+    private ExecutorService flushExecutor;
+
+    public BalanceEngine(CardRepository cardRepository,
+                         CardEnginePartitionRepository partitionRepository,
+                         CardEngineRequestRepository requestRepository,
+                         UserRepository userRepository,
+                         CryptoService cryptoService,
+                         PlatformTransactionManager transactionManager,
+                         MeterRegistry meterRegistry,
+                         @Value("${card.transfer.engine.enabled:false}") boolean enabled,
+                         @Value("${card.transfer.engine.partitions:4}") int partitions,
+                         @Value("${card.transfer.engine.journal-dir:data/engine}") String journalDir,
+                         @Value("${card.transfer.engine.queue-capacity:10000}") int queueCapacity,
+                         @Value("${card.transfer.engine.max-batch:256}") int maxBatch,
+                         @Value("${card.transfer.engine.flush-interval:50ms}") Duration flushInterval,
+                         @Value("${card.transfer.engine.flush-batch:1000}") int flushBatch,
+                         @Value("${card.transfer.engine.max-users:100000}") int maxUsers) {
+        this.cardRepository = cardRepository;
+        this.partitionRepository = partitionRepository;
+        this.requestRepository = requestRepository;
+        this.userRepository = userRepository;
+        this.cryptoService = cryptoService;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.tx.setTimeout(10);
+        this.meterRegistry = meterRegistry;
+
+        this.enabled = enabled;
+        this.partitionCount = Math.max(1, partitions);
+        this.journalDir = Path.of(journalDir);
+        this.queueCapacity = queueCapacity;
+        this.maxBatch = maxBatch;
+        this.flushInterval = flushInterval;
+        this.flushBatch = flushBatch;
+        this.maxUsers = maxUsers;
+
+        this.flushTime = Timer.builder("card.engine.flush")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        recover();
+
+        AtomicInteger counter = new AtomicInteger();
+        flushExecutor = Executors.newFixedThreadPool(partitionCount, r -> {
+            Thread t = new Thread(r, "balance-engine-flush-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+
+        BalanceEnginePartition[] started = new BalanceEnginePartition[partitionCount];
+        BalanceEnginePartition.Store store = new DbStore();
+        for (int p = 0; p < partitionCount; p++) {
+            long nextSeq = appliedSeq(p) + 1;
+            try {
+                started[p] = new BalanceEnginePartition(p, new TransferJournal(journalDir, p, maxBatch), store,
+                        flushExecutor, nextSeq, queueCapacity, maxBatch, flushInterval.toNanos(), flushBatch, maxUsers);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть журнал движка балансов: " + journalDir, e);
+            }
+
+            BalanceEnginePartition partition = started[p];
+            String tag = String.valueOf(p);
+            Gauge.builder("card.engine.queue", partition, BalanceEnginePartition::queued)
+                    .tag("partition", tag)
+                    .register(meterRegistry);
+            FunctionCounter.builder("card.engine.transfers", partition, BalanceEnginePartition::applied)
+                    .tag("partition", tag)
+                    .register(meterRegistry);
+            partition.start();
+        }
+        partitions = started;
+        log.info("Движок балансов запущен: партиций = {}; журнал = {}", partitionCount, journalDir.toAbsolutePath());
+    }
+
+    public void transfer(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        transfer(userId, cardNumberFrom, cardNumberTo, amount, null, false);
+    }
+
+    /**
+     * @param requestKey ключ запроса вызывающей стороны; перевод с тем же ключом применяется один раз
+     * @param retry      с этим ключом движок уже могли вызывать (повтор после сбоя или рестарта)
+     */
+    public void transfer(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount,
+                         String requestKey, boolean retry) {
+        long cents = CardService.transferAmount(amount).minor();
+        if (Objects.equals(cardNumberFrom, cardNumberTo)) {
+            throw new TransferException("Нельзя переводить на ту же самую карту");
+        }
+
+        BalanceEnginePartition[] current = partitions;
+        if (current == null) {
+            throw new TransferBusyException("Движок балансов ещё не запущен, повторите перевод позже");
+        }
+
+        BalanceEnginePartition.Transfer command = new BalanceEnginePartition.Transfer(userId,
+                cryptoService.blindIndex(cardNumberFrom), cryptoService.blindIndex(cardNumberTo),
+                CardMapper.mask(CardMapper.lastFour(cardNumberFrom)), CardMapper.mask(CardMapper.lastFour(cardNumberTo)),
+                cents, requestKey == null ? null : BalanceEnginePartition.RequestKey.of(requestKey), retry,
+                new CompletableFuture<>());
+        if (!current[partition(userId, current.length)].submit(command)) {
+            throw new TransferBusyException("Очередь движка балансов заполнена, повторите перевод позже");
+        }
+
+        try {
+            command.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        log.info("Перевод {} выполнен движком балансов: from {} -> to {}", amount, command.maskedFrom(), command.maskedTo());
+    }
+
+    static int partition(Long userId, int count) {
+        int h = Long.hashCode(userId);
+        return Math.floorMod(h ^ (h >>> 16), count);
+    }
+
+    /**
+     * Доприменяет к cards записи журнала, которых ещё нет в БД, и удаляет сегменты.
+     */
+    void recover() {
+        try {
+            for (int p : TransferJournal.partitions(journalDir)) {
+                List<TransferJournal.Entry> entries = TransferJournal.readAll(journalDir, p);
+                long applied = appliedSeq(p);
+                long maxSeq = applied;
+                LocalDate today = LocalDate.now();
+                Map<Long, BigDecimal> deltas = new HashMap<>();
+                Map<Long, BigDecimal> spent = new HashMap<>();
+                List<BalanceEnginePartition.RequestKey> keys = new ArrayList<>();
+                for (TransferJournal.Entry entry : entries) {
+                    if (entry.seq() <= applied) {
+                        continue;
+                    }
+                    if (entry.keyHigh() != 0 || entry.keyLow() != 0) {
+                        keys.add(new BalanceEnginePartition.RequestKey(entry.keyHigh(), entry.keyLow()));
+                    }
+                    BigDecimal amount = BigDecimal.valueOf(entry.amountCents(), 2);
+                    deltas.merge(entry.fromId(), amount.negate(), BigDecimal::add);
+                    deltas.merge(entry.toId(), amount, BigDecimal::add);
+                    if (entry.spentDay() == today.toEpochDay()) {
+                        spent.merge(entry.fromId(), amount, BigDecimal::add);
+                    }
+                    maxSeq = Math.max(maxSeq, entry.seq());
+                }
+                if (maxSeq > applied) {
+                    flush(p, maxSeq, deltas, spent, today, keys);
+                    log.info("Партиция {} восстановлена из журнала: записей {}; seq {} -> {}",
+                            p, entries.size(), applied, maxSeq);
+                }
+                TransferJournal.deleteAll(journalDir, p);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать журнал движка балансов: " + journalDir, e);
+        }
+    }
+
+    private long appliedSeq(int partition) {
+        return partitionRepository.findById(partition)
+                .map(CardEnginePartition::getAppliedSeq)
+                .orElse(0L);
+    }
+
+    List<CardEngineView> flush(int partition, long upToSeq, Map<Long, BigDecimal> deltas,
+                               Map<Long, BigDecimal> spent, LocalDate day,
+                               Collection<BalanceEnginePartition.RequestKey> keys) {
+        long started = System.nanoTime();
+        try {
+            return tx.execute(status -> {
+                partitionRepository.createIfAbsent(partition, LocalDateTime.now());
+                long applied = partitionRepository.lockAppliedSeq(partition);
+                if (applied < upToSeq) {
+                    deltas.forEach((cardId, delta) -> {
+                        if (delta.signum() != 0 && cardRepository.addEngineDelta(cardId, delta) == 0) {
+                            if (cardRepository.existsById(cardId)) {
+                                // Откат всей пачки: запись повторится, пока баланс не поправят вручную
+                                throw new IllegalStateException("Запись движка балансов отклонена: баланс карты id = "
+                                        + cardId + " стал бы отрицательным (дельта " + delta + ")");
+                            }
+                            log.warn("Карта id = {} удалена, дельта движка {} не записана", cardId, delta);
+                        }
+                    });
+                    spent.forEach((cardId, amount) -> cardRepository.addEngineSpent(cardId, amount, day));
+                    LocalDateTime now = LocalDateTime.now();
+                    keys.forEach(key -> requestRepository.insertIfAbsent(key.hex(), now));
+                    partitionRepository.setAppliedSeq(partition, upToSeq, LocalDateTime.now());
+                }
+                return deltas.isEmpty() ? List.of() : cardRepository.findEngineCardsByIds(deltas.keySet(), day);
+            });
+        } finally {
+            flushTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        BalanceEnginePartition[] current = partitions;
+        if (current != null) {
+            for (BalanceEnginePartition partition : current) {
+                partition.stop();
+            }
+        }
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+    }
+
+    private class DbStore implements BalanceEnginePartition.Store {
+        @Override
+        public List<CardEngineView> loadUser(Long userId, LocalDate day) {
+            return cardRepository.findEngineCards(userId, day);
+        }
+
+        @Override
+        public boolean userExists(Long userId) {
+            return userRepository.existsById(userId);
+        }
+
+        @Override
+        public boolean isApplied(BalanceEnginePartition.RequestKey key) {
+            return requestRepository.existsById(key.hex());
+        }
+
+        @Override
+        public List<CardEngineView> flush(int partition, long upToSeq, Map<Long, BigDecimal> deltas,
+                                          Map<Long, BigDecimal> spent, LocalDate day,
+                                          Collection<BalanceEnginePartition.RequestKey> keys) {
+            return BalanceEngine.this.flush(partition, upToSeq, deltas, spent, day, keys);
+        }
+    }
+}
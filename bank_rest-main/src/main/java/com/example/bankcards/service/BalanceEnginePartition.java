@@ -0,0 +1,509 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
+import com.example.bankcards.exception.CardNotFoundException;
+import com.example.bankcards.exception.DailyLimitExceededException;
+import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.exception.UserNotFoundCustomException;
+import com.example.bankcards.repository.CardEngineView;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одна партиция {@link BalanceEngine}: единственный поток-писатель применяет переводы к балансам в памяти
+ * строго по очереди, без блокировок.
+ * <p>
+ * Команды забираются из очереди пачкой, каждый принятый перевод пишется в {@link TransferJournal},
+ * после одного fsync на пачку переводы подтверждаются. Изменённые карты копятся как дельты и не чаще
+ * flushInterval передаются на запись в БД ({@link Store#flush}); в это время поток продолжает работу.
+ * После записи балансы карт обновляются из БД, так что изменения в обход движка видны с задержкой одной записи.
+ * <p>
+ * Дневной лимит карты (daily_limit) проверяется по расходу в памяти, который пишется в spent_today
+ * вместе с дельтами.
+ * <p>
+ * Перевод с ключом запроса применяется не более одного раза: до записи в БД ключ помнит партиция,
+ * после — card_engine_requests, куда он попадает в одной транзакции с дельтами.
+ */
+@Slf4j
+public class BalanceEnginePartition {
+
+    /**
+     * Доступ партиции к БД; вызывается из потока партиции (загрузка) и из потока записи (flush).
+     */
+    public interface Store {
+        /**
+         * @param day день, за который возвращается расход по дневному лимиту
+         */
+        List<CardEngineView> loadUser(Long userId, LocalDate day);
+
+        boolean userExists(Long userId);
+
+        /**
+         * @return true, если перевод с этим ключом уже записан в БД
+         */
+        boolean isApplied(RequestKey key);
+
+        /**
+         * Применяет дельты и расход за day, сохраняет ключи запросов и отмечает seq <= upToSeq записанными;
+         * повтор с тем же upToSeq ничего не меняет.
+         *
+         * @return актуальные балансы и расход за day записанных карт
+         */
+        List<CardEngineView> flush(int partition, long upToSeq, Map<Long, BigDecimal> deltas,
+                                   Map<Long, BigDecimal> spent, LocalDate day, Collection<RequestKey> keys);
+    }
+
+    /**
+     * Ключ идемпотентности перевода: первые 16 байт SHA-256 от ключа вызывающей стороны.
+     */
+    public record RequestKey(long high, long low) {
+        public static RequestKey of(String raw) {
+            try {
+                ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                        .digest(raw.getBytes(StandardCharsets.UTF_8)));
+                return new RequestKey(digest.getLong(), digest.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public String hex() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    /**
+     * @param requestKey null — перевод без ключа, не защищён от повтора
+     * @param retry      ключ мог быть применён раньше, поэтому его нужно проверить и в БД
+     */
+    public record Transfer(Long userId, String hashFrom, String hashTo, String maskedFrom, String maskedTo,
+                           long amountCents, RequestKey requestKey, boolean retry,
+                           CompletableFuture<Void> result) implements Command {
+    }
+
+    sealed interface Command permits Transfer, FlushDone {
+    }
+
+    private record FlushDone(Batch batch, List<CardEngineView> refreshed, RuntimeException error) implements Command {
+    }
+
+    private record Batch(long upToSeq, Map<Long, BigDecimal> deltas, Map<Long, BigDecimal> spent, LocalDate day,
+                         List<RequestKey> keys) {
+    }
+
+    /**
+     * from/to == null — повтор уже применённого перевода: деньги не двигаются, ответ ждёт fsync пачки.
+     * spent — сколько засчитано в дневной расход карты from.
+     */
+    private record Applied(Transfer transfer, EngineCard from, EngineCard to, long spent) {
+        boolean duplicate() {
+            return from == null;
+        }
+    }
+
+    private static final class EngineCard {
+        final long id;
+        final String hash;
+        String status;
+        long balance;
+        // Изменения после последней передачи на запись в БД
+        long unflushed;
+        // -1 — без лимита
+        long dailyLimit;
+        long spentToday;
+        LocalDate spentDay;
+        long unflushedSpent;
+
+        EngineCard(CardEngineView view, LocalDate day) {
+            this.id = view.getId();
+            this.hash = view.getCardNumberHash();
+            this.status = view.getStatus();
+            this.balance = toCents(view.getBalance());
+            this.dailyLimit = view.getDailyLimit() == null ? -1 : toCents(view.getDailyLimit());
+            this.spentToday = toCents(view.getSpentToday());
+            this.spentDay = day;
+        }
+
+        /**
+         * С наступлением нового дня расход обнуляется; незаписанный расход прошлого дня для лимита уже не важен.
+         */
+        void rollDay(LocalDate today) {
+            if (!today.equals(spentDay)) {
+                spentToday = 0;
+                unflushedSpent = 0;
+                spentDay = today;
+            }
+        }
+    }
+
+    private final int id;
+    private final TransferJournal journal;
+    private final Store store;
+    private final Executor flushExecutor;
+    private final BlockingQueue<Command> queue;
+    private final int maxBatch;
+    private final long flushIntervalNanos;
+    private final int flushBatch;
+    private final int maxUsers;
+
+    // Только поток партиции
+    private final LinkedHashMap<Long, Map<String, EngineCard>> users = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, EngineCard> cards = new HashMap<>();
+    private final Set<EngineCard> dirty = new LinkedHashSet<>();
+    // Ключи запросов, ещё не записанные в БД, -> seq их перевода
+    private final Map<RequestKey, Long> unflushedKeys = new HashMap<>();
+    private long nextSeq;
+    private Batch inFlight;
+    private boolean inFlightFailed;
+    private long lastFlush = System.nanoTime();
+
+    private volatile long applied;
+    private Thread thread;
+
+    public BalanceEnginePartition(int id, TransferJournal journal, Store store, Executor flushExecutor,
+                                  long nextSeq, int queueCapacity, int maxBatch,
+                                  long flushIntervalNanos, int flushBatch, int maxUsers) {
+        this.id = id;
+        this.journal = journal;
+        this.store = store;
+        this.flushExecutor = flushExecutor;
+        this.nextSeq = nextSeq;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.flushIntervalNanos = flushIntervalNanos;
+        this.flushBatch = Math.max(1, flushBatch);
+        this.maxUsers = Math.max(1, maxUsers);
+    }
+
+    public void start() {
+        thread = new Thread(this::run, "balance-engine-" + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @return false, если очередь партиции заполнена
+     */
+    public boolean submit(Transfer transfer) {
+        return queue.offer(transfer);
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public long applied() {
+        return applied;
+    }
+
+    private void run() {
+        List<Command> drained = new ArrayList<>(maxBatch);
+        List<Applied> batch = new ArrayList<>(maxBatch);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Command first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    drained.add(first);
+                    queue.drainTo(drained, maxBatch - 1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            for (Command command : drained) {
+                if (command instanceof Transfer transfer) {
+                    apply(transfer, batch);
+                } else if (command instanceof FlushDone done) {
+                    flushed(done);
+                }
+            }
+            drained.clear();
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+            flushIfDue();
+        }
+        failQueued();
+    }
+
+    private void apply(Transfer t, List<Applied> batch) {
+        RequestKey key = t.requestKey();
+        LocalDate today = LocalDate.now();
+        EngineCard from;
+        EngineCard to;
+        try {
+            if (key != null && (unflushedKeys.containsKey(key) || (t.retry() && store.isApplied(key)))) {
+                log.info("Партиция {}: перевод {} уже применён, повтор пропущен", id, key.hex());
+                batch.add(new Applied(t, null, null, 0));
+                return;
+            }
+            from = card(t.userId(), t.hashFrom(), t.maskedFrom(), today);
+            to = card(t.userId(), t.hashTo(), t.maskedTo(), today);
+            if (!CardStatus.ACTIVE.name().equals(from.status)) {
+                throw new CardNotFoundException("Активная карта не найдена: id = " + from.id);
+            }
+            if (!CardStatus.ACTIVE.name().equals(to.status)) {
+                throw new CardNotFoundException("Активная карта не найдена: id = " + to.id);
+            }
+            if (from.balance < t.amountCents()) {
+                throw new TransferException("Недостаточно средств на карте " + t.maskedFrom());
+            }
+            if (from.dailyLimit >= 0) {
+                from.rollDay(today);
+                if (from.spentToday + t.amountCents() > from.dailyLimit) {
+                    throw new DailyLimitExceededException("Превышен дневной лимит списаний по карте " + t.maskedFrom());
+                }
+            }
+            journal.append(new TransferJournal.Entry(nextSeq, t.userId(), from.id, to.id, t.amountCents(),
+                    from.dailyLimit >= 0 ? today.toEpochDay() : 0,
+                    key == null ? 0 : key.high(), key == null ? 0 : key.low()));
+        } catch (IOException e) {
+            t.result().completeExceptionally(new IllegalStateException("Журнал движка балансов недоступен", e));
+            return;
+        } catch (RuntimeException e) {
+            t.result().completeExceptionally(e);
+            return;
+        }
+
+        if (key != null) {
+            unflushedKeys.put(key, nextSeq);
+        }
+        nextSeq++;
+        move(from, to, t.amountCents());
+        long spent = from.dailyLimit >= 0 ? t.amountCents() : 0;
+        from.spentToday += spent;
+        from.unflushedSpent += spent;
+        batch.add(new Applied(t, from, to, spent));
+    }
+
+    private void commit(List<Applied> batch) {
+        try {
+            journal.sync();
+        } catch (IOException | RuntimeException e) {
+            log.error("Партиция {}: журнал не записан, откат {} переводов: {}", id, batch.size(), e.getMessage());
+            try {
+                journal.discardUnsynced();
+            } catch (IOException ex) {
+                log.error("Партиция {}: не удалось отбросить недописанные записи журнала: {}", id, ex.getMessage());
+            }
+            IllegalStateException failure = new IllegalStateException("Журнал движка балансов недоступен", e);
+            for (int i = batch.size() - 1; i >= 0; i--) {
+                Applied a = batch.get(i);
+                if (!a.duplicate()) {
+                    move(a.to(), a.from(), a.transfer().amountCents());
+                    a.from().spentToday = Math.max(0, a.from().spentToday - a.spent());
+                    a.from().unflushedSpent = Math.max(0, a.from().unflushedSpent - a.spent());
+                    if (a.transfer().requestKey() != null) {
+                        unflushedKeys.remove(a.transfer().requestKey());
+                    }
+                    nextSeq--;
+                }
+                a.transfer().result().completeExceptionally(failure);
+            }
+            return;
+        }
+
+        for (Applied a : batch) {
+            if (!a.duplicate()) {
+                applied++;
+            }
+            a.transfer().result().complete(null);
+        }
+    }
+
+    private void move(EngineCard from, EngineCard to, long amount) {
+        from.balance -= amount;
+        from.unflushed -= amount;
+        to.balance += amount;
+        to.unflushed += amount;
+        dirty.add(from);
+        dirty.add(to);
+    }
+
+    private EngineCard card(Long userId, String hash, String masked, LocalDate today) {
+        Map<String, EngineCard> owned = users.get(userId);
+        if (owned == null) {
+            owned = load(userId, new HashMap<>(), today);
+        }
+        EngineCard card = owned.get(hash);
+        if (card == null) {
+            // Карта могла появиться после загрузки пользователя
+            owned = load(userId, owned, today);
+            card = owned.get(hash);
+        }
+        if (card == null) {
+            if (owned.isEmpty() && !store.userExists(userId)) {
+                users.remove(userId);
+                throw new UserNotFoundCustomException("Пользователь не найден: " + userId);
+            }
+            throw new CardNotFoundException("Карта не найдена: " + masked);
+        }
+        return card;
+    }
+
+    private Map<String, EngineCard> load(Long userId, Map<String, EngineCard> owned, LocalDate today) {
+        for (CardEngineView view : store.loadUser(userId, today)) {
+            if (view.getCardNumberHash() != null && !cards.containsKey(view.getId())) {
+                EngineCard card = new EngineCard(view, today);
+                owned.put(card.hash, card);
+                cards.put(card.id, card);
+            }
+        }
+        users.put(userId, owned);
+        return owned;
+    }
+
+    private void flushIfDue() {
+        long now = System.nanoTime();
+        if (inFlight != null) {
+            if (inFlightFailed && now - lastFlush >= flushIntervalNanos) {
+                // Повтор той же пачки: БД сама отбросит её, если прошлая попытка всё-таки закоммитилась
+                inFlightFailed = false;
+                lastFlush = now;
+                submitFlush(inFlight);
+            }
+            return;
+        }
+        if (dirty.isEmpty() || (now - lastFlush < flushIntervalNanos && dirty.size() < flushBatch)) {
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        Map<Long, BigDecimal> deltas = new HashMap<>();
+        Map<Long, BigDecimal> spent = new HashMap<>();
+        for (EngineCard card : dirty) {
+            if (card.unflushed != 0) {
+                deltas.put(card.id, BigDecimal.valueOf(card.unflushed, 2));
+            }
+            card.unflushed = 0;
+            card.rollDay(today);
+            if (card.unflushedSpent != 0) {
+                spent.put(card.id, BigDecimal.valueOf(card.unflushedSpent, 2));
+            }
+            card.unflushedSpent = 0;
+        }
+        dirty.clear();
+        try {
+            journal.roll();
+        } catch (IOException e) {
+            log.error("Партиция {}: не удалось закрыть сегмент журнала: {}", id, e.getMessage());
+        }
+
+        inFlight = new Batch(nextSeq - 1, deltas, spent, today, List.copyOf(unflushedKeys.keySet()));
+        lastFlush = now;
+        submitFlush(inFlight);
+    }
+
+    private void submitFlush(Batch batch) {
+        flushExecutor.execute(() -> {
+            FlushDone done;
+            try {
+                done = new FlushDone(batch, store.flush(id, batch.upToSeq(), batch.deltas(), batch.spent(),
+                        batch.day(), batch.keys()), null);
+            } catch (RuntimeException e) {
+                done = new FlushDone(batch, null, e);
+            }
+            try {
+                queue.put(done);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void flushed(FlushDone done) {
+        if (done.error() != null) {
+            log.warn("Партиция {}: запись балансов до seq {} не удалась, будет повторена: {}",
+                    id, done.batch().upToSeq(), done.error().getMessage());
+            inFlightFailed = true;
+            return;
+        }
+
+        for (CardEngineView view : done.refreshed()) {
+            EngineCard card = cards.get(view.getId());
+            if (card != null) {
+                card.balance = toCents(view.getBalance()) + card.unflushed;
+                card.status = view.getStatus();
+                card.dailyLimit = view.getDailyLimit() == null ? -1 : toCents(view.getDailyLimit());
+                if (done.batch().day().equals(card.spentDay)) {
+                    card.spentToday = toCents(view.getSpentToday()) + card.unflushedSpent;
+                }
+            }
+        }
+        long upToSeq = done.batch().upToSeq();
+        unflushedKeys.values().removeIf(seq -> seq <= upToSeq);
+        try {
+            journal.release(upToSeq);
+        } catch (IOException e) {
+            log.warn("Партиция {}: не удалось удалить сегменты журнала: {}", id, e.getMessage());
+        }
+        inFlight = null;
+        evictIdle();
+    }
+
+    /**
+     * Выгружает давно не использованных пользователей без незаписанных изменений.
+     */
+    private void evictIdle() {
+        Iterator<Map.Entry<Long, Map<String, EngineCard>>> it = users.entrySet().iterator();
+        while (users.size() > maxUsers && it.hasNext()) {
+            Map<String, EngineCard> owned = it.next().getValue();
+            if (owned.values().stream().anyMatch(dirty::contains)) {
+                continue;
+            }
+            owned.values().forEach(card -> cards.remove(card.id));
+            it.remove();
+        }
+    }
+
+    private void failQueued() {
+        List<Command> left = new ArrayList<>();
+        queue.drainTo(left);
+        IllegalStateException stopped = new IllegalStateException("Движок балансов остановлен");
+        for (Command command : left) {
+            if (command instanceof Transfer transfer) {
+                transfer.result().completeExceptionally(stopped);
+            }
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Партиция {}: не удалось закрыть журнал: {}", id, e.getMessage());
+        }
+    }
+
+    static long toCents(BigDecimal amount) {
+        return Money.of(amount).minor();
+    }
+}
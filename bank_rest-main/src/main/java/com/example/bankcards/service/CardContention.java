@@ -0,0 +1,114 @@
+package com.example.bankcards.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Учёт конфликтов оптимистичных переводов по картам и параметры повторов.
+ * <p>
+ * Для каждой карты хранится доля конфликтов с экспоненциальным затуханием во времени:
+ * ADAPTIVE переводит «горячие» карты на блокировки строк, а когда конфликты стихают, доля сама опускается
+ * ниже порога и карта возвращается к оптимистичному пути. Неактивные карты вытесняются из кэша.
+ */
+@Component
+public class CardContention {
+    private final int maxAttempts;
+    private final long backoffBaseNanos;
+    private final long backoffMaxNanos;
+    private final double hotThreshold;
+    private final double halfLifeNanos;
+    private final Cache<Long, ConflictRate> rates;
+
+    private final Counter conflicts;
+    private final Counter retries;
+    private final Counter exhausted;
+    private final Counter optimisticRoutes;
+    private final Counter pessimisticRoutes;
+
+    public CardContention(MeterRegistry meterRegistry,
+                          @Value("${card.transfer.optimistic.max-attempts:5}") int maxAttempts,
+                          @Value("${card.transfer.optimistic.backoff-base:2ms}") Duration backoffBase,
+                          @Value("${card.transfer.optimistic.backoff-max:50ms}") Duration backoffMax,
+                          @Value("${card.transfer.adaptive.conflict-threshold:0.2}") double hotThreshold,
+                          @Value("${card.transfer.adaptive.half-life:10s}") Duration halfLife,
+                          @Value("${card.transfer.adaptive.max-cards:10000}") long maxCards) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseNanos = backoffBase.toNanos();
+        this.backoffMaxNanos = backoffMax.toNanos();
+        this.hotThreshold = hotThreshold;
+        this.halfLifeNanos = halfLife.toNanos();
+        this.rates = Caffeine.newBuilder()
+                .maximumSize(maxCards)
+                .expireAfterAccess(halfLife.multipliedBy(10))
+                .build();
+
+        this.conflicts = meterRegistry.counter("card.transfer.optimistic.conflicts");
+        this.retries = meterRegistry.counter("card.transfer.optimistic.retries");
+        this.exhausted = meterRegistry.counter("card.transfer.optimistic.exhausted");
+        this.optimisticRoutes = meterRegistry.counter("card.transfer.adaptive.route", "path", "optimistic");
+        this.pessimisticRoutes = meterRegistry.counter("card.transfer.adaptive.route", "path", "pessimistic");
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public void recordSuccess(Long cardId) {
+        rates.get(cardId, id -> new ConflictRate()).add(0.0, System.nanoTime(), halfLifeNanos);
+    }
+
+    public void recordConflict(Long cardId) {
+        conflicts.increment();
+        rates.get(cardId, id -> new ConflictRate()).add(1.0, System.nanoTime(), halfLifeNanos);
+    }
+
+    public void recordExhausted() {
+        exhausted.increment();
+    }
+
+    public boolean isHot(Long cardId) {
+        ConflictRate rate = rates.getIfPresent(cardId);
+        return rate != null && rate.current(System.nanoTime(), halfLifeNanos) >= hotThreshold;
+    }
+
+    public void recordRoute(boolean pessimistic) {
+        (pessimistic ? pessimisticRoutes : optimisticRoutes).increment();
+    }
+
+    /**
+     * Пауза перед повтором; false — поток прерван и повторять больше нельзя.
+     */
+    public boolean backoff(int attempt) {
+        retries.increment();
+        return RetryBackoff.pause(attempt, backoffBaseNanos, backoffMaxNanos);
+    }
+
+    private static final class ConflictRate {
+        private double value;
+        private long updatedAt = System.nanoTime();
+
+        synchronized void add(double sample, long now, double halfLifeNanos) {
+            double keep = decay(now, halfLifeNanos);
+            // Новое наблюдение весит 1/8, старая доля дополнительно затухает со временем
+            value = value * keep * 0.875 + sample * 0.125;
+            updatedAt = now;
+        }
+
+        synchronized double current(long now, double halfLifeNanos) {
+            return value * decay(now, halfLifeNanos);
+        }
+
+        private double decay(long now, double halfLifeNanos) {
+            if (halfLifeNanos <= 0) {
+                return 1.0;
+            }
+            return Math.pow(0.5, (now - updatedAt) / halfLifeNanos);
+        }
+    }
+}
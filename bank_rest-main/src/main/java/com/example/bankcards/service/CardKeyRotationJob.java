@@ -0,0 +1,92 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.CardCipherView;
+import com.example.bankcards.repository.CardRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Перешифровывает номера карт активным ключом после смены card.crypto.active-key-version.
+ * <p>
+ * Идёт по cards в порядке id небольшими порциями, каждая порция — отдельная короткая транзакция.
+ * Строки, заблокированные переводами, пропускаются (SKIP LOCKED) и подбираются следующим запуском.
+ * Прогресс хранится в самих строках (key_version), поэтому после рестарта работа продолжается
+ * без отдельного курсора.
+ */
+@Service
+@Slf4j
+public class CardKeyRotationJob {
+    private final CardRepository cardRepository;
+    private final CryptoService cryptoService;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final int chunkSize;
+    private final long throttleMs;
+
+    public CardKeyRotationJob(CardRepository cardRepository,
+                              CryptoService cryptoService,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${card.crypto.rotation.enabled:true}") boolean enabled,
+                              @Value("${card.crypto.rotation.chunk-size:200}") int chunkSize,
+                              @Value("${card.crypto.rotation.throttle-ms:50}") long throttleMs) {
+        this.cardRepository = cardRepository;
+        this.cryptoService = cryptoService;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.tx.setTimeout(10);
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        this.throttleMs = throttleMs;
+    }
+
+    @Scheduled(fixedDelayString = "${card.crypto.rotation.delay-ms:60000}")
+    public void reencrypt() {
+        if (!enabled) {
+            return;
+        }
+
+        int activeVersion = cryptoService.activeKeyVersion();
+        long afterId = 0L;
+        int total = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            final long from = afterId;
+            int[] processed = {0};
+            Long lastId = tx.execute(status -> {
+                List<CardCipherView> rows = cardRepository.lockForReencryption(activeVersion, from, chunkSize);
+                if (rows.isEmpty()) {
+                    return null;
+                }
+                for (CardCipherView row : rows) {
+                    String reencrypted = cryptoService.reencrypt(row.getCardNumber(), row.getKeyVersion());
+                    processed[0] += cardRepository.updateCipherText(
+                            row.getId(), reencrypted, row.getKeyVersion(), activeVersion);
+                }
+                return rows.get(rows.size() - 1).getId();
+            });
+
+            if (lastId == null) {
+                break;
+            }
+            total += processed[0];
+            afterId = lastId;
+
+            if (throttleMs > 0) {
+                try {
+                    Thread.sleep(throttleMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if (total > 0) {
+            log.info("Перешифровано ключом версии {}: {} карт", activeVersion, total);
+        }
+    }
+}
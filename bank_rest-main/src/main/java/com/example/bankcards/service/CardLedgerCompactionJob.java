@@ -0,0 +1,94 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.CardLedgerRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Сворачивает проводки card_ledger в cards.balance и сверяет снимки с журналом.
+ * <p>
+ * Каждая карта сворачивается отдельной короткой транзакцией: блокировка строки карты держится
+ * только на время одного UPDATE, зачисления в журнал при этом не ждут. Строка карты блокируется
+ * раньше проводок — в том же порядке, что и при переводах пачкой.
+ */
+@Service
+@Slf4j
+public class CardLedgerCompactionJob {
+    private static final int REPORT_LIMIT = 100;
+
+    private final CardLedgerRepository ledgerRepository;
+    private final TransactionTemplate tx;
+    private final int batchSize;
+
+    public CardLedgerCompactionJob(CardLedgerRepository ledgerRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${card.ledger.compaction.batch-size:500}") int batchSize) {
+        this.ledgerRepository = ledgerRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.tx.setTimeout(10);
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${card.ledger.compaction.delay-ms:5000}")
+    public void compact() {
+        int cards = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Long> cardIds = tx.execute(status -> ledgerRepository.findCardIdsWithPending(batchSize));
+            if (cardIds == null || cardIds.isEmpty()) {
+                break;
+            }
+            for (Long cardId : cardIds) {
+                Integer updated = tx.execute(status -> ledgerRepository.lockCard(cardId)
+                        .map(ledgerRepository::compactCard)
+                        .orElse(0));
+                if (updated != null && updated > 0) {
+                    cards++;
+                }
+            }
+            if (cardIds.size() < batchSize) {
+                break;
+            }
+        }
+
+        if (cards > 0) {
+            log.info("Журнал проводок свёрнут: карт = {}", cards);
+        }
+    }
+
+    /**
+     * Сверка журнала: каждая пара проводок перевода в сумме даёт 0, свёрнутые проводки совпадают
+     * с ledger_compacted_sum карты, снимок плюс несвёрнутые проводки не уходит в минус.
+     */
+    @Scheduled(cron = "${card.ledger.check.cron:0 30 * * * *}")
+    public LedgerCheckReport check() {
+        LedgerCheckReport report = tx.execute(status -> new LedgerCheckReport(
+                ledgerRepository.findUnbalancedTransfers(REPORT_LIMIT),
+                ledgerRepository.findSnapshotMismatches(REPORT_LIMIT),
+                ledgerRepository.findOverdrawn(REPORT_LIMIT)));
+
+        if (report.isConsistent()) {
+            log.info("Сверка журнала проводок: расхождений нет");
+        } else {
+            log.error("Сверка журнала проводок: несбалансированные переводы = {}; расхождение снимка у карт = {}; " +
+                            "отрицательный баланс у карт = {}",
+                    report.unbalancedTransfers(), report.snapshotMismatches(), report.overdrawnCards());
+        }
+        return report;
+    }
+
+    public record LedgerCheckReport(List<UUID> unbalancedTransfers,
+                                    List<Long> snapshotMismatches,
+                                    List<Long> overdrawnCards) {
+        public boolean isConsistent() {
+            return unbalancedTransfers.isEmpty() && snapshotMismatches.isEmpty() && overdrawnCards.isEmpty();
+        }
+    }
+}
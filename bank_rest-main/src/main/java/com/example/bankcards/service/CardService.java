@@ -1,13 +1,18 @@
 package com.example.bankcards.service;
 
-import com.example.bankcards.dto.CardCreateDto;
-import com.example.bankcards.dto.CardResponseDto;
-import com.example.bankcards.dto.CardUpdateDto;
+import com.example.bankcards.dto.*;
 import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardLedgerEntry;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
 import com.example.bankcards.entity.User;
 import com.example.bankcards.exception.*;
+import com.example.bankcards.repository.CardLedgerRepository;
+import com.example.bankcards.repository.CardPendingView;
+import com.example.bankcards.repository.CardRefView;
 import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.CardShardView;
+import com.example.bankcards.repository.CardVersionView;
 import com.example.bankcards.repository.UserRepository;
 import com.example.bankcards.util.CardMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -18,34 +23,75 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 @Service
 @Slf4j
 public class CardService {
     private final CardRepository cardRepository;
+    private final CardLedgerRepository ledgerRepository;
     private final UserRepository userRepository;
     private final CardMapper mapper;
     private final CryptoService cryptoService;
     private final String validityMonths;
+    private final TransferStrategy transferStrategy;
+    private final CardContention contention;
+    private final TransferLockPolicy lockPolicy;
+    private final TransferIntentLog intentLog;
+    private final TransferVelocity velocity;
+    // При включённом движке балансов деньги списывает только он: его проверка остатка не видит прямых UPDATE
+    private final boolean engineEnabled;
 
     public CardService(CardRepository cardRepository,
+                       CardLedgerRepository ledgerRepository,
                        UserRepository userRepository,
                        CardMapper mapper,
                        CryptoService cryptoService,
-                       @Value("${card.crypto.validity}") String validityMonths) {
+                       @Value("${card.crypto.validity}") String validityMonths,
+                       @Value("${card.transfer.strategy:CONDITIONAL}") TransferStrategy transferStrategy,
+                       CardContention contention,
+                       TransferLockPolicy lockPolicy,
+                       TransferIntentLog intentLog,
+                       TransferVelocity velocity,
+                       @Value("${card.transfer.engine.enabled:false}") boolean engineEnabled) {
         this.cardRepository = cardRepository;
+        this.ledgerRepository = ledgerRepository;
         this.userRepository = userRepository;
         this.mapper = mapper;
         this.cryptoService = cryptoService;
         this.validityMonths = validityMonths;
+        this.transferStrategy = transferStrategy;
+        this.contention = contention;
+        this.lockPolicy = lockPolicy;
+        this.intentLog = intentLog;
+        this.velocity = velocity;
+        this.engineEnabled = engineEnabled;
+    }
+
+    private void requireSqlDebits(String operation) {
+        if (engineEnabled) {
+            throw new TransferException(operation + " недоступно при включённом движке балансов");
+        }
     }
 
     @Transactional(readOnly = true)
@@ -60,11 +106,7 @@ public class CardService {
     @Transactional(readOnly = true)
     public Page<CardResponseDto> getAll(Pageable pageable) {
         Page<Card> page = cardRepository.findAll(pageable);
-        List<CardResponseDto> content = page
-                .getContent()
-                .stream()
-                .map(mapper::toDto)
-                .toList();
+        List<CardResponseDto> content = mapper.toDtos(page.getContent());
 
         log.info("Найдено карт: {}", content.size());
         return new PageImpl<>(content, pageable, page.getTotalElements());
@@ -74,16 +116,21 @@ public class CardService {
         User user = userRepository.findById(cardCreateDto.getUserId())
                 .orElseThrow(() -> new UserNotFoundCustomException("Пользователь не найден: " + cardCreateDto.getUserId()));
 
-        String encrypted = cryptoService.encrypt(cardCreateDto.getCardNumber());
+        String hash = cryptoService.blindIndex(cardCreateDto.getCardNumber());
 
-        if (cardRepository.findByCardNumberEncrypted(encrypted).isPresent()) {
+        if (cardRepository.findByCardNumberHash(hash).isPresent()) {
             throw new CardNumberIsNotFree("Карта уже существует: {}");
         }
 
+        String encrypted = cryptoService.encrypt(cardCreateDto.getCardNumber());
+
         Card card = Card.builder()
-                .balance(BigDecimal.ZERO)
+                .balance(Money.ZERO)
                 .expiryDate(getExpiryDate())
                 .cardNumberEncrypted(encrypted)
+                .keyVersion(cryptoService.activeKeyVersion())
+                .cardNumberHash(hash)
+                .cardLast4(CardMapper.lastFour(cardCreateDto.getCardNumber()))
                 .user(user)
                 .status(CardStatus.ACTIVE)
                 .build();
@@ -96,6 +143,17 @@ public class CardService {
 
     @Transactional
     public CardResponseDto update(Long id, CardUpdateDto dto) {
+        if (dto.getBalance() != null) {
+            requireSqlDebits("Изменение баланса");
+            // Новый баланс задаётся как итоговый, поэтому сначала сворачиваем проводки в снимок
+            ledgerRepository.lockCard(id);
+            ledgerRepository.compactCard(id);
+        }
+        boolean reshard = dto.getBalance() != null || dto.getBalanceShards() != null;
+        if (reshard) {
+            cardRepository.foldShards(id);
+        }
+
         Card card = cardRepository.findByIdAndStatus(id,  CardStatus.ACTIVE)
                 .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: " + id));
 
@@ -107,14 +165,33 @@ public class CardService {
         }
 
         applyIfChanged(dto.getExpiryDate(), card::getExpiryDate, card::setExpiryDate, "Срок действия обновлён: {}");
-        applyIfChanged(dto.getBalance(),     card::getBalance,    card::setBalance,    "Баланс обновлён: {}");
+        applyIfChanged(dto.getBalance() == null ? null : Money.of(dto.getBalance()), card::getBalance,    card::setBalance,    "Баланс обновлён: {}");
         applyIfChanged(dto.getStatus(),      card::getStatus,     card::setStatus,     "Статус обновлён: {}");
+        applyIfChanged(dto.getBalanceShards(), card::getBalanceShards, card::setBalanceShards, "Число шардов баланса обновлено: {}");
+        if (Boolean.TRUE.equals(dto.getClearDailyLimit())) {
+            if (card.getDailyLimit() != null) {
+                card.setDailyLimit(null);
+                log.info("Дневной лимит снят: карта id = {}", id);
+            }
+        } else {
+            applyIfChanged(dto.getDailyLimit() == null ? null : Money.of(dto.getDailyLimit()),
+                    card::getDailyLimit, card::setDailyLimit, "Дневной лимит обновлён: {}");
+        }
+        if (reshard && card.isSharded()) {
+            cardRepository.createShards(id, card.getBalanceShards());
+        }
 
 
         if (dto.getCardNumber() != null) {
-            String currentPlain = cryptoService.decrypt(card.getCardNumberEncrypted());
-            if (!Objects.equals(currentPlain, dto.getCardNumber())) {
+            String newHash = cryptoService.blindIndex(dto.getCardNumber());
+            if (!Objects.equals(card.getCardNumberHash(), newHash)) {
+                if (cardRepository.findByCardNumberHash(newHash).isPresent()) {
+                    throw new CardNumberIsNotFree("Карта уже существует: " + CardMapper.mask(CardMapper.lastFour(dto.getCardNumber())));
+                }
                 card.setCardNumberEncrypted(cryptoService.encrypt(dto.getCardNumber()));
+                card.setKeyVersion(cryptoService.activeKeyVersion());
+                card.setCardNumberHash(newHash);
+                card.setCardLast4(CardMapper.lastFour(dto.getCardNumber()));
                 log.info("Номер карты обновлён");
             }
         }
@@ -234,33 +311,49 @@ public class CardService {
                 "сумма = {}; " +
                 "пользователь: id = {}",
                 cardNumberFrom, cardNumberTo, amount, userId);
+        requireSqlDebits("Перевод в обход движка");
 
-        if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new TransferException("Сумма перевода должна быть больше 0");
-        }
+        Money money = transferAmount(amount);
         if (Objects.equals(cardNumberFrom, cardNumberTo)) {
             throw new TransferException("Нельзя переводить на ту же самую карту");
         }
 
-        amount = amount.setScale(2, RoundingMode.HALF_UP);
+        intentLog.begin(userId, cardNumberFrom, cardNumberTo, money);
+
+        switch (transferStrategy) {
+            case CONDITIONAL -> transferWithConditionalUpdates(userId, cardNumberFrom, cardNumberTo, money);
+            case PESSIMISTIC -> transferWithRowLocks(userId, cardNumberFrom, cardNumberTo, money);
+            case LEDGER -> transferWithLedger(userId, cardNumberFrom, cardNumberTo, money);
+            case OPTIMISTIC -> transferOptimistic(userId, cardNumberFrom, cardNumberTo, money, false);
+            case ADAPTIVE -> transferOptimistic(userId, cardNumberFrom, cardNumberTo, money, true);
+        }
+    }
 
+    private void transferWithRowLocks(Long userId, String cardNumberFrom, String cardNumberTo, Money amount) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new UserNotFoundCustomException("Пользователь не найден: " + userId));
         log.info("Пользователь найден: id = {}", user.getId());
+        lockPolicy.applyToCurrentTransaction();
 
-        String encFrom = cryptoService.encrypt(cardNumberFrom);
-        log.info("Зашифровали номер from: {}", encFrom);
-        String encTo = cryptoService.encrypt(cardNumberTo);
-        log.info("Зашифровали номер to: {}", encTo);
+        String hashFrom = cryptoService.blindIndex(cardNumberFrom);
+        String hashTo = cryptoService.blindIndex(cardNumberTo);
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(cardNumberFrom));
+        String maskedTo = CardMapper.mask(CardMapper.lastFour(cardNumberTo));
 
-        Card cardFrom = cardRepository.findByCardNumberEncryptedAndUser_Id(encFrom, userId)
-                .orElseThrow(() -> new CardNotFoundException("Карта не найдена: " + cryptoService.getMaskedNumber(encFrom)));
+        Card cardFrom = cardRepository.findByCardNumberHashAndUser_Id(hashFrom, userId)
+                .orElseThrow(() -> new CardNotFoundException("Карта не найдена: " + maskedFrom));
         log.info("Найдена cardFrom: id = {}", cardFrom.getId());
 
-        Card cardTo = cardRepository.findByCardNumberEncryptedAndUser_Id(encTo, userId)
-                .orElseThrow(() -> new CardNotFoundException("Карта не найдена: " + cryptoService.getMaskedNumber(encTo)));
+        Card cardTo = cardRepository.findByCardNumberHashAndUser_Id(hashTo, userId)
+                .orElseThrow(() -> new CardNotFoundException("Карта не найдена: " + maskedTo));
         log.info("Найдена cardTo: id = {}", cardTo.getId());
 
+        if (cardFrom.isSharded() || cardTo.isSharded()) {
+            // У шардированной карты баланс не в одной строке, поэтому блокировка строки карты ничего не даёт
+            applyConditionally(userId, cardFrom.getId(), cardFrom.getBalanceShards(), cardFrom.getDailyLimit() != null,
+                    cardTo.getId(), cardTo.getBalanceShards(), amount, maskedFrom, maskedTo);
+            return;
+        }
 
         Card lowId = cardFrom.getId() < cardTo.getId() ? cardFrom : cardTo;
         log.info("Присвоено lowId: id = {}", lowId.getId());
@@ -268,11 +361,11 @@ public class CardService {
         Card highId = lowId.equals(cardFrom) ? cardTo : cardFrom;
         log.info("Присвоено highId: id = {}", highId.getId());
 
-        Card cardFirstLocked = cardRepository.lockByIdAndUserAndStatus(lowId.getId(), userId, CardStatus.ACTIVE)
+        Card cardFirstLocked = lockPolicy.timeWait(() -> cardRepository.lockByIdAndUserAndStatus(lowId.getId(), userId, CardStatus.ACTIVE))
                 .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + lowId.getId()));
         log.info("Присвоено cardFirstLocked: id = {}", cardFirstLocked.getId());
 
-        Card cardSecondLocked = cardRepository.lockByIdAndUserAndStatus(highId.getId(), userId, CardStatus.ACTIVE)
+        Card cardSecondLocked = lockPolicy.timeWait(() -> cardRepository.lockByIdAndUserAndStatus(highId.getId(), userId, CardStatus.ACTIVE))
                 .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + highId.getId()));
         log.info("Присвоено cardSecondLocked: id = {}", cardSecondLocked.getId());
 
@@ -282,16 +375,18 @@ public class CardService {
         cardTo = cardFrom.equals(cardFirstLocked) ? cardSecondLocked : cardFirstLocked;
         log.info("Присвоено cardTo: id = {}", cardTo.getId());
 
-        if (cardFrom.getBalance().compareTo(amount) < 0) {
-            String maskedNumber = cryptoService.getMaskedNumber(encFrom);
-            log.info("После проверки баланса maskedNumber = {}", maskedNumber);
-            throw new TransferException("Недостаточно средств на карте " + maskedNumber);
+        if (cardFrom.getBalance().isLessThan(amount)) {
+            log.info("После проверки баланса maskedNumber = {}", maskedFrom);
+            throw new TransferException("Недостаточно средств на карте " + maskedFrom);
+        }
+        if (cardFrom.getDailyLimit() != null) {
+            spendToday(cardFrom.getId(), amount, maskedFrom);
         }
 
-        cardFrom.setBalance(cardFrom.getBalance().subtract(amount));
+        cardFrom.setBalance(cardFrom.getBalance().minus(amount));
         log.info("Новый баланс карты: id = {} равен {}", cardFrom.getId(), cardFrom.getBalance());
 
-        cardTo.setBalance(cardTo.getBalance().add(amount));
+        cardTo.setBalance(cardTo.getBalance().plus(amount));
         log.info("Новый баланс карты: id = {} равен {}", cardTo.getId(), cardTo.getBalance());
 
         Card savedFrom = cardRepository.save(cardFrom);
@@ -302,10 +397,580 @@ public class CardService {
 
         log.info("Перевод {} выполнен: from {} -> to {}; новые балансы: from={}, to={}",
                 amount,
-                cryptoService.getMaskedNumber(encFrom), cryptoService.getMaskedNumber(encTo),
+                maskedFrom, maskedTo,
                 cardFrom.getBalance(), cardTo.getBalance());
     }
 
+    private void transferWithConditionalUpdates(Long userId, String cardNumberFrom, String cardNumberTo, Money amount) {
+        lockPolicy.applyToCurrentTransaction();
+        String hashFrom = cryptoService.blindIndex(cardNumberFrom);
+        String hashTo = cryptoService.blindIndex(cardNumberTo);
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(cardNumberFrom));
+        String maskedTo = CardMapper.mask(CardMapper.lastFour(cardNumberTo));
+
+        List<CardRefView> refs = cardRepository.findRefsByHashes(List.of(hashFrom, hashTo), userId);
+        CardRefView from = findRef(refs, hashFrom, userId, maskedFrom);
+        CardRefView to = findRef(refs, hashTo, userId, maskedTo);
+
+        applyConditionally(userId, from.getId(), shardsOf(from), from.getDailyLimit() != null, to.getId(), shardsOf(to), amount, maskedFrom, maskedTo);
+    }
+
+    private void applyConditionally(Long userId, Long fromId, int fromShards, boolean fromLimited, Long toId, int toShards,
+                                    Money amount, String maskedFrom, String maskedTo) {
+        // Строки блокируются самими UPDATE, поэтому порядок выполнения — по возрастанию id
+        BigDecimal fromBalance;
+        BigDecimal toBalance;
+        if (fromId < toId) {
+            fromBalance = debit(fromId, fromShards, fromLimited, userId, amount, maskedFrom);
+            toBalance = credit(toId, toShards, userId, amount);
+        } else {
+            toBalance = credit(toId, toShards, userId, amount);
+            fromBalance = debit(fromId, fromShards, fromLimited, userId, amount, maskedFrom);
+        }
+
+        log.info("Перевод {} выполнен: from {} -> to {}; новые балансы: from={}, to={}",
+                amount, maskedFrom, maskedTo, fromBalance, toBalance);
+    }
+
+    private void transferOptimistic(Long userId, String cardNumberFrom, String cardNumberTo,
+                                    Money amount, boolean adaptive) {
+        lockPolicy.applyToCurrentTransaction();
+        String hashFrom = cryptoService.blindIndex(cardNumberFrom);
+        String hashTo = cryptoService.blindIndex(cardNumberTo);
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(cardNumberFrom));
+        String maskedTo = CardMapper.mask(CardMapper.lastFour(cardNumberTo));
+
+        List<CardRefView> refs = cardRepository.findRefsByHashes(List.of(hashFrom, hashTo), userId);
+        CardRefView from = findRef(refs, hashFrom, userId, maskedFrom);
+        CardRefView to = findRef(refs, hashTo, userId, maskedTo);
+
+        if (shardsOf(from) > 0 || shardsOf(to) > 0) {
+            applyConditionally(userId, from.getId(), shardsOf(from), from.getDailyLimit() != null, to.getId(), shardsOf(to), amount, maskedFrom, maskedTo);
+            return;
+        }
+
+        if (adaptive) {
+            boolean hot = contention.isHot(from.getId()) || contention.isHot(to.getId());
+            contention.recordRoute(hot);
+            if (hot) {
+                applyWithRowLocks(userId, from.getId(), to.getId(), amount, maskedFrom, maskedTo);
+                return;
+            }
+        }
+
+        // Каждая запись держит блокировку строки до коммита, поэтому порядок — по возрастанию id
+        Money fromBalance;
+        Money toBalance;
+        if (from.getId() < to.getId()) {
+            fromBalance = debitOptimistic(from.getId(), from.getDailyLimit() != null, userId, amount, maskedFrom);
+            toBalance = writeOptimistic(to.getId(), userId, balance -> balance.plus(amount));
+        } else {
+            toBalance = writeOptimistic(to.getId(), userId, balance -> balance.plus(amount));
+            fromBalance = debitOptimistic(from.getId(), from.getDailyLimit() != null, userId, amount, maskedFrom);
+        }
+
+        log.info("Перевод {} выполнен: from {} -> to {}; новые балансы: from={}, to={}",
+                amount, maskedFrom, maskedTo, fromBalance, toBalance);
+    }
+
+    private Money debitOptimistic(Long cardId, boolean limited, Long userId, Money amount, String masked) {
+        if (limited) {
+            // Расход учитывается до записи баланса; при нехватке средств транзакция откатит и его
+            spendToday(cardId, amount, masked);
+        }
+        return writeOptimistic(cardId, userId, balance -> {
+            if (balance.isLessThan(amount)) {
+                throw new TransferException("Недостаточно средств на карте " + masked);
+            }
+            return balance.minus(amount);
+        });
+    }
+
+    /**
+     * Чтение баланса с версией и запись только при неизменной версии; при конфликте — повтор
+     * с jitter-паузой, не больше card.transfer.optimistic.max-attempts попыток.
+     */
+    private Money writeOptimistic(Long cardId, Long userId, UnaryOperator<Money> change) {
+        for (int attempt = 0; ; attempt++) {
+            CardVersionView state = cardRepository.findVersionedState(cardId, userId)
+                    .filter(view -> view.getStatus() == CardStatus.ACTIVE)
+                    .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + cardId));
+
+            Money next = change.apply(state.getBalance());
+            if (cardRepository.compareAndSetBalance(cardId, state.getVersion(), next) == 1) {
+                contention.recordSuccess(cardId);
+                return next;
+            }
+
+            contention.recordConflict(cardId);
+            if (attempt + 1 >= contention.maxAttempts() || !contention.backoff(attempt)) {
+                contention.recordExhausted();
+                throw new TransferConflictException("Карта: id = " + cardId + " изменяется параллельно, повторите перевод");
+            }
+        }
+    }
+
+    private void applyWithRowLocks(Long userId, Long fromId, Long toId, Money amount,
+                                   String maskedFrom, String maskedTo) {
+        Long lowId = Math.min(fromId, toId);
+        Long highId = Math.max(fromId, toId);
+        Card first = lockPolicy.timeWait(() -> cardRepository.lockByIdAndUserAndStatus(lowId, userId, CardStatus.ACTIVE))
+                .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + lowId));
+        Card second = lockPolicy.timeWait(() -> cardRepository.lockByIdAndUserAndStatus(highId, userId, CardStatus.ACTIVE))
+                .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + highId));
+        Card cardFrom = first.getId().equals(fromId) ? first : second;
+        Card cardTo = cardFrom == first ? second : first;
+
+        if (cardFrom.getBalance().isLessThan(amount)) {
+            throw new TransferException("Недостаточно средств на карте " + maskedFrom);
+        }
+        if (cardFrom.getDailyLimit() != null) {
+            spendToday(cardFrom.getId(), amount, maskedFrom);
+        }
+        cardFrom.setBalance(cardFrom.getBalance().minus(amount));
+        cardTo.setBalance(cardTo.getBalance().plus(amount));
+
+        log.info("Перевод {} выполнен под блокировкой: from {} -> to {}; новые балансы: from={}, to={}",
+                amount, maskedFrom, maskedTo, cardFrom.getBalance(), cardTo.getBalance());
+    }
+
+    private void transferWithLedger(Long userId, String cardNumberFrom, String cardNumberTo, Money amount) {
+        lockPolicy.applyToCurrentTransaction();
+        String hashFrom = cryptoService.blindIndex(cardNumberFrom);
+        String hashTo = cryptoService.blindIndex(cardNumberTo);
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(cardNumberFrom));
+        String maskedTo = CardMapper.mask(CardMapper.lastFour(cardNumberTo));
+
+        List<CardRefView> refs = cardRepository.findRefsByHashes(List.of(hashFrom, hashTo), userId);
+        CardRefView from = findRef(refs, hashFrom, userId, maskedFrom);
+        CardRefView to = findRef(refs, hashTo, userId, maskedTo);
+        if (to.getStatus() != CardStatus.ACTIVE) {
+            throw new CardNotFoundException("Активная карта не найдена: id = " + to.getId());
+        }
+
+        // Блокируется только карта списания: списания по ней идут по очереди, зачисления — просто вставки
+        Card cardFrom = lockPolicy.timeWait(() -> cardRepository.lockByIdAndUserAndStatus(from.getId(), userId, CardStatus.ACTIVE))
+                .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + from.getId()));
+
+        // Сумма проводок читается отдельным запросом уже после блокировки, чтобы видеть все зафиксированные списания
+        Money available = cardFrom.getBalance().plus(Money.of(ledgerRepository.sumPending(cardFrom.getId())));
+        if (cardFrom.isSharded()) {
+            // В этом режиме шарды только пополняются, так что чтение без блокировки их не переоценит
+            available = available.plus(Money.of(cardRepository.sumShards(cardFrom.getId())));
+        }
+        if (available.isLessThan(amount)) {
+            throw new TransferException("Недостаточно средств на карте " + maskedFrom);
+        }
+        if (cardFrom.getDailyLimit() != null) {
+            spendToday(cardFrom.getId(), amount, maskedFrom);
+        }
+
+        UUID transferId = UUID.randomUUID();
+        ledgerRepository.saveAll(List.of(
+                CardLedgerEntry.debit(transferId, from.getId(), amount.toBigDecimal()),
+                CardLedgerEntry.credit(transferId, to.getId(), amount.toBigDecimal())));
+
+        log.info("Перевод {} записан в журнал: transferId = {}; from {} -> to {}; доступно на карте списания: {}",
+                amount, transferId, maskedFrom, maskedTo, available.minus(amount));
+    }
+
+    private CardRefView findRef(List<CardRefView> refs, String hash, Long userId, String masked) {
+        for (CardRefView ref : refs) {
+            if (ref.getCardNumberHash().equals(hash)) {
+                return ref;
+            }
+        }
+        if (!userRepository.existsById(userId)) {
+            throw new UserNotFoundCustomException("Пользователь не найден: " + userId);
+        }
+        throw new CardNotFoundException("Карта не найдена: " + masked);
+    }
+
+    private static int shardsOf(CardRefView ref) {
+        return ref.getBalanceShards() == null ? 0 : ref.getBalanceShards();
+    }
+
+    private BigDecimal debit(Long cardId, int shards, boolean limited, Long userId, Money amount, String masked) {
+        if (shards > 0) {
+            return debitSharded(cardId, shards, limited, userId, amount, masked);
+        }
+        return lockPolicy.timeWait(() -> cardRepository.debitIfSufficient(cardId, userId, amount.toBigDecimal()))
+                .orElseThrow(() -> {
+                    Optional<Card> card = cardRepository.findByIdAndStatus(cardId, CardStatus.ACTIVE);
+                    if (card.isEmpty()) {
+                        return new CardNotFoundException("Активная карта не найдена: id = " + cardId);
+                    }
+                    // UPDATE не сообщает, какое условие не выполнено: если средств хватает, упёрлись в лимит
+                    if (!card.get().getBalance().isLessThan(amount)) {
+                        return dailyLimitExceeded(masked);
+                    }
+                    return new TransferException("Недостаточно средств на карте " + masked);
+                });
+    }
+
+    /**
+     * Учёт списания в дневном лимите карты; вызывается только для карт с лимитом.
+     */
+    private void spendToday(Long cardId, Money amount, String masked) {
+        if (cardRepository.spendWithinDailyLimit(cardId, amount.toBigDecimal()) == 0) {
+            throw dailyLimitExceeded(masked);
+        }
+    }
+
+    private static DailyLimitExceededException dailyLimitExceeded(String masked) {
+        return new DailyLimitExceededException("Превышен дневной лимит списаний по карте " + masked);
+    }
+
+    private BigDecimal credit(Long cardId, int shards, Long userId, Money amount) {
+        if (shards > 0) {
+            // Зачисление блокирует только одну случайную строку шарда, а не строку карты
+            int shard = ThreadLocalRandom.current().nextInt(shards);
+            return cardRepository.creditShard(cardId, userId, shard, amount.toBigDecimal())
+                    .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + cardId));
+        }
+        return lockPolicy.timeWait(() -> cardRepository.creditActive(cardId, userId, amount.toBigDecimal()))
+                .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + cardId));
+    }
+
+    /**
+     * Списание с шардированной карты: сначала условный UPDATE одного случайного шарда,
+     * если его не хватает — блокировка карты и всех шардов, проверка суммы и раскладка остатка поровну.
+     * Карта с дневным лимитом сразу идёт медленным путём: расход учитывается в строке карты,
+     * и брать её блокировку после блокировки шарда значило бы нарушить порядок блокировок.
+     */
+    private BigDecimal debitSharded(Long cardId, int shards, boolean limited, Long userId, Money amount, String masked) {
+        if (!limited) {
+            int shard = ThreadLocalRandom.current().nextInt(shards);
+            Optional<BigDecimal> fast = cardRepository.debitShard(cardId, userId, shard, amount.toBigDecimal());
+            if (fast.isPresent()) {
+                return fast.get();
+            }
+        }
+
+        BigDecimal base = cardRepository.lockActiveBalance(cardId, userId)
+                .orElseThrow(() -> new CardNotFoundException("Активная карта не найдена: id = " + cardId));
+        List<CardShardView> rows = cardRepository.lockShards(cardId);
+
+        BigDecimal total = base;
+        for (CardShardView row : rows) {
+            total = total.add(row.getBalance());
+        }
+        if (total.compareTo(amount.toBigDecimal()) < 0) {
+            throw new TransferException("Недостаточно средств на карте " + masked);
+        }
+        if (rows.isEmpty()) {
+            // Остаток уже проверен под блокировкой, так что пустой результат — это дневной лимит
+            return cardRepository.debitIfSufficient(cardId, userId, amount.toBigDecimal())
+                    .orElseThrow(() -> dailyLimitExceeded(masked));
+        }
+        if (limited) {
+            spendToday(cardId, amount, masked);
+        }
+
+        BigDecimal rest = total.subtract(amount.toBigDecimal());
+        BigDecimal each = rest.divide(BigDecimal.valueOf(rows.size()), 2, RoundingMode.DOWN);
+        BigDecimal remainder = rest.subtract(each.multiply(BigDecimal.valueOf(rows.size())));
+        cardRepository.spreadOverShards(cardId, each, remainder);
+
+        log.info("Шарды карты: id = {} перебалансированы: шардов = {}; остаток = {}", cardId, rows.size(), rest);
+        return rest;
+    }
+
+    /**
+     * Пачка переводов между картами одного пользователя в одной транзакции:
+     * номера разрешаются одним запросом, все карты блокируются один раз по возрастанию id,
+     * переводы применяются по порядку к балансам в памяти, в БД пишется итоговый баланс каждой карты.
+     * Частота переводов проверяется по каждому применяемому переводу; если пачка не закоммичена,
+     * учтённые переводы возвращаются в окна TransferVelocity.
+     */
+    @Transactional
+    public BatchTransferResponseDto transferBatch(Long userId, BatchTransferRequestDto request) {
+        List<TransferItemDto> items = request.getTransfers();
+        BatchTransferMode mode = request.getMode() == null ? BatchTransferMode.ALL_OR_NOTHING : request.getMode();
+        log.info("Запрошена пачка переводов: {} шт.; режим = {}; пользователь: id = {}", items.size(), mode, userId);
+        requireSqlDebits("Пакетный перевод");
+
+        List<TransferVelocity.Charge> charges = new ArrayList<>();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    charges.forEach(velocity::refund);
+                }
+            }
+        });
+
+        Set<String> numbers = new LinkedHashSet<>();
+        for (TransferItemDto item : items) {
+            numbers.add(item.getCardNumberFrom());
+            numbers.add(item.getCardNumberTo());
+        }
+        Map<String, String> hashByNumber = new HashMap<>();
+        for (String number : numbers) {
+            hashByNumber.put(number, cryptoService.blindIndex(number));
+        }
+
+        Map<String, Long> idByHash = new HashMap<>();
+        for (CardRefView ref : cardRepository.findRefsByHashes(hashByNumber.values(), userId)) {
+            idByHash.put(ref.getCardNumberHash(), ref.getId());
+        }
+
+        Map<Long, Card> locked = new HashMap<>();
+        if (!idByHash.isEmpty()) {
+            lockPolicy.applyToCurrentTransaction();
+            List<Card> cards = lockPolicy.timeWait(() -> cardRepository.lockAllByIdsAndUser(new TreeSet<>(idByHash.values()), userId));
+            for (Card card : cards) {
+                locked.put(card.getId(), card);
+            }
+        }
+
+        foldIntoSnapshot(locked);
+
+        Map<Long, Money> balances = new HashMap<>();
+        locked.forEach((id, card) -> balances.put(id, card.getBalance()));
+
+        List<TransferItemResultDto> results = new ArrayList<>(items.size());
+        boolean failed = false;
+        for (int i = 0; i < items.size(); i++) {
+            if (failed && mode == BatchTransferMode.ALL_OR_NOTHING) {
+                results.add(itemResult(i, TransferItemStatus.SKIPPED, null));
+                continue;
+            }
+
+            TransferItemDto item = items.get(i);
+            String error = applyBatchItem(userId, item, hashByNumber, idByHash, locked, balances, charges);
+            if (error == null) {
+                results.add(itemResult(i, TransferItemStatus.APPLIED, null));
+            } else {
+                results.add(itemResult(i, TransferItemStatus.REJECTED, error));
+                failed = true;
+            }
+        }
+
+        if (failed && mode == BatchTransferMode.ALL_OR_NOTHING) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            log.info("Пачка переводов отклонена целиком: пользователь: id = {}", userId);
+            return new BatchTransferResponseDto(mode, false, results.stream()
+                    .map(r -> r.getStatus() == TransferItemStatus.APPLIED
+                            ? itemResult(r.getIndex(), TransferItemStatus.SKIPPED, null)
+                            : r)
+                    .toList());
+        }
+
+        int changed = 0;
+        for (Map.Entry<Long, Money> entry : balances.entrySet()) {
+            Card card = locked.get(entry.getKey());
+            if (!card.getBalance().equals(entry.getValue())) {
+                card.setBalance(entry.getValue());
+                changed++;
+            }
+        }
+        boolean anyApplied = results.stream().anyMatch(r -> r.getStatus() == TransferItemStatus.APPLIED);
+        log.info("Пачка переводов выполнена: обновлено карт = {}; пользователь: id = {}", changed, userId);
+        return new BatchTransferResponseDto(mode, anyApplied, results);
+    }
+
+    /**
+     * Карты уже заблокированы, поэтому их проводки журнала и шарды можно свернуть в снимок прямо здесь.
+     */
+    private void foldIntoSnapshot(Map<Long, Card> locked) {
+        if (locked.isEmpty()) {
+            return;
+        }
+        for (CardPendingView view : ledgerRepository.compactPending(locked.keySet())) {
+            Card card = locked.get(view.getCardId());
+            card.setBalance(card.getBalance().plus(Money.of(view.getPending())));
+            card.setLedgerCompactedSum(card.getLedgerCompactedSum().add(view.getPending()));
+        }
+        List<Long> sharded = locked.values().stream().filter(Card::isSharded).map(Card::getId).toList();
+        if (!sharded.isEmpty()) {
+            for (CardPendingView view : cardRepository.takeShardBalances(sharded)) {
+                Card card = locked.get(view.getCardId());
+                card.setBalance(card.getBalance().plus(Money.of(view.getPending())));
+            }
+        }
+    }
+
+    /**
+     * Групповой коммит для GroupCommitTransferExecutor: переводы разных пользователей применяются
+     * в одной транзакции. Все карты группы блокируются одним запросом по возрастанию id,
+     * каждый перевод проверяется отдельно, и его ошибка не влияет на остальные.
+     *
+     * @return по элементу на перевод: null — применён, иначе исключение, которое бросил бы одиночный перевод
+     */
+    @Transactional
+    public List<RuntimeException> applyGroup(List<GroupTransfer> transfers) {
+        requireSqlDebits("Групповой коммит");
+        Map<String, String> hashByNumber = new HashMap<>();
+        Map<Long, Set<String>> hashesByUser = new HashMap<>();
+        for (GroupTransfer t : transfers) {
+            for (String number : List.of(t.cardNumberFrom(), t.cardNumberTo())) {
+                String hash = hashByNumber.computeIfAbsent(number, cryptoService::blindIndex);
+                hashesByUser.computeIfAbsent(t.userId(), id -> new LinkedHashSet<>()).add(hash);
+            }
+        }
+
+        Map<String, Long> idByHash = new HashMap<>();
+        hashesByUser.forEach((userId, hashes) -> {
+            for (CardRefView ref : cardRepository.findRefsByHashes(hashes, userId)) {
+                idByHash.put(ref.getCardNumberHash(), ref.getId());
+            }
+        });
+
+        Map<Long, Card> locked = new HashMap<>();
+        if (!idByHash.isEmpty()) {
+            lockPolicy.applyToCurrentTransaction();
+            List<Card> cards = lockPolicy.timeWait(() -> cardRepository.lockAllByIds(new TreeSet<>(idByHash.values())));
+            for (Card card : cards) {
+                locked.put(card.getId(), card);
+            }
+        }
+        foldIntoSnapshot(locked);
+
+        List<RuntimeException> outcomes = new ArrayList<>(transfers.size());
+        int applied = 0;
+        for (GroupTransfer t : transfers) {
+            try {
+                applyGroupItem(t, hashByNumber, idByHash, locked);
+                outcomes.add(null);
+                applied++;
+            } catch (RuntimeException e) {
+                outcomes.add(e);
+            }
+        }
+        log.info("Групповой коммит: переводов = {}; применено = {}; карт заблокировано = {}",
+                transfers.size(), applied, locked.size());
+        return outcomes;
+    }
+
+    private void applyGroupItem(GroupTransfer t,
+                                Map<String, String> hashByNumber,
+                                Map<String, Long> idByHash,
+                                Map<Long, Card> locked) {
+        Money amount = transferAmount(t.amount());
+        if (Objects.equals(t.cardNumberFrom(), t.cardNumberTo())) {
+            throw new TransferException("Нельзя переводить на ту же самую карту");
+        }
+
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(t.cardNumberFrom()));
+        String maskedTo = CardMapper.mask(CardMapper.lastFour(t.cardNumberTo()));
+        Card from = groupCard(t.userId(), hashByNumber.get(t.cardNumberFrom()), idByHash, locked, maskedFrom);
+        Card to = groupCard(t.userId(), hashByNumber.get(t.cardNumberTo()), idByHash, locked, maskedTo);
+
+        if (from.getBalance().isLessThan(amount)) {
+            throw new TransferException("Недостаточно средств на карте " + maskedFrom);
+        }
+        // Зачисление считаем до списания и лимита: при переполнении ошибка только у этого перевода,
+        // остальные переводы группы не затронуты
+        Money toBalance;
+        try {
+            toBalance = to.getBalance().plus(amount);
+        } catch (ArithmeticException e) {
+            throw new TransferException("Сумма на карте " + maskedTo + " превысит допустимую");
+        }
+        if (from.getDailyLimit() != null) {
+            spendToday(from.getId(), amount, maskedFrom);
+        }
+        from.setBalance(from.getBalance().minus(amount));
+        to.setBalance(toBalance);
+    }
+
+    /**
+     * Сумма перевода в копейках. Доли копейки отклоняются, а не округляются: иначе 0.004 прошла бы
+     * нулевым переводом, а 0.005 списала бы больше запрошенного.
+     */
+    static Money transferAmount(BigDecimal amount) {
+        if (amount == null || amount.signum() <= 0) {
+            throw new TransferException("Сумма перевода должна быть больше 0");
+        }
+        if (amount.stripTrailingZeros().scale() > Money.SCALE) {
+            throw new TransferException("Сумма перевода должна быть указана с точностью до копейки");
+        }
+        try {
+            return Money.of(amount);
+        } catch (ArithmeticException e) {
+            throw new TransferException("Сумма перевода слишком велика");
+        }
+    }
+
+    private Card groupCard(Long userId, String hash, Map<String, Long> idByHash, Map<Long, Card> locked, String masked) {
+        Card card = locked.get(idByHash.get(hash));
+        if (card == null || !Objects.equals(card.getUser().getId(), userId)) {
+            if (!userRepository.existsById(userId)) {
+                throw new UserNotFoundCustomException("Пользователь не найден: " + userId);
+            }
+            throw new CardNotFoundException("Карта не найдена: " + masked);
+        }
+        if (card.getStatus() != CardStatus.ACTIVE) {
+            throw new CardNotFoundException("Активная карта не найдена: id = " + card.getId());
+        }
+        return card;
+    }
+
+    private String applyBatchItem(Long userId,
+                                  TransferItemDto item,
+                                  Map<String, String> hashByNumber,
+                                  Map<String, Long> idByHash,
+                                  Map<Long, Card> locked,
+                                  Map<Long, Money> balances,
+                                  List<TransferVelocity.Charge> charges) {
+        Money amount;
+        try {
+            amount = transferAmount(item.getAmount());
+        } catch (TransferException e) {
+            return e.getMessage();
+        }
+        if (Objects.equals(item.getCardNumberFrom(), item.getCardNumberTo())) {
+            return "Нельзя переводить на ту же самую карту";
+        }
+
+        String maskedFrom = CardMapper.mask(CardMapper.lastFour(item.getCardNumberFrom()));
+        Card from = locked.get(idByHash.get(hashByNumber.get(item.getCardNumberFrom())));
+        if (from == null) {
+            return "Карта не найдена: " + maskedFrom;
+        }
+        Card to = locked.get(idByHash.get(hashByNumber.get(item.getCardNumberTo())));
+        if (to == null) {
+            return "Карта не найдена: " + CardMapper.mask(CardMapper.lastFour(item.getCardNumberTo()));
+        }
+        if (from.getStatus() != CardStatus.ACTIVE) {
+            return "Активная карта не найдена: id = " + from.getId();
+        }
+        if (to.getStatus() != CardStatus.ACTIVE) {
+            return "Активная карта не найдена: id = " + to.getId();
+        }
+
+        Money fromBalance = balances.get(from.getId());
+        if (fromBalance.isLessThan(amount)) {
+            return "Недостаточно средств на карте " + maskedFrom;
+        }
+        Money toBalance;
+        try {
+            toBalance = balances.get(to.getId()).plus(amount);
+        } catch (ArithmeticException e) {
+            return "Сумма на карте " + CardMapper.mask(CardMapper.lastFour(item.getCardNumberTo())) + " превысит допустимую";
+        }
+        TransferVelocity.Charge charge;
+        try {
+            charge = velocity.charge(userId, item.getCardNumberFrom(), item.getAmount());
+        } catch (TransferVelocityException e) {
+            return e.getMessage();
+        }
+        if (from.getDailyLimit() != null
+                && cardRepository.spendWithinDailyLimit(from.getId(), amount.toBigDecimal()) == 0) {
+            velocity.refund(charge);
+            return "Превышен дневной лимит списаний по карте " + maskedFrom;
+        }
+        charges.add(charge);
+        balances.put(from.getId(), fromBalance.minus(amount));
+        balances.put(to.getId(), toBalance);
+        return null;
+    }
+
+    private static TransferItemResultDto itemResult(int index, TransferItemStatus status, String message) {
+        return new TransferItemResultDto(index, status, message);
+    }
+
     @Transactional
     @Scheduled(cron = "0 0 3 * * *")
     public void setExpired(){
@@ -315,16 +980,14 @@ public class CardService {
     }
 
     @Transactional(readOnly = true)
-    public BigDecimal getBalance(Long userId, String cardNumber){
-        log.info("Получен номер карты: {} для пользователя: id = {}", cardNumber, userId);
-        String cardNumberEncrypted = cryptoService.encrypt(cardNumber);
-        log.info("Зашифровали номер: {}", cardNumberEncrypted);
-        String cardNumberMasked = cryptoService.getMaskedNumber(cardNumberEncrypted);
+    public Money getBalance(Long userId, String cardNumber){
+        String cardNumberMasked = CardMapper.mask(CardMapper.lastFour(cardNumber));
+        log.info("Получен номер карты: {} для пользователя: id = {}", cardNumberMasked, userId);
         Card card = cardRepository
-                .findByCardNumberEncryptedAndUser_IdAndStatus(cardNumberEncrypted, userId, CardStatus.ACTIVE)
+                .findByCardNumberHashAndUser_IdAndStatus(cryptoService.blindIndex(cardNumber), userId, CardStatus.ACTIVE)
                 .orElseThrow(
                         () -> new CardNotFoundException("Карта не найдена: " + cardNumberMasked)
                 );
-        return card.getBalance();
+        return card.getAvailableBalance();
     }
 }
@@ -0,0 +1,75 @@
+package com.example.bankcards.service;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Ограниченный пул уже инициализированных {@link Cipher} для одного режима (encrypt/decrypt).
+ * <p>
+ * Не использует ThreadLocal: при виртуальных потоках каждый поток живёт недолго,
+ * и кэш на поток создавал бы новый Cipher почти на каждый вызов.
+ * Если пул пуст — создаётся новый экземпляр, если полон — возвращаемый отбрасывается.
+ * <p>
+ * Поддерживаются только преобразования без IV (например, AES/ECB): шифротекст хранится без IV,
+ * а экземпляр с IV нельзя переиспользовать без повторного init. Остальные отклоняются при создании пула.
+ */
+final class CipherPool {
+
+    private final String transformation;
+    private final int mode;
+    private final SecretKeySpec keySpec;
+    private final ArrayBlockingQueue<Cipher> idle;
+
+    CipherPool(String transformation, int mode, SecretKeySpec keySpec, int capacity) {
+        this.transformation = transformation;
+        this.mode = mode;
+        this.keySpec = keySpec;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, capacity));
+
+        requireNoIv(transformation, keySpec);
+        idle.offer(newCipher());
+    }
+
+    Cipher borrow() {
+        Cipher cipher = idle.poll();
+        return cipher != null ? cipher : newCipher();
+    }
+
+    void release(Cipher cipher) {
+        if (cipher != null) {
+            idle.offer(cipher);
+        }
+    }
+
+    /**
+     * Режим шифрования инициализируется без параметров и для режимов с IV сам генерирует IV —
+     * по нему и видно, что преобразование пулу не подходит. Расшифровка без IV для них упала бы
+     * с невнятным InvalidKeyException.
+     */
+    private static void requireNoIv(String transformation, SecretKeySpec keySpec) {
+        byte[] iv;
+        try {
+            Cipher probe = Cipher.getInstance(transformation);
+            probe.init(Cipher.ENCRYPT_MODE, keySpec);
+            iv = probe.getIV();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось инициализировать шифр " + transformation, e);
+        }
+        if (iv != null) {
+            throw new IllegalArgumentException("Пул шифров поддерживает только преобразования без IV, получено: "
+                    + transformation);
+        }
+    }
+
+    private Cipher newCipher() {
+        try {
+            Cipher c = Cipher.getInstance(transformation);
+            c.init(mode, keySpec);
+            return c;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось инициализировать шифр " + transformation, e);
+        }
+    }
+}
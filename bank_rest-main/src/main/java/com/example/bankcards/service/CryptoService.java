@@ -1,34 +1,142 @@
 package com.example.bankcards.service;
 
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 @Service
 public class CryptoService {
 
-    private final String transformation;
-    private final SecretKeySpec keySpec;
+    private static final int DEFAULT_POOL_SIZE = 64;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int BATCH_SPLIT_THRESHOLD = 256;
+    private static final int BATCH_PARALLELISM = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final byte[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<Integer, KeySlot> keyRing;
+    private final int activeKeyVersion;
+    private final SecretKeySpec indexKeySpec;
+    private final ArrayBlockingQueue<Mac> macs;
+    private final ForkJoinPool batchPool = new ForkJoinPool(BATCH_PARALLELISM);
+
+    private record KeySlot(CipherPool encryptors, CipherPool decryptors) {
+    }
 
     public CryptoService(String rawKey, String transformation) {
-        this.transformation = transformation;
+        this(rawKey, transformation, DEFAULT_POOL_SIZE, null);
+    }
+
+    public CryptoService(String rawKey, String transformation, int poolSize) {
+        this(rawKey, transformation, poolSize, null);
+    }
+
+    public CryptoService(String rawKey, String transformation, int poolSize, String rawIndexKey) {
+        this(singleKey(rawKey), 1, transformation, poolSize, rawIndexKey);
+    }
+
+    /**
+     * @param rawKeys          версия ключа -> ключ; версия хранится в cards.key_version
+     * @param activeKeyVersion версия, которой шифруются новые значения
+     * @param rawIndexKey      ключ blind index; если пуст — выводится из ключа с минимальной версией,
+     *                         чтобы хэши не менялись при ротации
+     */
+    public CryptoService(Map<Integer, String> rawKeys, int activeKeyVersion, String transformation,
+                         int poolSize, String rawIndexKey) {
+        if (rawKeys == null || rawKeys.isEmpty()) {
+            throw new IllegalArgumentException("Crypto key is null");
+        }
+        if (!rawKeys.containsKey(activeKeyVersion)) {
+            throw new IllegalArgumentException("Unknown active key version: " + activeKeyVersion);
+        }
+
+        Map<Integer, KeySlot> ring = new HashMap<>();
+        byte[] firstKeyBytes = null;
+        int firstVersion = Integer.MAX_VALUE;
+        for (Map.Entry<Integer, String> entry : rawKeys.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Crypto key is null: version " + entry.getKey());
+            }
+            byte[] keyBytes = deriveAesKeyBytes(unquote(entry.getValue()));
+            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
+            ring.put(entry.getKey(), new KeySlot(
+                    new CipherPool(transformation, Cipher.ENCRYPT_MODE, keySpec, poolSize),
+                    new CipherPool(transformation, Cipher.DECRYPT_MODE, keySpec, poolSize)));
+            if (entry.getKey() < firstVersion) {
+                firstVersion = entry.getKey();
+                firstKeyBytes = keyBytes;
+            }
+        }
+        this.keyRing = Map.copyOf(ring);
+        this.activeKeyVersion = activeKeyVersion;
+
+        byte[] indexKeyBytes = rawIndexKey == null || rawIndexKey.isBlank()
+                ? deriveIndexKeyBytes(firstKeyBytes)
+                : deriveAesKeyBytes(unquote(rawIndexKey));
+        this.indexKeySpec = new SecretKeySpec(indexKeyBytes, HMAC_ALGORITHM);
+        this.macs = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    private static Map<Integer, String> singleKey(String rawKey) {
         if (rawKey == null) {
             throw new IllegalArgumentException("Crypto key is null");
         }
+        return Map.of(1, rawKey);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchPool.shutdown();
+    }
+
+    public int activeKeyVersion() {
+        return activeKeyVersion;
+    }
+
+    private KeySlot slot(int keyVersion) {
+        KeySlot slot = keyRing.get(keyVersion);
+        if (slot == null) {
+            throw new IllegalStateException("Unknown key version: " + keyVersion);
+        }
+        return slot;
+    }
 
+    private static String unquote(String rawKey) {
         String key = rawKey.trim();
         if ((key.startsWith("\"") && key.endsWith("\"")) || (key.startsWith("'") && key.endsWith("'"))) {
             key = key.substring(1, key.length() - 1).trim();
         }
+        return key;
+    }
 
-        byte[] keyBytes = deriveAesKeyBytes(key);
-
-        this.keySpec = new SecretKeySpec(keyBytes, "AES");
+    private static byte[] deriveIndexKeyBytes(byte[] aesKey) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update("card-number-blind-index".getBytes(StandardCharsets.US_ASCII));
+            return sha256.digest(aesKey);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot derive index key", e);
+        }
     }
 
     private static byte[] deriveAesKeyBytes(String key) {
@@ -72,25 +180,234 @@ public class CryptoService {
     }
 
     public String encrypt(String plain) {
+        byte[] bytes = plain.getBytes(StandardCharsets.UTF_8);
         try {
-            Cipher c = Cipher.getInstance(transformation);
-            c.init(Cipher.ENCRYPT_MODE, keySpec);
-            return Base64.getEncoder().encodeToString(c.doFinal(plain.getBytes()));
+            return encrypt(bytes, 0, bytes.length);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    public String encrypt(byte[] plain, int off, int len) {
+        byte[] base64 = new byte[base64Length(len + 16)];
+        int n = encryptToBase64(plain, off, len, base64);
+        return new String(base64, 0, n, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Шифрует активным ключом и пишет Base64 шифротекста в dst.
+     *
+     * @return число записанных байт
+     */
+    public int encryptToBase64(byte[] plain, int off, int len, byte[] dst) {
+        CipherPool encryptors = slot(activeKeyVersion).encryptors();
+        Cipher c = encryptors.borrow();
+        try {
+            byte[] cipherText = new byte[c.getOutputSize(len)];
+            int ctLen = c.doFinal(plain, off, len, cipherText, 0);
+            encryptors.release(c);
+            return base64Encode(cipherText, ctLen, dst);
         } catch (Exception e) {
             throw new IllegalStateException("Encryption failed", e);
         }
     }
 
+    /**
+     * Расшифровывает в буфер вызывающего без промежуточной строки.
+     * Вызывающий обязан обнулить out после использования.
+     *
+     * @return длина открытого текста
+     */
+    public int decryptInto(String enc, int keyVersion, byte[] out) {
+        CipherPool decryptors = slot(keyVersion).decryptors();
+        Cipher c = decryptors.borrow();
+        try {
+            byte[] cipherText = Base64.getDecoder().decode(enc);
+            int len = c.doFinal(cipherText, 0, cipherText.length, out, 0);
+            decryptors.release(c);
+            return len;
+        } catch (Exception e) {
+            throw new IllegalStateException("Decryption failed", e);
+        }
+    }
+
+    /**
+     * Перешифровывает значение активным ключом; открытый текст живёт только в обнуляемом буфере.
+     */
+    public String reencrypt(String enc, int fromKeyVersion) {
+        CipherPool decryptors = slot(fromKeyVersion).decryptors();
+        byte[] plain = new byte[0];
+        try {
+            int len;
+            Cipher c = decryptors.borrow();
+            try {
+                byte[] cipherText = Base64.getDecoder().decode(enc);
+                // Буфер по размеру шифротекста, как в processChunk: фиксированный мог не вместить значение
+                plain = new byte[c.getOutputSize(cipherText.length)];
+                len = c.doFinal(cipherText, 0, cipherText.length, plain, 0);
+                decryptors.release(c);
+            } catch (Exception e) {
+                throw new IllegalStateException("Decryption failed", e);
+            }
+            return encrypt(plain, 0, len);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+        }
+    }
+
     public String decrypt(String enc) {
+        return decrypt(enc, activeKeyVersion);
+    }
+
+    public String decrypt(String enc, int keyVersion) {
+        CipherPool decryptors = slot(keyVersion).decryptors();
+        Cipher c = decryptors.borrow();
         try {
-            Cipher c = Cipher.getInstance(transformation);
-            c.init(Cipher.DECRYPT_MODE, keySpec);
-            return new String(c.doFinal(Base64.getDecoder().decode(enc)));
+            String result = new String(c.doFinal(Base64.getDecoder().decode(enc)), StandardCharsets.UTF_8);
+            decryptors.release(c);
+            return result;
         } catch (Exception e) {
             throw new IllegalStateException("Decryption failed", e);
         }
     }
 
+    public List<String> encryptAll(List<String> plain) {
+        return processAll(plain, slot(activeKeyVersion).encryptors(), true);
+    }
+
+    public List<String> decryptAll(List<String> encrypted) {
+        return decryptAll(encrypted, activeKeyVersion);
+    }
+
+    public List<String> decryptAll(List<String> encrypted, int keyVersion) {
+        return processAll(encrypted, slot(keyVersion).decryptors(), false);
+    }
+
+    /**
+     * Небольшие списки обрабатываются в вызывающем потоке одним Cipher.
+     * Большие делятся на куски по числу воркеров ограниченного ForkJoinPool,
+     * каждый кусок берёт свой Cipher и свой буфер.
+     */
+    private List<String> processAll(List<String> src, CipherPool pool, boolean encrypt) {
+        String[] out = new String[src.size()];
+
+        if (src.size() <= BATCH_SPLIT_THRESHOLD || BATCH_PARALLELISM == 1) {
+            processChunk(src, out, 0, src.size(), pool, encrypt);
+            return Collections.unmodifiableList(Arrays.asList(out));
+        }
+
+        int chunk = (src.size() + BATCH_PARALLELISM - 1) / BATCH_PARALLELISM;
+        List<Callable<Void>> tasks = new ArrayList<>(BATCH_PARALLELISM);
+        for (int from = 0; from < src.size(); from += chunk) {
+            int start = from;
+            int end = Math.min(src.size(), from + chunk);
+            tasks.add(() -> {
+                processChunk(src, out, start, end, pool, encrypt);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> f : batchPool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch crypto interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(encrypt ? "Encryption failed" : "Decryption failed", e.getCause());
+        }
+        return Collections.unmodifiableList(Arrays.asList(out));
+    }
+
+    private static void processChunk(List<String> src, String[] out, int from, int to, CipherPool pool, boolean encrypt) {
+        Cipher c = pool.borrow();
+        byte[] scratch = new byte[64];
+        try {
+            for (int i = from; i < to; i++) {
+                if (encrypt) {
+                    out[i] = Base64.getEncoder().encodeToString(c.doFinal(src.get(i).getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    byte[] cipherText = Base64.getDecoder().decode(src.get(i));
+                    int size = c.getOutputSize(cipherText.length);
+                    if (scratch.length < size) {
+                        Arrays.fill(scratch, (byte) 0);
+                        scratch = new byte[size];
+                    }
+                    int len = c.doFinal(cipherText, 0, cipherText.length, scratch, 0);
+                    out[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+                }
+            }
+            pool.release(c);
+        } catch (Exception e) {
+            throw new IllegalStateException(encrypt ? "Encryption failed" : "Decryption failed", e);
+        } finally {
+            Arrays.fill(scratch, (byte) 0);
+        }
+    }
+
+    /**
+     * Детерминированный ключевой хэш номера карты (HMAC-SHA256, hex) для поиска и проверки уникальности.
+     * Не зависит от режима шифрования, поэтому хранение можно перевести на рандомизированный режим.
+     */
+    public String blindIndex(String cardNumber) {
+        // Берём только ASCII-цифры сразу в байты: без StringBuilder и промежуточной строки
+        byte[] digits = new byte[cardNumber.length()];
+        int len = 0;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            char ch = cardNumber.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                digits[len++] = (byte) ch;
+            }
+        }
+        try {
+            return blindIndex(digits, 0, len);
+        } finally {
+            Arrays.fill(digits, (byte) 0);
+        }
+    }
+
+    public String blindIndex(byte[] digits, int off, int len) {
+        Mac mac = macs.poll();
+        try {
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(indexKeySpec);
+            }
+            mac.update(digits, off, len);
+            byte[] digest = mac.doFinal();
+            macs.offer(mac);
+            return HexFormat.of().formatHex(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Blind index failed", e);
+        }
+    }
+
+    private static int base64Length(int len) {
+        return (len + 2) / 3 * 4;
+    }
+
+    private static int base64Encode(byte[] src, int len, byte[] dst) {
+        int d = 0;
+        int i = 0;
+        for (; i + 2 < len; i += 3) {
+            int v = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            dst[d++] = BASE64[v >>> 18 & 63];
+            dst[d++] = BASE64[v >>> 12 & 63];
+            dst[d++] = BASE64[v >>> 6 & 63];
+            dst[d++] = BASE64[v & 63];
+        }
+        int rem = len - i;
+        if (rem > 0) {
+            int v = (src[i] & 0xff) << 16 | (rem == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            dst[d++] = BASE64[v >>> 18 & 63];
+            dst[d++] = BASE64[v >>> 12 & 63];
+            dst[d++] = rem == 2 ? BASE64[v >>> 6 & 63] : (byte) '=';
+            dst[d++] = '=';
+        }
+        return d;
+    }
+
     public String getMaskedNumber(String enc) {
         String decryptedNumber = decrypt(enc);
 
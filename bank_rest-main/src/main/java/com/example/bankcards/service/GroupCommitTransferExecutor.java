@@ -0,0 +1,202 @@
+package com.example.bankcards.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Необязательный исполнитель переводов с групповым коммитом (card.transfer.group-commit.enabled).
+ * <p>
+ * Один поток собирает запросы в течение окна window или до max-batch штук и применяет их
+ * через CardService.applyGroup одной транзакцией — один коммит и один fsync на группу.
+ * Каждый вызывающий получает свой результат; если очередь заполнена, перевод выполняется напрямую.
+ * Метрики: card.transfer.group.size (размер группы), card.transfer.group.queue (ожидание в очереди),
+ * card.transfer.group.commit (время транзакции группы).
+ */
+@Component
+@Slf4j
+public class GroupCommitTransferExecutor {
+    private final CardService cardService;
+    private final TransferLockPolicy lockPolicy;
+    private final TransferAdmission admission;
+    private final TransferVelocity velocity;
+    private final BalanceEngine balanceEngine;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Pending> queue;
+    private final Thread worker;
+    private volatile boolean running;
+
+    private final DistributionSummary batchSizes;
+    private final Timer queueLatency;
+    private final Timer commitTime;
+
+    public GroupCommitTransferExecutor(CardService cardService,
+                                       TransferLockPolicy lockPolicy,
+                                       TransferAdmission admission,
+                                       TransferVelocity velocity,
+                                       BalanceEngine balanceEngine,
+                                       MeterRegistry meterRegistry,
+                                       @Value("${card.transfer.group-commit.enabled:false}") boolean enabled,
+                                       @Value("${card.transfer.group-commit.window:2ms}") Duration window,
+                                       @Value("${card.transfer.group-commit.max-batch:64}") int maxBatch,
+                                       @Value("${card.transfer.group-commit.queue-capacity:10000}") int queueCapacity) {
+        this.cardService = cardService;
+        this.lockPolicy = lockPolicy;
+        this.admission = admission;
+        this.velocity = velocity;
+        this.balanceEngine = balanceEngine;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatch = Math.max(1, maxBatch);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+
+        this.batchSizes = DistributionSummary.builder("card.transfer.group.size")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.queueLatency = Timer.builder("card.transfer.group.queue")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.commitTime = Timer.builder("card.transfer.group.commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        if (enabled) {
+            this.running = true;
+            this.worker = new Thread(this::run, "transfer-group-commit");
+            this.worker.setDaemon(true);
+            this.worker.start();
+        } else {
+            this.worker = null;
+        }
+    }
+
+    public void transfer(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        velocity.check(userId, cardNumberFrom, amount);
+        if (balanceEngine.isEnabled()) {
+            balanceEngine.transfer(userId, cardNumberFrom, cardNumberTo, amount);
+            return;
+        }
+        if (!enabled || !running) {
+            transferDirectly(userId, cardNumberFrom, cardNumberTo, amount);
+            return;
+        }
+
+        Pending pending = new Pending(new GroupTransfer(userId, cardNumberFrom, cardNumberTo, amount),
+                new CompletableFuture<>(), System.nanoTime());
+        if (!queue.offer(pending)) {
+            log.warn("Очередь группового коммита заполнена, перевод выполняется напрямую");
+            transferDirectly(userId, cardNumberFrom, cardNumberTo, amount);
+            return;
+        }
+        // stop() мог случиться между проверкой running и offer: воркер уже вычистил очередь и не заберёт перевод.
+        // Если перевод всё ещё в очереди, забираем его сами; иначе его завершит воркер или failRemaining
+        if (!running && queue.remove(pending)) {
+            transferDirectly(userId, cardNumberFrom, cardNumberTo, amount);
+            return;
+        }
+
+        try {
+            pending.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void transferDirectly(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        admission.run(userId, () -> lockPolicy.runWithRetry(
+                () -> cardService.transferBetweenUserCards(userId, cardNumberFrom, cardNumberTo, amount)));
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+        failRemaining();
+    }
+
+    private void commit(List<Pending> batch) {
+        long started = System.nanoTime();
+        batchSizes.record(batch.size());
+        for (Pending pending : batch) {
+            queueLatency.record(started - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+        }
+
+        List<RuntimeException> outcomes;
+        try {
+            List<GroupTransfer> transfers = batch.stream().map(Pending::transfer).toList();
+            outcomes = lockPolicy.callWithRetry(() -> cardService.applyGroup(transfers));
+        } catch (RuntimeException e) {
+            // Не прошёл сам коммит: ни один перевод группы не применён
+            log.error("Групповой коммит не выполнен: {} переводов; {}", batch.size(), e.getMessage());
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+            return;
+        } finally {
+            commitTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            RuntimeException error = outcomes.get(i);
+            if (error == null) {
+                batch.get(i).result().complete(null);
+            } else {
+                batch.get(i).result().completeExceptionally(error);
+            }
+        }
+    }
+
+    private void failRemaining() {
+        List<Pending> left = new ArrayList<>();
+        queue.drainTo(left);
+        IllegalStateException stopped = new IllegalStateException("Исполнитель группового коммита остановлен");
+        left.forEach(pending -> pending.result().completeExceptionally(stopped));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    private record Pending(GroupTransfer transfer, CompletableFuture<Void> result, long enqueuedAt) {
+    }
+}
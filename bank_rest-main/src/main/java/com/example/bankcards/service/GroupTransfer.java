@@ -0,0 +1,9 @@
+package com.example.bankcards.service;
+
+import java.math.BigDecimal;
+
+/**
+ * Один перевод в группе GroupCommitTransferExecutor.
+ */
+public record GroupTransfer(Long userId, String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+}
@@ -0,0 +1,217 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.TransferRequest;
+import com.example.bankcards.exception.IdempotencyKeyReuseException;
+import com.example.bankcards.exception.TransferBusyException;
+import com.example.bankcards.repository.TransferRequestRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Переводы с заголовком Idempotency-Key.
+ * <p>
+ * Запись в transfer_requests вставляется первой в транзакции перевода: параллельный повтор с тем же ключом
+ * ждёт на уникальном индексе и после коммита первого получает сохранённый ответ, не трогая строки карт.
+ * Неуспешный перевод откатывает и запись, поэтому повтор после ошибки выполняется заново.
+ * Недавние ключи держатся в ограниченном кэше и отвечают без обращения к БД.
+ * <p>
+ * С движком балансов запись сначала коммитится в статусе PENDING, и только потом вызывается движок
+ * с ключом этой записи: если ответ потерян (сбой БД, рестарт), повтор запроса снова зовёт движок,
+ * а тот не применяет перевод второй раз.
+ */
+@Service
+@Slf4j
+public class IdempotentTransferService {
+    static final int OK = 200;
+    static final String OK_BODY = "Перевод выполнен";
+    static final int PENDING = 202;
+    static final String PENDING_BODY = "Перевод выполняется";
+
+    private final CardService cardService;
+    private final TransferLockPolicy lockPolicy;
+    private final TransferAdmission admission;
+    private final TransferVelocity velocity;
+    private final BalanceEngine balanceEngine;
+    private final CryptoService cryptoService;
+    private final TransferRequestRepository requestRepository;
+    private final TransactionTemplate tx;
+    private final Cache<String, Receipt> recent;
+
+    public IdempotentTransferService(CardService cardService,
+                                     TransferLockPolicy lockPolicy,
+                                     TransferAdmission admission,
+                                     TransferVelocity velocity,
+                                     BalanceEngine balanceEngine,
+                                     CryptoService cryptoService,
+                                     TransferRequestRepository requestRepository,
+                                     PlatformTransactionManager transactionManager,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${card.transfer.idempotency.cache-size:100000}") long cacheSize,
+                                     @Value("${card.transfer.idempotency.retention:24h}") Duration retention) {
+        this.cardService = cardService;
+        this.lockPolicy = lockPolicy;
+        this.admission = admission;
+        this.velocity = velocity;
+        this.balanceEngine = balanceEngine;
+        this.cryptoService = cryptoService;
+        this.requestRepository = requestRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.recent = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(retention)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, recent, "transferIdempotency");
+    }
+
+    public Receipt transfer(Long userId, String idempotencyKey,
+                            String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        String cacheKey = userId + ":" + idempotencyKey;
+        String requestHash = requestHash(cardNumberFrom, cardNumberTo, amount);
+
+        Receipt cached = recent.getIfPresent(cacheKey);
+        if (cached != null) {
+            return replay(cached, requestHash, idempotencyKey);
+        }
+        if (balanceEngine.isEnabled()) {
+            return admission.call(userId, () -> transferViaEngine(userId, idempotencyKey, cacheKey, requestHash,
+                    cardNumberFrom, cardNumberTo, amount));
+        }
+        Optional<TransferRequest> stored = requestRepository.findByUserIdAndKey(userId, idempotencyKey);
+        if (stored.isPresent()) {
+            return replay(remember(cacheKey, stored.get()), requestHash, idempotencyKey);
+        }
+        // Повтор по ключу идемпотентности не считается новым переводом
+        velocity.check(userId, cardNumberFrom, amount);
+
+        try {
+            admission.run(userId, () -> lockPolicy.runWithRetry(() -> tx.executeWithoutResult(status -> {
+                requestRepository.saveAndFlush(request(userId, idempotencyKey, requestHash, OK, OK_BODY));
+                cardService.transferBetweenUserCards(userId, cardNumberFrom, cardNumberTo, amount);
+
+                Receipt receipt = new Receipt(requestHash, OK, OK_BODY, false);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        recent.put(cacheKey, receipt);
+                    }
+                });
+            })));
+        } catch (DataIntegrityViolationException e) {
+            // Параллельный запрос с тем же ключом успел закоммитить перевод первым
+            TransferRequest winner = requestRepository.findByUserIdAndKey(userId, idempotencyKey)
+                    .orElseThrow(() -> e);
+            return replay(remember(cacheKey, winner), requestHash, idempotencyKey);
+        }
+        return new Receipt(requestHash, OK, OK_BODY, false);
+    }
+
+    /**
+     * Вызывается под admission пользователя, поэтому повторы одного ключа на узле не пересекаются.
+     */
+    private Receipt transferViaEngine(Long userId, String idempotencyKey, String cacheKey, String requestHash,
+                                      String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        TransferRequest request = requestRepository.findByUserIdAndKey(userId, idempotencyKey).orElse(null);
+        // Запись PENDING осталась от попытки, ответ на которую потерян: движок мог уже применить перевод
+        boolean retry = request != null;
+        if (retry) {
+            if (request.getStatusCode() != PENDING || !Objects.equals(request.getRequestHash(), requestHash)) {
+                return replay(remember(cacheKey, request), requestHash, idempotencyKey);
+            }
+        } else {
+            velocity.check(userId, cardNumberFrom, amount);
+            try {
+                request = tx.execute(status -> requestRepository.saveAndFlush(
+                        request(userId, idempotencyKey, requestHash, PENDING, PENDING_BODY)));
+            } catch (DataIntegrityViolationException e) {
+                TransferRequest winner = requestRepository.findByUserIdAndKey(userId, idempotencyKey)
+                        .orElseThrow(() -> e);
+                if (winner.getStatusCode() == PENDING) {
+                    throw new TransferBusyException("Перевод по ключу " + idempotencyKey + " ещё выполняется, повторите запрос позже");
+                }
+                return replay(remember(cacheKey, winner), requestHash, idempotencyKey);
+            }
+        }
+
+        Long requestId = Objects.requireNonNull(request).getId();
+        try {
+            balanceEngine.transfer(userId, cardNumberFrom, cardNumberTo, amount, "transfer-request:" + requestId, retry);
+        } catch (RuntimeException e) {
+            if (!retry) {
+                // Движок перевод не применил: повтор после ошибки выполняется заново
+                tx.executeWithoutResult(status -> requestRepository.deleteById(requestId));
+            }
+            throw e;
+        }
+        tx.executeWithoutResult(status -> requestRepository.complete(requestId, OK, OK_BODY));
+
+        Receipt receipt = new Receipt(requestHash, OK, OK_BODY, false);
+        recent.put(cacheKey, receipt);
+        return receipt;
+    }
+
+    private static TransferRequest request(Long userId, String idempotencyKey, String requestHash,
+                                           int statusCode, String body) {
+        return TransferRequest.builder()
+                .userId(userId)
+                .idempotencyKey(idempotencyKey)
+                .requestHash(requestHash)
+                .statusCode(statusCode)
+                .responseBody(body)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    private Receipt remember(String cacheKey, TransferRequest request) {
+        Receipt receipt = new Receipt(request.getRequestHash(), request.getStatusCode(), request.getResponseBody(), false);
+        // Исход PENDING ещё не известен, его нельзя отдавать из кэша
+        if (receipt.statusCode() != PENDING) {
+            recent.put(cacheKey, receipt);
+        }
+        return receipt;
+    }
+
+    private static Receipt replay(Receipt original, String requestHash, String idempotencyKey) {
+        if (!Objects.equals(original.requestHash(), requestHash)) {
+            throw new IdempotencyKeyReuseException("Ключ " + idempotencyKey + " уже использован для другого перевода");
+        }
+        log.info("Повтор перевода по ключу идемпотентности: {}", idempotencyKey);
+        return new Receipt(original.requestHash(), original.statusCode(), original.body(), true);
+    }
+
+    private String requestHash(String cardNumberFrom, String cardNumberTo, BigDecimal amount) {
+        String amountText = amount == null ? "" : amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        String fingerprint = cryptoService.blindIndex(cardNumberFrom) + ':'
+                + cryptoService.blindIndex(cardNumberTo) + ':' + amountText;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(fingerprint.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Receipt(String requestHash, int statusCode, String body, boolean replayed) {
+    }
+}
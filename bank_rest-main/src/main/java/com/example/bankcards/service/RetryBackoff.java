@@ -0,0 +1,35 @@
+package com.example.bankcards.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Jitter-пауза между повторами перевода: случайная в [0, min(max, base * 2^attempt)],
+ * чтобы конкуренты не совпадали по времени.
+ */
+final class RetryBackoff {
+
+    private RetryBackoff() {
+    }
+
+    /**
+     * Возвращает false, если поток прерван — до паузы или во время неё; флаг прерывания сохраняется,
+     * а вызывающий код должен прекратить повторы.
+     */
+    static boolean pause(int attempt, long baseNanos, long maxNanos) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        long cap = Math.min(maxNanos, baseNanos << Math.min(attempt, 20));
+        if (cap <= 0) {
+            return true;
+        }
+        long pause = ThreadLocalRandom.current().nextLong(cap + 1);
+        try {
+            Thread.sleep(pause / 1_000_000, (int) (pause % 1_000_000));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.exception.TransferBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Очередь переводов одного пользователя в памяти, до открытия транзакции.
+ * <p>
+ * Переводы пользователя берут один из card.transfer.admission.stripes семафоров (по хэшу user id),
+ * поэтому параллельные запросы одного пользователя ждут здесь, а не на блокировках строк
+ * с занятым соединением из пула; разные пользователи почти никогда не делят семафор.
+ * Не дождавшиеся за card.transfer.admission.timeout получают TransferBusyException (503).
+ */
+@Component
+@Slf4j
+public class TransferAdmission {
+    private final boolean enabled;
+    private final Semaphore[] stripes;
+    private final long timeoutNanos;
+
+    private final Timer admissionWait;
+    private final Counter rejected;
+
+    public TransferAdmission(MeterRegistry meterRegistry,
+                             @Value("${card.transfer.admission.enabled:true}") boolean enabled,
+                             @Value("${card.transfer.admission.stripes:1024}") int stripes,
+                             @Value("${card.transfer.admission.fair:true}") boolean fair,
+                             @Value("${card.transfer.admission.timeout:2s}") Duration timeout) {
+        this.enabled = enabled;
+        this.timeoutNanos = timeout.toNanos();
+
+        // Степень двойки, чтобы номер полосы брался маской
+        int size = Integer.highestOneBit(Math.max(1, Math.min(stripes, 1 << 16)) * 2 - 1);
+        this.stripes = new Semaphore[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Semaphore(1, fair);
+        }
+
+        this.admissionWait = Timer.builder("card.transfer.admission.wait")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.rejected = meterRegistry.counter("card.transfer.admission.rejected");
+    }
+
+    public void run(Long userId, Runnable transfer) {
+        call(userId, () -> {
+            transfer.run();
+            return null;
+        });
+    }
+
+    public <T> T call(Long userId, Supplier<T> transfer) {
+        if (!enabled) {
+            return transfer.get();
+        }
+
+        Semaphore stripe = stripes[stripe(userId)];
+        long started = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = stripe.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransferBusyException("Ожидание очереди переводов прервано", e);
+        } finally {
+            admissionWait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+
+        if (!acquired) {
+            rejected.increment();
+            log.warn("Перевод пользователя id = {} не дождался очереди за {} мс", userId,
+                    TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+            throw new TransferBusyException("Слишком много одновременных переводов, повторите позже");
+        }
+        try {
+            return transfer.get();
+        } finally {
+            stripe.release();
+        }
+    }
+
+    int stripe(Long userId) {
+        int h = userId == null ? 0 : Long.hashCode(userId);
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.bankcards.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only журнал намерений переводов поверх {@link MappedByteBuffer}.
+ * <p>
+ * Сегменты intent-SEQ.wal фиксированного размера, записи по {@link #RECORD_SIZE} байт с CRC32C в конце.
+ * Запись в память выполняется под коротким локом, сброс на диск групповой: первый ждущий
+ * {@link #awaitDurable(long)} сбрасывает всё накопленное, остальные находят свои записи уже на диске.
+ * Конец журнала при открытии — первая пустая или битая запись последнего сегмента.
+ */
+public class TransferIntentJournal implements Closeable {
+    public static final int RECORD_SIZE = 128;
+
+    public static final byte INTENT = 1;
+    public static final byte COMPLETE = 2;
+    // Итог проставлен при восстановлении по статусу транзакции в PostgreSQL
+    public static final byte RECONCILED = 3;
+
+    public static final byte COMMITTED = 1;
+    public static final byte ROLLED_BACK = 2;
+    public static final byte UNKNOWN = 3;
+
+    private static final int HASH_BYTES = 32;
+    private static final int CRC_OFFSET = RECORD_SIZE - Integer.BYTES;
+    private static final Pattern SEGMENT = Pattern.compile("intent-(\\d+)\\.wal");
+
+    public record Record(long seq, byte type, byte outcome, long txid, long userId, long amountCents,
+                         long epochMillis, long refSeq, byte[] fromHash, byte[] toHash) {
+    }
+
+    public record ScanResult(long records, long corrupted, long lastSeq) {
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Object appendLock = new Object();
+    private final Object syncLock = new Object();
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final CRC32C crc = new CRC32C();
+
+    // Под appendLock
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private long nextSeq;
+
+    // Под syncLock
+    private MappedByteBuffer syncedBuffer;
+    private int syncedPosition;
+    private volatile long durableSeq;
+
+    public TransferIntentJournal(Path dir, long segmentSize, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentSize = (int) Math.max(RECORD_SIZE, Math.min(segmentSize, Integer.MAX_VALUE) / RECORD_SIZE * RECORD_SIZE);
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(dir);
+
+        TreeMap<Long, Path> segments = segments(dir);
+        if (segments.isEmpty()) {
+            nextSeq = 1;
+            openSegment(1);
+        } else {
+            ScanResult last = scanSegment(segments.lastEntry().getValue(), r -> { });
+            nextSeq = Math.max(segments.lastKey(), last.lastSeq() + 1);
+            openExisting(segments.lastEntry().getValue(), (int) ((last.records() + last.corrupted()) * RECORD_SIZE));
+        }
+        durableSeq = nextSeq - 1;
+    }
+
+    public long appendIntent(long txid, long userId, byte[] fromHash, byte[] toHash,
+                             long amountCents, long epochMillis) throws IOException {
+        return append(INTENT, (byte) 0, txid, userId, amountCents, epochMillis, 0, fromHash, toHash);
+    }
+
+    public long appendOutcome(byte type, long intentSeq, byte outcome) throws IOException {
+        return append(type, outcome, 0, 0, 0, System.currentTimeMillis(), intentSeq, null, null);
+    }
+
+    private long append(byte type, byte outcome, long txid, long userId, long amountCents,
+                        long epochMillis, long refSeq, byte[] fromHash, byte[] toHash) throws IOException {
+        synchronized (appendLock) {
+            if (position + RECORD_SIZE > segmentSize) {
+                roll();
+            }
+            long seq = nextSeq++;
+            ByteBuffer record = ByteBuffer.wrap(scratch);
+            record.putLong(0, seq)
+                    .put(8, type)
+                    .put(9, outcome)
+                    .putLong(16, txid)
+                    .putLong(24, userId)
+                    .putLong(32, amountCents)
+                    .putLong(40, epochMillis)
+                    .putLong(48, refSeq);
+            putHash(record, 56, fromHash);
+            putHash(record, 56 + HASH_BYTES, toHash);
+            crc.reset();
+            crc.update(scratch, 0, CRC_OFFSET);
+            record.putInt(CRC_OFFSET, (int) crc.getValue());
+
+            buffer.put(position, scratch);
+            position += RECORD_SIZE;
+            return seq;
+        }
+    }
+
+    /**
+     * Ждёт, пока запись seq окажется на диске; один force() покрывает все записи, добавленные к этому моменту.
+     */
+    public void awaitDurable(long seq) {
+        if (durableSeq >= seq) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableSeq >= seq) {
+                return;
+            }
+            MappedByteBuffer target;
+            int from;
+            int to;
+            long upTo;
+            synchronized (appendLock) {
+                target = buffer;
+                to = position;
+                upTo = nextSeq - 1;
+            }
+            from = target == syncedBuffer ? syncedPosition : 0;
+            if (to > from) {
+                target.force(from, to - from);
+            }
+            syncedBuffer = target;
+            syncedPosition = to;
+            durableSeq = upTo;
+        }
+    }
+
+    public long durableSeq() {
+        return durableSeq;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (buffer != null) {
+                buffer.force();
+                durableSeq = nextSeq - 1;
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        // Прежний сегмент сбрасывается целиком, чтобы ожидающие awaitDurable не зависели от него
+        buffer.force();
+        channel.close();
+        openSegment(nextSeq);
+        deleteOldSegments();
+    }
+
+    private void openSegment(long firstSeq) throws IOException {
+        openExisting(dir.resolve(segmentName(firstSeq)), 0);
+    }
+
+    private void openExisting(Path file, int offset) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        position = offset;
+    }
+
+    private void deleteOldSegments() throws IOException {
+        TreeMap<Long, Path> segments = segments(dir);
+        while (segments.size() > maxSegments) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    private static void putHash(ByteBuffer record, int offset, byte[] hash) {
+        for (int i = 0; i < HASH_BYTES; i++) {
+            record.put(offset + i, hash != null && i < hash.length ? hash[i] : 0);
+        }
+    }
+
+    static String segmentName(long firstSeq) {
+        return String.format("intent-%020d.wal", firstSeq);
+    }
+
+    /**
+     * Читает все сегменты по порядку. Битые записи в середине считаются и пропускаются,
+     * пустая запись заканчивает сегмент.
+     */
+    public static ScanResult scan(Path dir, Consumer<Record> consumer) throws IOException {
+        long records = 0;
+        long corrupted = 0;
+        long lastSeq = 0;
+        for (Path file : segments(dir).values()) {
+            ScanResult segment = scanSegment(file, consumer);
+            records += segment.records();
+            corrupted += segment.corrupted();
+            lastSeq = Math.max(lastSeq, segment.lastSeq());
+        }
+        return new ScanResult(records, corrupted, lastSeq);
+    }
+
+    private static ScanResult scanSegment(Path file, Consumer<Record> consumer) throws IOException {
+        long records = 0;
+        long corrupted = 0;
+        long lastSeq = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] bytes = new byte[RECORD_SIZE];
+            CRC32C check = new CRC32C();
+            List<Long> pendingCorrupted = new ArrayList<>();
+            for (int offset = 0; offset + RECORD_SIZE <= data.limit(); offset += RECORD_SIZE) {
+                data.get(offset, bytes);
+                ByteBuffer record = ByteBuffer.wrap(bytes);
+                long seq = record.getLong(0);
+                if (seq == 0) {
+                    break;
+                }
+                check.reset();
+                check.update(bytes, 0, CRC_OFFSET);
+                if ((int) check.getValue() != record.getInt(CRC_OFFSET)) {
+                    // Обрыв в конце сегмента не считается повреждением, пока за ним не найдена целая запись
+                    pendingCorrupted.add(seq);
+                    continue;
+                }
+                corrupted += pendingCorrupted.size();
+                pendingCorrupted.clear();
+
+                byte[] fromHash = new byte[HASH_BYTES];
+                byte[] toHash = new byte[HASH_BYTES];
+                record.get(56, fromHash);
+                record.get(56 + HASH_BYTES, toHash);
+                consumer.accept(new Record(seq, record.get(8), record.get(9), record.getLong(16), record.getLong(24),
+                        record.getLong(32), record.getLong(40), record.getLong(48), fromHash, toHash));
+                records++;
+                lastSeq = seq;
+            }
+        }
+        return new ScanResult(records, corrupted, lastSeq);
+    }
+
+    private static TreeMap<Long, Path> segments(Path dir) throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "intent-*.wal")) {
+            for (Path file : files) {
+                Matcher m = SEGMENT.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    result.put(Long.parseLong(m.group(1)), file);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.Money;
+import com.example.bankcards.repository.CardRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Журнал намерений переводов (card.transfer.journal.enabled) для аудита без лишней записи в БД.
+ * <p>
+ * Перед изменением балансов в {@link TransferIntentJournal} пишется намерение с txid текущей транзакции,
+ * перед коммитом транзакция ждёт, пока намерение окажется на диске (групповой fsync), после завершения
+ * дописывается итог. При старте намерения без итога сверяются с txid_status() в PostgreSQL
+ * и закрываются записью RECONCILED: повторно перевод не выполняется, клиент не получал подтверждения.
+ */
+@Component
+@Slf4j
+public class TransferIntentLog {
+    private final CardRepository cardRepository;
+    private final CryptoService cryptoService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Path dir;
+    private final DataSize segmentSize;
+    private final int maxSegments;
+    private final Timer syncWait;
+
+    private TransferIntentJournal journal;
+
+    public TransferIntentLog(CardRepository cardRepository,
+                             CryptoService cryptoService,
+                             MeterRegistry meterRegistry,
+                             @Value("${card.transfer.journal.enabled:false}") boolean enabled,
+                             @Value("${card.transfer.journal.dir:data/journal}") String dir,
+                             @Value("${card.transfer.journal.segment-size:64MB}") DataSize segmentSize,
+                             @Value("${card.transfer.journal.max-segments:64}") int maxSegments) {
+        this.cardRepository = cardRepository;
+        this.cryptoService = cryptoService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.syncWait = Timer.builder("card.transfer.journal.sync-wait")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            journal = new TransferIntentJournal(dir, segmentSize.toBytes(), maxSegments);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть журнал намерений переводов: " + dir, e);
+        }
+        log.info("Журнал намерений переводов открыт: {}", dir.toAbsolutePath());
+    }
+
+    /**
+     * Пишет намерение перевода в текущую транзакцию; вызывать до изменения балансов.
+     */
+    public void begin(Long userId, String cardNumberFrom, String cardNumberTo, Money amount) {
+        if (!enabled || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        long txid = cardRepository.currentTxid();
+        long seq;
+        try {
+            seq = journal.appendIntent(txid, userId,
+                    hash(cryptoService.blindIndex(cardNumberFrom)), hash(cryptoService.blindIndex(cardNumberTo)),
+                    amount.minor(), System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Журнал намерений переводов недоступен", e);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                syncWait.record(() -> journal.awaitDurable(seq));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                byte outcome = status == STATUS_COMMITTED ? TransferIntentJournal.COMMITTED : TransferIntentJournal.ROLLED_BACK;
+                try {
+                    // Итог без ожидания fsync: потерянный итог восстановится по txid при старте
+                    journal.appendOutcome(TransferIntentJournal.COMPLETE, seq, outcome);
+                } catch (IOException e) {
+                    log.warn("Итог перевода не записан в журнал: seq = {}; {}", seq, e.getMessage());
+                }
+            }
+        });
+    }
+
+    void recover() throws IOException {
+        Map<Long, TransferIntentJournal.Record> open = new HashMap<>();
+        TransferIntentJournal.ScanResult scan = TransferIntentJournal.scan(dir, record -> {
+            if (record.type() == TransferIntentJournal.INTENT) {
+                open.put(record.seq(), record);
+            } else {
+                open.remove(record.refSeq());
+            }
+        });
+        if (scan.corrupted() > 0) {
+            log.warn("В журнале намерений переводов битых записей: {}", scan.corrupted());
+        }
+
+        long lastSeq = 0;
+        for (TransferIntentJournal.Record intent : open.values()) {
+            String status = cardRepository.txidStatus(intent.txid());
+            byte outcome;
+            if ("committed".equals(status)) {
+                outcome = TransferIntentJournal.COMMITTED;
+            } else if ("aborted".equals(status)) {
+                outcome = TransferIntentJournal.ROLLED_BACK;
+            } else if ("in progress".equals(status)) {
+                // Транзакция ещё идёт (другой узел с тем же каталогом) — сверим при следующем старте
+                continue;
+            } else {
+                outcome = TransferIntentJournal.UNKNOWN;
+            }
+            lastSeq = journal.appendOutcome(TransferIntentJournal.RECONCILED, intent.seq(), outcome);
+            meterRegistry.counter("card.transfer.journal.reconciled", "outcome", String.valueOf(status)).increment();
+            log.warn("Намерение перевода сверено при старте: seq = {}; txid = {}; статус = {}", intent.seq(), intent.txid(), status);
+        }
+        if (lastSeq > 0) {
+            journal.awaitDurable(lastSeq);
+        }
+        log.info("Журнал намерений переводов просмотрен: записей {}; незавершённых {}", scan.records(), open.size());
+    }
+
+    private static byte[] hash(String blindIndex) {
+        try {
+            return HexFormat.of().parseHex(blindIndex);
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("Не удалось закрыть журнал намерений переводов: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.bankcards.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Журнал переводов одной партиции {@link BalanceEngine}: сегменты partition-P-SEQ.journal
+ * с записями фиксированной длины. Переводы подтверждаются только после {@link #sync()}.
+ * <p>
+ * Сегмент закрывается при каждой передаче изменений на запись в БД ({@link #roll()})
+ * и удаляется, когда эта запись закоммичена ({@link #release(long)}).
+ * Не потокобезопасен: пишет только поток своей партиции.
+ */
+public class TransferJournal implements Closeable {
+    static final int RECORD_SIZE = 8 * Long.BYTES;
+
+    private static final Pattern SEGMENT = Pattern.compile("partition-(\\d+)-(\\d+)\\.journal");
+
+    /**
+     * spentDay — день (epoch day), в расход которого по дневному лимиту засчитан перевод, 0 — не засчитан;
+     * keyHigh/keyLow — ключ запроса ({@link BalanceEnginePartition.RequestKey}), 0/0 — перевод без ключа.
+     */
+    public record Entry(long seq, long userId, long fromId, long toId, long amountCents, long spentDay,
+                        long keyHigh, long keyLow) {
+    }
+
+    private record Segment(Path path, long lastSeq) {
+    }
+
+    private final Path dir;
+    private final int partition;
+    private final ByteBuffer pending;
+    private final Deque<Segment> closed = new ArrayDeque<>();
+
+    private FileChannel channel;
+    private Path currentPath;
+    private long syncedSize;
+    private long lastSeq;
+    private long lastSyncedSeq;
+
+    public TransferJournal(Path dir, int partition, int maxBatch) throws IOException {
+        this.dir = dir;
+        this.partition = partition;
+        this.pending = ByteBuffer.allocateDirect(RECORD_SIZE * Math.max(1, maxBatch));
+        Files.createDirectories(dir);
+    }
+
+    public void append(Entry entry) throws IOException {
+        if (pending.remaining() < RECORD_SIZE) {
+            writePending();
+        }
+        pending.putLong(entry.seq())
+                .putLong(entry.userId())
+                .putLong(entry.fromId())
+                .putLong(entry.toId())
+                .putLong(entry.amountCents())
+                .putLong(entry.spentDay())
+                .putLong(entry.keyHigh())
+                .putLong(entry.keyLow());
+        lastSeq = entry.seq();
+    }
+
+    /**
+     * Дописывает накопленные записи и сбрасывает их на диск.
+     */
+    public void sync() throws IOException {
+        writePending();
+        if (channel != null) {
+            channel.force(false);
+            syncedSize = channel.size();
+        }
+        lastSyncedSeq = lastSeq;
+    }
+
+    /**
+     * Отбрасывает записи после последнего {@link #sync()}: пачка не подтверждена и будет откатана в памяти.
+     */
+    public void discardUnsynced() throws IOException {
+        pending.clear();
+        lastSeq = lastSyncedSeq;
+        if (channel != null) {
+            channel.truncate(syncedSize);
+        }
+    }
+
+    /**
+     * Закрывает текущий сегмент; следующая запись откроет новый.
+     */
+    public void roll() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        sync();
+        channel.close();
+        closed.add(new Segment(currentPath, lastSeq));
+        channel = null;
+        currentPath = null;
+    }
+
+    /**
+     * Удаляет закрытые сегменты, все записи которых уже в БД.
+     */
+    public void release(long appliedSeq) throws IOException {
+        while (!closed.isEmpty() && closed.peekFirst().lastSeq() <= appliedSeq) {
+            Files.deleteIfExists(closed.pollFirst().path());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        if (channel == null) {
+            long firstSeq = pending.getLong(0);
+            currentPath = dir.resolve(segmentName(partition, firstSeq));
+            channel = FileChannel.open(currentPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            syncedSize = channel.size();
+        }
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    static String segmentName(int partition, long firstSeq) {
+        return String.format("partition-%d-%020d.journal", partition, firstSeq);
+    }
+
+    /**
+     * Партиции, для которых в каталоге есть сегменты.
+     */
+    public static Set<Integer> partitions(Path dir) throws IOException {
+        Set<Integer> result = new TreeSet<>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "partition-*.journal")) {
+            for (Path file : files) {
+                Matcher m = SEGMENT.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    result.add(Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Все записи партиции по порядку seq. Недописанная запись в конце сегмента (обрыв при сбое) пропускается:
+     * она не была подтверждена.
+     */
+    public static List<Entry> readAll(Path dir, int partition) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : segments(dir, partition).values()) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (data.remaining() >= RECORD_SIZE) {
+                entries.add(new Entry(data.getLong(), data.getLong(), data.getLong(), data.getLong(), data.getLong(),
+                        data.getLong(), data.getLong(), data.getLong()));
+            }
+        }
+        return entries;
+    }
+
+    public static void deleteAll(Path dir, int partition) throws IOException {
+        for (Path file : segments(dir, partition).values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static TreeMap<Long, Path> segments(Path dir, int partition) throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        if (!Files.isDirectory(dir)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "partition-" + partition + "-*.journal")) {
+            for (Path file : files) {
+                Matcher m = SEGMENT.matcher(file.getFileName().toString());
+                if (m.matches() && Integer.parseInt(m.group(1)) == partition) {
+                    result.put(Long.parseLong(m.group(2)), file);
+                }
+            }
+        }
+        return result;
+    }
+}
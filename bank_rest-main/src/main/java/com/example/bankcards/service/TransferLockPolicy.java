@@ -0,0 +1,133 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.exception.TransferBusyException;
+import com.example.bankcards.exception.TransferConflictException;
+import com.example.bankcards.repository.CardRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Ограничение ожидания блокировок строк карт при переводах.
+ * <p>
+ * В начале транзакции перевода выставляется SET LOCAL lock_timeout (card.transfer.lock.timeout),
+ * он действует и на SELECT ... FOR UPDATE, и на блокировки, которые берут сами UPDATE.
+ * Таймаут 0 — режим fail-fast: lock_timeout = 1ms, ближайший аналог NOWAIT для всех путей.
+ * Упавшая по таймауту или deadlock транзакция повторяется целиком с jitter-паузой;
+ * после card.transfer.lock.max-attempts попыток — TransferBusyException (503) или TransferConflictException (409).
+ */
+@Component
+@Slf4j
+public class TransferLockPolicy {
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private final CardRepository cardRepository;
+    private final String lockTimeout;
+    private final int maxAttempts;
+    private final long backoffBaseNanos;
+    private final long backoffMaxNanos;
+
+    private final Timer lockWait;
+    private final Counter timeouts;
+    private final Counter deadlocks;
+    private final Counter retries;
+
+    public TransferLockPolicy(CardRepository cardRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${card.transfer.lock.timeout:2s}") Duration lockTimeout,
+                              @Value("${card.transfer.lock.max-attempts:3}") int maxAttempts,
+                              @Value("${card.transfer.lock.backoff-base:20ms}") Duration backoffBase,
+                              @Value("${card.transfer.lock.backoff-max:200ms}") Duration backoffMax) {
+        this.cardRepository = cardRepository;
+        this.lockTimeout = Math.max(1, lockTimeout.toMillis()) + "ms";
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseNanos = backoffBase.toNanos();
+        this.backoffMaxNanos = backoffMax.toNanos();
+
+        this.lockWait = Timer.builder("card.transfer.lock.wait")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.timeouts = meterRegistry.counter("card.transfer.lock.timeouts");
+        this.deadlocks = meterRegistry.counter("card.transfer.lock.deadlocks");
+        this.retries = meterRegistry.counter("card.transfer.lock.retries");
+    }
+
+    /**
+     * Выставляет lock_timeout до конца текущей транзакции.
+     */
+    public void applyToCurrentTransaction() {
+        cardRepository.setLocalLockTimeout(lockTimeout);
+    }
+
+    /**
+     * Выполняет захват блокировки и пишет время ожидания в card.transfer.lock.wait.
+     */
+    public <T> T timeWait(Supplier<T> lock) {
+        long started = System.nanoTime();
+        try {
+            return lock.get();
+        } finally {
+            lockWait.record(Duration.ofNanos(System.nanoTime() - started));
+        }
+    }
+
+    public void runWithRetry(Runnable transfer) {
+        callWithRetry(() -> {
+            transfer.run();
+            return null;
+        });
+    }
+
+    /**
+     * Вызывать вне транзакции: после таймаута блокировки транзакция в PostgreSQL уже прервана.
+     */
+    public <T> T callWithRetry(Supplier<T> transfer) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transfer.get();
+            } catch (RuntimeException e) {
+                String state = sqlState(e);
+                boolean timeout = LOCK_NOT_AVAILABLE.equals(state);
+                boolean deadlock = DEADLOCK_DETECTED.equals(state);
+                if (!timeout && !deadlock) {
+                    throw e;
+                }
+                (timeout ? timeouts : deadlocks).increment();
+
+                if (attempt >= maxAttempts) {
+                    log.warn("Перевод не получил блокировку карт за {} попыток: {}", attempt, timeout ? "таймаут" : "deadlock");
+                    throw giveUp(timeout, e);
+                }
+                retries.increment();
+                if (!RetryBackoff.pause(attempt, backoffBaseNanos, backoffMaxNanos)) {
+                    log.warn("Повтор перевода прерван после {} попыток", attempt);
+                    throw giveUp(timeout, e);
+                }
+            }
+        }
+    }
+
+    private static RuntimeException giveUp(boolean timeout, RuntimeException cause) {
+        if (timeout) {
+            return new TransferBusyException("Карта занята другой операцией, повторите перевод позже", cause);
+        }
+        return new TransferConflictException("Перевод конфликтует с параллельной операцией, повторите перевод");
+    }
+
+    private static String sqlState(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql && sql.getSQLState() != null) {
+                return sql.getSQLState();
+            }
+        }
+        return null;
+    }
+}
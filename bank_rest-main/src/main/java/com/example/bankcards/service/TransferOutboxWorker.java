@@ -0,0 +1,247 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.TransferOutbox;
+import com.example.bankcards.entity.TransferOutboxStatus;
+import com.example.bankcards.exception.CardNotFoundException;
+import com.example.bankcards.exception.DailyLimitExceededException;
+import com.example.bankcards.exception.NotVerifyException;
+import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.exception.UserNotFoundCustomException;
+import com.example.bankcards.repository.TransferOutboxRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пул воркеров, выполняющих переводы из transfer_outbox.
+ * <p>
+ * Каждый перевод — отдельная транзакция: строка outbox берётся через FOR UPDATE SKIP LOCKED,
+ * поэтому несколько воркеров и несколько узлов приложения делят очередь без двойного выполнения.
+ * Отказ по бизнес-причине (нет средств, карта не найдена) сразу даёт FAILED; прочие ошибки
+ * повторяются с экспоненциальной паузой до card.transfer.async.max-attempts.
+ * <p>
+ * С движком балансов захват строки коммитится до перевода (попытка засчитана, строка скрыта
+ * на card.transfer.async.lease), а движок вызывается с ключом строки: если узел упал после перевода,
+ * повторная попытка не спишет деньги второй раз.
+ */
+@Component
+@Slf4j
+public class TransferOutboxWorker {
+    private static final int MESSAGE_LIMIT = 255;
+
+    private final TransferOutboxRepository outboxRepository;
+    private final CardService cardService;
+    private final BalanceEngine balanceEngine;
+    private final CryptoService cryptoService;
+    private final TransactionTemplate tx;
+    private final int workers;
+    private final long pollIntervalMs;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration retention;
+    private final Duration lease;
+    private final Semaphore signal = new Semaphore(0);
+    private final List<Thread> threads = new ArrayList<>();
+
+    public TransferOutboxWorker(TransferOutboxRepository outboxRepository,
+                                CardService cardService,
+                                BalanceEngine balanceEngine,
+                                CryptoService cryptoService,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${card.transfer.async.workers:2}") int workers,
+                                @Value("${card.transfer.async.poll-interval-ms:200}") long pollIntervalMs,
+                                @Value("${card.transfer.async.max-attempts:5}") int maxAttempts,
+                                @Value("${card.transfer.async.retry-backoff:1s}") Duration retryBackoff,
+                                @Value("${card.transfer.async.retention:7d}") Duration retention,
+                                @Value("${card.transfer.async.lease:1m}") Duration lease) {
+        this.outboxRepository = outboxRepository;
+        this.cardService = cardService;
+        this.balanceEngine = balanceEngine;
+        this.cryptoService = cryptoService;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.workers = workers;
+        this.pollIntervalMs = pollIntervalMs;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.retention = retention;
+        this.lease = lease;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::run, "transfer-outbox-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        log.info("Запущено воркеров transfer_outbox: {}", workers);
+    }
+
+    public void wakeUp() {
+        signal.release();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (!processNext()) {
+                    signal.tryAcquire(pollIntervalMs, TimeUnit.MILLISECONDS);
+                    signal.drainPermits();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.error("Ошибка воркера transfer_outbox: {}", e.getMessage());
+                sleepQuietly(pollIntervalMs);
+            }
+        }
+    }
+
+    /**
+     * @return true, если строка была взята (успешно или нет), false — очередь пуста
+     */
+    boolean processNext() {
+        if (balanceEngine.isEnabled()) {
+            return processNextViaEngine();
+        }
+        TransferOutbox[] claimed = {null};
+        int[] attempt = {0};
+        try {
+            Boolean found = tx.execute(status -> {
+                Optional<TransferOutbox> next = outboxRepository.claimNext(LocalDateTime.now());
+                if (next.isEmpty()) {
+                    return false;
+                }
+                TransferOutbox row = next.get();
+                claimed[0] = row;
+                attempt[0] = row.getAttempts() + 1;
+
+                String from = cryptoService.decrypt(row.getCardNumberFromEncrypted(), row.getKeyVersion());
+                String to = cryptoService.decrypt(row.getCardNumberToEncrypted(), row.getKeyVersion());
+                cardService.transferBetweenUserCards(row.getUserId(), from, to, row.getAmount());
+
+                row.setStatus(TransferOutboxStatus.COMPLETED);
+                row.setAttempts(attempt[0]);
+                row.setErrorMessage(null);
+                row.setUpdatedAt(LocalDateTime.now());
+                return true;
+            });
+            if (Boolean.TRUE.equals(found)) {
+                log.info("Перевод из очереди выполнен: id = {}", claimed[0].getId());
+            }
+            return Boolean.TRUE.equals(found);
+        } catch (RuntimeException e) {
+            if (claimed[0] == null) {
+                throw e;
+            }
+            recordFailure(claimed[0].getId(), attempt[0], e);
+            return true;
+        }
+    }
+
+    private boolean processNextViaEngine() {
+        TransferOutbox row = tx.execute(status -> {
+            Optional<TransferOutbox> next = outboxRepository.claimNext(LocalDateTime.now());
+            next.ifPresent(claimed -> {
+                LocalDateTime now = LocalDateTime.now();
+                claimed.setAttempts(claimed.getAttempts() + 1);
+                claimed.setAvailableAt(now.plus(lease));
+                claimed.setUpdatedAt(now);
+            });
+            return next.orElse(null);
+        });
+        if (row == null) {
+            return false;
+        }
+
+        try {
+            String from = cryptoService.decrypt(row.getCardNumberFromEncrypted(), row.getKeyVersion());
+            String to = cryptoService.decrypt(row.getCardNumberToEncrypted(), row.getKeyVersion());
+            // После первой попытки движок мог уже применить перевод, ответ на который потерян
+            balanceEngine.transfer(row.getUserId(), from, to, row.getAmount(), "outbox:" + row.getId(),
+                    row.getAttempts() > 1);
+            tx.executeWithoutResult(status -> outboxRepository.complete(row.getId(), LocalDateTime.now()));
+        } catch (RuntimeException e) {
+            recordFailure(row.getId(), row.getAttempts(), e);
+            return true;
+        }
+        log.info("Перевод из очереди выполнен: id = {}", row.getId());
+        return true;
+    }
+
+    private void recordFailure(UUID id, int attempt, RuntimeException e) {
+        boolean permanent = isBusinessFailure(e) || attempt >= maxAttempts;
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime availableAt = permanent
+                ? now
+                : now.plus(retryBackoff.multipliedBy(1L << Math.min(attempt - 1, 16)));
+        String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        if (message.length() > MESSAGE_LIMIT) {
+            message = message.substring(0, MESSAGE_LIMIT);
+        }
+        String finalMessage = message;
+
+        tx.executeWithoutResult(status -> outboxRepository.recordFailure(id,
+                (permanent ? TransferOutboxStatus.FAILED : TransferOutboxStatus.PENDING).name(),
+                finalMessage, attempt, availableAt, now));
+
+        if (permanent) {
+            log.info("Перевод из очереди отклонён: id = {}; причина: {}", id, finalMessage);
+        } else {
+            log.warn("Перевод из очереди будет повторён: id = {}; попытка {}; причина: {}", id, attempt, finalMessage);
+        }
+    }
+
+    private static boolean isBusinessFailure(RuntimeException e) {
+        return e instanceof TransferException
+                || e instanceof DailyLimitExceededException
+                || e instanceof CardNotFoundException
+                || e instanceof UserNotFoundCustomException
+                || e instanceof NotVerifyException;
+    }
+
+    @Scheduled(cron = "${card.transfer.async.purge-cron:0 15 4 * * *}")
+    public void purgeFinished() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+        int total = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted = tx.execute(status -> outboxRepository.deleteFinishedBefore(cutoff, 1000));
+            if (deleted == null || deleted == 0) {
+                break;
+            }
+            total += deleted;
+        }
+        if (total > 0) {
+            log.info("Удалено завершённых переводов из transfer_outbox: {}", total);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
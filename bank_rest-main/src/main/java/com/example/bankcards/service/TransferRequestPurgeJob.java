@@ -0,0 +1,75 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.repository.CardEngineRequestRepository;
+import com.example.bankcards.repository.TransferRequestRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.ToIntFunction;
+
+/**
+ * Удаляет ключи идемпотентности старше card.transfer.idempotency.retention и ключи движка балансов
+ * старше card.transfer.engine.request-retention порциями, каждая порция — отдельная короткая транзакция.
+ */
+@Service
+@Slf4j
+public class TransferRequestPurgeJob {
+    private final TransferRequestRepository requestRepository;
+    private final CardEngineRequestRepository engineRequestRepository;
+    private final TransactionTemplate tx;
+    private final Duration retention;
+    private final Duration engineRetention;
+    private final int batchSize;
+
+    public TransferRequestPurgeJob(TransferRequestRepository requestRepository,
+                                   CardEngineRequestRepository engineRequestRepository,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${card.transfer.idempotency.retention:24h}") Duration retention,
+                                   @Value("${card.transfer.engine.request-retention:7d}") Duration engineRetention,
+                                   @Value("${card.transfer.idempotency.purge-batch-size:1000}") int batchSize) {
+        this.requestRepository = requestRepository;
+        this.engineRequestRepository = engineRequestRepository;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.tx.setTimeout(10);
+        this.retention = retention;
+        this.engineRetention = engineRetention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${card.transfer.idempotency.purge-delay-ms:600000}")
+    public void purge() {
+        LocalDateTime now = LocalDateTime.now();
+        int total = purge(cutoff -> requestRepository.deleteOlderThan(cutoff, batchSize), now.minus(retention));
+        if (total > 0) {
+            log.info("Удалено устаревших ключей идемпотентности: {}", total);
+        }
+
+        int engineTotal = purge(cutoff -> engineRequestRepository.deleteOlderThan(cutoff, batchSize),
+                now.minus(engineRetention));
+        if (engineTotal > 0) {
+            log.info("Удалено устаревших ключей движка балансов: {}", engineTotal);
+        }
+    }
+
+    private int purge(ToIntFunction<LocalDateTime> delete, LocalDateTime cutoff) {
+        int total = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            Integer deleted = tx.execute(status -> delete.applyAsInt(cutoff));
+            if (deleted == null || deleted == 0) {
+                break;
+            }
+            total += deleted;
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.bankcards.service;
+
+/**
+ * Способ применения перевода к балансам карт (card.transfer.strategy).
+ */
+public enum TransferStrategy {
+    /**
+     * Поиск обеих карт, затем SELECT ... FOR UPDATE в порядке id и два save.
+     */
+    PESSIMISTIC,
+
+    /**
+     * Поиск обеих карт одним запросом и два условных UPDATE ... RETURNING в порядке id:
+     * списание проходит только при статусе ACTIVE и достаточном балансе.
+     */
+    CONDITIONAL,
+
+    /**
+     * Проводки в card_ledger: карта списания блокируется для проверки баланса (снимок + проводки),
+     * зачисление — вставка без блокировки. cards.balance догоняет журнал через CardLedgerCompactionJob.
+     * Перед переключением с LEDGER на другую стратегию журнал должен быть свёрнут.
+     */
+    LEDGER,
+
+    /**
+     * Чтение баланса с версией и UPDATE ... WHERE version = :version без SELECT ... FOR UPDATE;
+     * при конфликте — повтор с jitter-паузой (card.transfer.optimistic.*).
+     */
+    OPTIMISTIC,
+
+    /**
+     * OPTIMISTIC, пока доля конфликтов по обеим картам ниже card.transfer.adaptive.conflict-threshold,
+     * иначе — блокировки строк в порядке id.
+     */
+    ADAPTIVE
+}
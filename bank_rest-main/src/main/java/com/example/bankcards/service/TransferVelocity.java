@@ -0,0 +1,379 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.entity.Money;
+import com.example.bankcards.exception.TransferVelocityException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Проверка частоты переводов в памяти, до очереди пользователя и до открытия транзакции.
+ * <p>
+ * Правила card.transfer.velocity.rules — через запятую, в виде scope:metric:limit/window:action,
+ * например {@code card:count:10/10s:reject, user:amount:500000/1h:flag}:
+ * scope — card (карта списания) или user, metric — count (число переводов) или amount (сумма),
+ * action — reject (429) или flag (только метрика и предупреждение в лог).
+ * <p>
+ * Окно скользит корзинами: на ключ приходится по card.transfer.velocity.buckets слотов на правило
+ * в одном AtomicLongArray; слот хранит номер корзины и счётчик в одном long и обновляется CAS,
+ * без блокировок. Перевод сначала прибавляется к окну и только потом сверяется с лимитом, поэтому
+ * параллельные проверки не проходят вместе сверх лимита. Ключи живут в Caffeine с ограничением card.transfer.velocity.max-keys
+ * и вытесняются после простоя дольше самого длинного окна.
+ */
+@Component
+@Slf4j
+public class TransferVelocity {
+    static final int EPOCH_BITS = 28;
+    static final int VALUE_BITS = Long.SIZE - EPOCH_BITS;
+    static final long EPOCH_MASK = (1L << EPOCH_BITS) - 1;
+    static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+
+    // Корзина не короче 1 мс: номер корзины в 28 битах повторяется не раньше чем через ~74 часа
+    private static final long MIN_BUCKET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    enum Scope { CARD, USER }
+
+    enum Action { FLAG, REJECT }
+
+    record Rule(String name, Scope scope, boolean amount, long limit, long bucketNanos,
+                Duration window, Action action, Counter hits) {
+    }
+
+    /**
+     * Учтённый в окнах перевод; {@link #refund} убирает его, если перевод так и не выполнен.
+     */
+    public static final class Charge {
+        static final Charge NONE = new Charge(null, null, 0, 0);
+
+        private final AtomicLongArray card;
+        private final AtomicLongArray user;
+        private final long now;
+        private final long cents;
+
+        private Charge(AtomicLongArray card, AtomicLongArray user, long now, long cents) {
+            this.card = card;
+            this.user = user;
+            this.now = now;
+            this.cents = cents;
+        }
+    }
+
+    private final boolean enabled;
+    private final int buckets;
+    private final Rule[] cardRules;
+    private final Rule[] userRules;
+    private final Cache<Long, AtomicLongArray> cards;
+    private final Cache<Long, AtomicLongArray> users;
+    private final Function<Long, AtomicLongArray> newCardSlots;
+    private final Function<Long, AtomicLongArray> newUserSlots;
+    private final LongSupplier clock;
+    private final long origin;
+    // Номер карты в памяти не держим: ключ — хэш с солью процесса
+    private final long salt = new SecureRandom().nextLong();
+
+    @Autowired
+    public TransferVelocity(MeterRegistry meterRegistry,
+                            @Value("${card.transfer.velocity.enabled:true}") boolean enabled,
+                            @Value("${card.transfer.velocity.rules:}") String rules,
+                            @Value("${card.transfer.velocity.buckets:10}") int buckets,
+                            @Value("${card.transfer.velocity.max-keys:100000}") long maxKeys) {
+        this(meterRegistry, enabled, rules, buckets, maxKeys, System::nanoTime);
+    }
+
+    TransferVelocity(MeterRegistry meterRegistry, boolean enabled, String rules,
+                     int buckets, long maxKeys, LongSupplier clock) {
+        this.enabled = enabled;
+        this.buckets = Math.max(1, Math.min(buckets, 1000));
+        this.clock = clock;
+        this.origin = clock.getAsLong();
+
+        List<Rule> parsed = parse(rules, this.buckets, meterRegistry);
+        this.cardRules = parsed.stream().filter(r -> r.scope() == Scope.CARD).toArray(Rule[]::new);
+        this.userRules = parsed.stream().filter(r -> r.scope() == Scope.USER).toArray(Rule[]::new);
+        if (cardRules.length > Long.SIZE || userRules.length > Long.SIZE) {
+            throw new IllegalArgumentException("Слишком много правил card.transfer.velocity.rules: не больше "
+                    + Long.SIZE + " на карту и на пользователя");
+        }
+
+        int cardSlots = cardRules.length * this.buckets;
+        int userSlots = userRules.length * this.buckets;
+        this.newCardSlots = key -> new AtomicLongArray(cardSlots);
+        this.newUserSlots = key -> new AtomicLongArray(userSlots);
+        this.cards = slots(cardRules, maxKeys);
+        this.users = slots(userRules, maxKeys);
+
+        if (cards != null) {
+            Gauge.builder("card.transfer.velocity.keys", cards, Cache::estimatedSize)
+                    .tag("scope", "card")
+                    .register(meterRegistry);
+        }
+        if (users != null) {
+            Gauge.builder("card.transfer.velocity.keys", users, Cache::estimatedSize)
+                    .tag("scope", "user")
+                    .register(meterRegistry);
+        }
+        if (enabled && !parsed.isEmpty()) {
+            log.info("Правила частоты переводов: {}", parsed.stream().map(Rule::name).toList());
+        }
+    }
+
+    /**
+     * Бросает TransferVelocityException, если перевод нарушает правило reject; перевод, прошедший проверку,
+     * учитывается во всех окнах сразу — считаются попытки, а не только успешные списания.
+     */
+    public void check(Long userId, String cardNumberFrom, BigDecimal amount) {
+        charge(userId, cardNumberFrom, amount);
+    }
+
+    /**
+     * То же, что {@link #check}, но учтённый перевод можно вернуть через {@link #refund}.
+     */
+    public Charge charge(Long userId, String cardNumberFrom, BigDecimal amount) {
+        if (!enabled || amount == null || amount.signum() <= 0) {
+            return Charge.NONE;
+        }
+        long cents;
+        try {
+            cents = Money.of(amount).minor();
+        } catch (ArithmeticException e) {
+            // Такую сумму отклонит CardService
+            return Charge.NONE;
+        }
+
+        long now = clock.getAsLong() - origin;
+        AtomicLongArray card = cards == null || cardNumberFrom == null
+                ? null : cards.get(cardKey(cardNumberFrom), newCardSlots);
+        AtomicLongArray user = users == null || userId == null
+                ? null : users.get(userId, newUserSlots);
+
+        long flaggedCard = card == null ? 0 : addAndCheck(cardRules, card, now, cents);
+        long flaggedUser;
+        try {
+            flaggedUser = user == null ? 0 : addAndCheck(userRules, user, now, cents);
+        } catch (TransferVelocityException e) {
+            takeBack(cardRules, card, now, cents, cardRules.length);
+            throw e;
+        }
+
+        report(cardRules, flaggedCard, userId);
+        report(userRules, flaggedUser, userId);
+        return new Charge(card, user, now, cents);
+    }
+
+    public void refund(Charge charge) {
+        if (charge == Charge.NONE) {
+            return;
+        }
+        takeBack(cardRules, charge.card, charge.now, charge.cents, cardRules.length);
+        takeBack(userRules, charge.user, charge.now, charge.cents, userRules.length);
+    }
+
+    /**
+     * Прибавляет перевод к окну каждого правила и сверяет с лимитом итог вместе с ним. При превышении
+     * правила reject прибавки этого ключа забираются обратно и бросается исключение: две проверки у самой
+     * границы могут получить отказ обе, но пройти вместе сверх лимита не могут.
+     *
+     * @return битовая маска превышенных правил flag
+     */
+    private long addAndCheck(Rule[] rules, AtomicLongArray slots, long now, long cents) {
+        long flagged = 0;
+        for (int r = 0; r < rules.length; r++) {
+            Rule rule = rules[r];
+            long epoch = now / rule.bucketNanos();
+            add(slots, r * buckets, epoch, rule.amount() ? cents : 1);
+            if (sum(slots, r * buckets, epoch) <= rule.limit()) {
+                continue;
+            }
+            if (rule.action() == Action.REJECT) {
+                takeBack(rules, slots, now, cents, r + 1);
+                // В лог отказ пишет GlobalExceptionHandler, здесь только метрика
+                rule.hits().increment();
+                throw new TransferVelocityException("Слишком много переводов за короткое время, повторите позже");
+            }
+            flagged |= 1L << r;
+        }
+        return flagged;
+    }
+
+    /**
+     * Забирает прибавки первых count правил.
+     */
+    private void takeBack(Rule[] rules, AtomicLongArray slots, long now, long cents, int count) {
+        if (slots == null) {
+            return;
+        }
+        for (int r = 0; r < count; r++) {
+            Rule rule = rules[r];
+            subtract(slots, r * buckets, now / rule.bucketNanos(), rule.amount() ? cents : 1);
+        }
+    }
+
+    private void report(Rule[] rules, long flagged, Long userId) {
+        for (int r = 0; flagged != 0 && r < rules.length; r++) {
+            if ((flagged & (1L << r)) != 0) {
+                rules[r].hits().increment();
+                log.warn("Подозрительная частота переводов пользователя id = {}: правило {}", userId, rules[r].name());
+            }
+        }
+    }
+
+    /**
+     * Сумма корзин окна: текущая и buckets - 1 предыдущих. Устаревшие слоты отсекаются по номеру корзины,
+     * поэтому окно чистить не нужно.
+     */
+    private long sum(AtomicLongArray slots, int base, long epoch) {
+        long current = epoch & EPOCH_MASK;
+        long total = 0;
+        for (int i = 0; i < buckets; i++) {
+            long slot = slots.get(base + i);
+            if (((current - (slot >>> VALUE_BITS)) & EPOCH_MASK) < buckets) {
+                total += slot & VALUE_MASK;
+            }
+        }
+        return total;
+    }
+
+    private void add(AtomicLongArray slots, int base, long epoch, long delta) {
+        int index = base + (int) (epoch % buckets);
+        long stamp = (epoch & EPOCH_MASK) << VALUE_BITS;
+        while (true) {
+            long slot = slots.get(index);
+            // Слот прошлого круга обнуляется тем же CAS, которым увеличивается
+            long value = (slot & ~VALUE_MASK) == stamp ? slot & VALUE_MASK : 0;
+            long next = stamp | Math.min(VALUE_MASK, value + delta);
+            if (slot == next || slots.compareAndSet(index, slot, next)) {
+                return;
+            }
+        }
+    }
+
+    private void subtract(AtomicLongArray slots, int base, long epoch, long delta) {
+        int index = base + (int) (epoch % buckets);
+        long stamp = (epoch & EPOCH_MASK) << VALUE_BITS;
+        while (true) {
+            long slot = slots.get(index);
+            // Корзина уже сменилась: прибавка ушла вместе со старым кругом
+            if ((slot & ~VALUE_MASK) != stamp) {
+                return;
+            }
+            long next = stamp | Math.max(0, (slot & VALUE_MASK) - delta);
+            if (slot == next || slots.compareAndSet(index, slot, next)) {
+                return;
+            }
+        }
+    }
+
+    long cardKey(String cardNumber) {
+        long h = salt;
+        for (int i = 0; i < cardNumber.length(); i++) {
+            h = (h ^ cardNumber.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    long trackedKeys() {
+        long total = 0;
+        if (cards != null) {
+            cards.cleanUp();
+            total += cards.estimatedSize();
+        }
+        if (users != null) {
+            users.cleanUp();
+            total += users.estimatedSize();
+        }
+        return total;
+    }
+
+    private Cache<Long, AtomicLongArray> slots(Rule[] rules, long maxKeys) {
+        if (!enabled || rules.length == 0) {
+            return null;
+        }
+        Duration longest = Duration.ZERO;
+        for (Rule rule : rules) {
+            if (rule.window().compareTo(longest) > 0) {
+                longest = rule.window();
+            }
+        }
+        return Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxKeys))
+                .expireAfterAccess(longest)
+                .ticker(clock::getAsLong)
+                .build();
+    }
+
+    static List<Rule> parse(String rules, int buckets, MeterRegistry meterRegistry) {
+        List<Rule> parsed = new ArrayList<>();
+        if (rules == null || rules.isBlank()) {
+            return parsed;
+        }
+        for (String spec : rules.split(",")) {
+            spec = spec.trim();
+            if (!spec.isEmpty()) {
+                parsed.add(parseRule(spec, buckets, meterRegistry));
+            }
+        }
+        return parsed;
+    }
+
+    private static Rule parseRule(String spec, int buckets, MeterRegistry meterRegistry) {
+        try {
+            String[] parts = spec.split(":");
+            String[] limitWindow = parts.length == 4 ? parts[2].split("/") : new String[0];
+            if (limitWindow.length != 2) {
+                throw new IllegalArgumentException("ожидается scope:metric:limit/window:action");
+            }
+
+            Scope scope = Scope.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+            boolean amount = switch (parts[1].trim().toLowerCase(Locale.ROOT)) {
+                case "count" -> false;
+                case "amount" -> true;
+                default -> throw new IllegalArgumentException("metric — count или amount");
+            };
+            long limit = amount
+                    ? Money.of(limitWindow[0].trim()).minor()
+                    : Long.parseLong(limitWindow[0].trim());
+            Duration window = DurationStyle.detectAndParse(limitWindow[1].trim());
+            Action action = Action.valueOf(parts[3].trim().toUpperCase(Locale.ROOT));
+
+            if (limit <= 0) {
+                throw new IllegalArgumentException("лимит должен быть положительным");
+            }
+            long bucketNanos = window.toNanos() / buckets;
+            if (bucketNanos < MIN_BUCKET_NANOS) {
+                throw new IllegalArgumentException("окно должно быть не короче " + buckets + " мс");
+            }
+
+            String name = parts[0].trim() + ":" + parts[1].trim() + ":" + parts[2].trim();
+            String meter = action == Action.REJECT
+                    ? "card.transfer.velocity.rejected"
+                    : "card.transfer.velocity.flagged";
+            Counter hits = meterRegistry.counter(meter, "rule", name);
+            return new Rule(name, scope, amount, limit, bucketNanos, window, action, hits);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new IllegalArgumentException("Некорректное правило card.transfer.velocity.rules '"
+                    + spec + "': " + e.getMessage(), e);
+        }
+    }
+}
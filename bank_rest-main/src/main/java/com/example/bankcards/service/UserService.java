@@ -8,6 +8,8 @@ import com.example.bankcards.exception.PasswordIsShortException;
 import com.example.bankcards.exception.UserNameNotFreeException;
 import com.example.bankcards.exception.UserNotFoundCustomException;
 import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.security.CustomUserDetailsService;
+import com.example.bankcards.security.TokenVersionRegistry;
 import com.example.bankcards.util.UserMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -32,6 +34,8 @@ public class UserService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final UserMapper userMapper;
+    private final TokenVersionRegistry tokenVersions;
+    private final CustomUserDetailsService userDetailsService;
 
     @Transactional
     public UserResponseDto create(UserRequestDto dto) {
@@ -96,7 +100,10 @@ public class UserService {
             user.setUsername(dto.getUsername());
         }
 
+        user.setTokenVersion(user.getTokenVersion() + 1);
         User saved = userRepository.save(user);
+        tokenVersions.publishAfterCommit(saved.getId(), saved.getTokenVersion(), saved.isEnabled());
+        userDetailsService.evict(saved.getId());
         log.info("Пользователь с id = {} изменён: {} -> {}", id, oldUsername, saved.getUsername());
         return userMapper.toDto(saved);
     }
@@ -110,8 +117,11 @@ public class UserService {
                 });
 
         user.setEnabled(false);
+        user.setTokenVersion(user.getTokenVersion() + 1);
 
         User save = userRepository.save(user);
+        tokenVersions.publishAfterCommit(save.getId(), save.getTokenVersion(), save.isEnabled());
+        userDetailsService.evict(save.getId());
 
         log.info("Пользователь заблокирован: id = {}", save.getId());
 
@@ -142,8 +152,11 @@ public class UserService {
         }
 
         user.setRoles(roles);
+        user.setTokenVersion(user.getTokenVersion() + 1);
 
         User save = userRepository.save(user);
+        tokenVersions.publishAfterCommit(save.getId(), save.getTokenVersion(), save.isEnabled());
+        userDetailsService.evict(save.getId());
 
         log.info("Новые роли пользователя: {}", save.getRoles());
 
@@ -157,6 +170,8 @@ public class UserService {
             throw new UserNotFoundCustomException("Пользователь не найден: " + id);
         }
         userRepository.deleteById(id);
+        tokenVersions.revokeAfterCommit(id);
+        userDetailsService.evict(id);
         log.info("Пользователь с id = {} удалён", id);
     }
 
@@ -1,6 +1,7 @@
 package com.example.bankcards.util;
 
 import com.example.bankcards.security.CustomUserDetails;
+import com.example.bankcards.security.JwtPrincipal;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
@@ -18,6 +19,10 @@ public final class AuthUtils {
 
         Object principal = auth.getPrincipal();
 
+        if (principal instanceof JwtPrincipal jwtPrincipal) {
+            return jwtPrincipal.userId();
+        }
+
         if (principal instanceof CustomUserDetails userDetails) {
             return userDetails.getUser().getId();
         }
@@ -28,6 +33,9 @@ public final class AuthUtils {
     public static String currentUsername() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
 
+        if (auth != null && auth.getPrincipal() instanceof JwtPrincipal jwtPrincipal) {
+            return jwtPrincipal.username();
+        }
         if (auth != null && auth.getPrincipal() instanceof CustomUserDetails userDetails) {
             return userDetails.getUsername();
         }
@@ -0,0 +1,80 @@
+package com.example.bankcards.util;
+
+import com.example.bankcards.entity.Card;
+import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.service.CryptoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Заполняет производные от номера колонки (card_last4, card_number_hash) для карт,
+ * созданных до их появления. Расшифровка возможна только в приложении, поэтому changeset
+ * добавляет колонки, а данные дозаполняются здесь короткими транзакциями по batchSize строк.
+ */
+@Component
+@Slf4j
+public class CardColumnsBackfill implements ApplicationRunner {
+    private final CardRepository cardRepository;
+    private final CryptoService cryptoService;
+    private final TransactionTemplate tx;
+    private final int batchSize;
+
+    public CardColumnsBackfill(CardRepository cardRepository,
+                             CryptoService cryptoService,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${card.backfill.batch-size:500}") int batchSize) {
+        this.cardRepository = cardRepository;
+        this.cryptoService = cryptoService;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long afterId = 0L;
+        int[] total = {0};
+
+        while (true) {
+            final long from = afterId;
+            Long lastId = tx.execute(status -> {
+                List<Card> batch = cardRepository.findNeedingBackfillAfter(from, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                Map<Integer, List<Card>> byKeyVersion = batch.stream()
+                        .collect(Collectors.groupingBy(Card::getKeyVersion));
+                byKeyVersion.forEach((keyVersion, cards) -> {
+                    List<String> plain = cryptoService.decryptAll(
+                            cards.stream().map(Card::getCardNumberEncrypted).toList(), keyVersion);
+                    for (int i = 0; i < cards.size(); i++) {
+                        Card card = cards.get(i);
+                        card.setCardLast4(CardMapper.lastFour(plain.get(i)));
+                        card.setCardNumberHash(cryptoService.blindIndex(plain.get(i)));
+                    }
+                });
+                cardRepository.saveAll(batch);
+                total[0] += batch.size();
+                return batch.get(batch.size() - 1).getId();
+            });
+
+            if (lastId == null) {
+                break;
+            }
+            afterId = lastId;
+        }
+
+        if (total[0] > 0) {
+            log.info("Дозаполнены card_last4/card_number_hash: {} карт", total[0]);
+        }
+    }
+}
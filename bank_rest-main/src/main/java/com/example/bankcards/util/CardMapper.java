@@ -2,23 +2,42 @@ package com.example.bankcards.util;
 
 import com.example.bankcards.dto.CardResponseDto;
 import com.example.bankcards.entity.Card;
-import com.example.bankcards.service.CryptoService;
-import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
-@RequiredArgsConstructor
 public class CardMapper {
-    private final CryptoService cryptoService;
 
     public CardResponseDto toDto(Card card){
         return CardResponseDto.builder()
                 .id(card.getId())
                 .userId(card.getUser().getId())
-                .balance(card.getBalance())
+                .balance(card.getAvailableBalance())
+                .dailyLimit(card.getDailyLimit())
                 .status(card.getStatus())
                 .expiryDate(card.getExpiryDate())
-                .maskedNumber(cryptoService.getMaskedNumber(card.getCardNumberEncrypted()))
+                .maskedNumber(mask(card.getCardLast4()))
                 .build();
     }
+
+    public List<CardResponseDto> toDtos(List<Card> cards) {
+        return cards.stream()
+                .map(this::toDto)
+                .toList();
+    }
+
+    public static String mask(String last4) {
+        if (last4 == null || last4.length() < 4) {
+            return "****";
+        }
+        return "**** **** **** " + last4;
+    }
+
+    public static String lastFour(String cardNumber) {
+        if (cardNumber == null || cardNumber.length() < 4) {
+            return null;
+        }
+        return cardNumber.substring(cardNumber.length() - 4);
+    }
 }
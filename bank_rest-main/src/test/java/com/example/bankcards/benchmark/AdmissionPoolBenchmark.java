@@ -0,0 +1,191 @@
+package com.example.bankcards.benchmark;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 64 потока переводят между картами 4 пользователей через пул Hikari на 16 соединений:
+ * без очереди пользователя (каждый запрос сразу берёт соединение и ждёт блокировку строки)
+ * против семафора на пользователя до взятия соединения (как TransferAdmission).
+ * <p>
+ * Вспомогательный счётчик poolWaits — запросы, ждавшие соединение дольше 1 мс.
+ * В конце каждой итерации печатается занятость пула: среднее и пик активных соединений
+ * и среднее число потоков в очереди пула.
+ * <p>
+ * Подключение: DB_URL / DB_USER / DB_PASS, как у TransferSqlBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(64)
+public class AdmissionPoolBenchmark {
+
+    static final int POOL_SIZE = 16;
+    static final int USERS = 4;
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    static final long SLOW_BORROW_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Param({"false", "true"})
+    public boolean admission;
+
+    HikariDataSource dataSource;
+    Semaphore[] userStripes;
+
+    Thread sampler;
+    volatile boolean sampling;
+    long samples;
+    long activeSum;
+    long activePeak;
+    long awaitingSum;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(TransferSqlBenchmark.URL);
+        config.setUsername(TransferSqlBenchmark.USER);
+        config.setPassword(TransferSqlBenchmark.PASS);
+        config.setMaximumPoolSize(POOL_SIZE);
+        config.setMinimumIdle(POOL_SIZE);
+        config.setAutoCommit(false);
+        config.setConnectionTimeout(30_000);
+        dataSource = new HikariDataSource(config);
+
+        try (Connection c = dataSource.getConnection(); Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS bench_admission_cards");
+            st.execute("""
+                    CREATE TABLE bench_admission_cards (
+                        id BIGINT PRIMARY KEY,
+                        user_id BIGINT NOT NULL,
+                        balance NUMERIC(15, 2) NOT NULL)""");
+            for (int user = 0; user < USERS; user++) {
+                st.execute("INSERT INTO bench_admission_cards VALUES (" + (user * 2) + ", " + user + ", 1000000000), ("
+                        + (user * 2 + 1) + ", " + user + ", 1000000000)");
+            }
+            c.commit();
+        }
+
+        userStripes = new Semaphore[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userStripes[i] = new Semaphore(1, true);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startSampling() {
+        samples = 0;
+        activeSum = 0;
+        activePeak = 0;
+        awaitingSum = 0;
+        sampling = true;
+
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        sampler = new Thread(() -> {
+            while (sampling) {
+                int active = pool.getActiveConnections();
+                samples++;
+                activeSum += active;
+                activePeak = Math.max(activePeak, active);
+                awaitingSum += pool.getThreadsAwaitingConnection();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "pool-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopSampling() throws InterruptedException {
+        sampling = false;
+        sampler.join();
+        if (samples > 0) {
+            System.out.printf("%n[admission=%s] active connections: mean %.1f, peak %d of %d; awaiting pool: mean %.1f%n",
+                    admission, (double) activeSum / samples, activePeak, POOL_SIZE, (double) awaitingSum / samples);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long poolWaits;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            poolWaits = 0;
+        }
+    }
+
+    @Benchmark
+    public void transfer(Counters counters) throws SQLException, InterruptedException {
+        int user = ThreadLocalRandom.current().nextInt(USERS);
+        if (!admission) {
+            transfer(user, counters);
+            return;
+        }
+
+        Semaphore stripe = userStripes[user];
+        stripe.acquire();
+        try {
+            transfer(user, counters);
+        } finally {
+            stripe.release();
+        }
+    }
+
+    private void transfer(int user, Counters counters) throws SQLException {
+        long started = System.nanoTime();
+        try (Connection c = dataSource.getConnection()) {
+            if (System.nanoTime() - started > SLOW_BORROW_NANOS) {
+                counters.poolWaits++;
+            }
+            // Тот же порядок, что у условного перевода: списание и зачисление в порядке id
+            try (PreparedStatement debit = c.prepareStatement(
+                    "UPDATE bench_admission_cards SET balance = balance - ? WHERE id = ? AND balance >= ?");
+                 PreparedStatement credit = c.prepareStatement(
+                         "UPDATE bench_admission_cards SET balance = balance + ? WHERE id = ?")) {
+                debit.setBigDecimal(1, AMOUNT);
+                debit.setLong(2, user * 2L);
+                debit.setBigDecimal(3, AMOUNT);
+                debit.executeUpdate();
+
+                credit.setBigDecimal(1, AMOUNT);
+                credit.setLong(2, user * 2L + 1);
+                credit.executeUpdate();
+            }
+            c.commit();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AdmissionPoolBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
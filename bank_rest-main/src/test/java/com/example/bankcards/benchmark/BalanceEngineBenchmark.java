@@ -0,0 +1,139 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.repository.CardEngineView;
+import com.example.bankcards.service.BalanceEnginePartition;
+import com.example.bankcards.service.TransferJournal;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Пропускная способность партиций BalanceEngine без БД: 32 потока, у каждого свой пользователь с двумя картами,
+ * переводы туда-обратно с ожиданием подтверждения (fsync журнала на пачку).
+ * Запись в БД заменена заглушкой, поэтому score / partitions — переводов в секунду на одну партицию.
+ * Журнал пишется во временный каталог (BENCH_JOURNAL_DIR, по умолчанию java.io.tmpdir).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(32)
+public class BalanceEngineBenchmark {
+
+    static final long AMOUNT_CENTS = 1;
+
+    @Param({"1", "2", "4"})
+    public int partitions;
+
+    Path dir;
+    ExecutorService flushExecutor;
+    BalanceEnginePartition[] engine;
+    final AtomicLong users = new AtomicLong();
+
+    record Card(Long getId, String getCardNumberHash, String getStatus, BigDecimal getBalance,
+                BigDecimal getDailyLimit, BigDecimal getSpentToday) implements CardEngineView {
+    }
+
+    static class NoDbStore implements BalanceEnginePartition.Store {
+        @Override
+        public List<CardEngineView> loadUser(Long userId, LocalDate day) {
+            BigDecimal balance = new BigDecimal("1000000000.00");
+            return List.of(new Card(userId * 2, "from", "ACTIVE", balance, null, BigDecimal.ZERO),
+                    new Card(userId * 2 + 1, "to", "ACTIVE", balance, null, BigDecimal.ZERO));
+        }
+
+        @Override
+        public boolean userExists(Long userId) {
+            return true;
+        }
+
+        @Override
+        public boolean isApplied(BalanceEnginePartition.RequestKey key) {
+            return false;
+        }
+
+        @Override
+        public List<CardEngineView> flush(int partition, long upToSeq, Map<Long, BigDecimal> deltas,
+                                          Map<Long, BigDecimal> spent, LocalDate day,
+                                          Collection<BalanceEnginePartition.RequestKey> keys) {
+            return List.of();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Path base = Path.of(System.getenv().getOrDefault("BENCH_JOURNAL_DIR", System.getProperty("java.io.tmpdir")));
+        dir = Files.createTempDirectory(base, "balance-engine-bench");
+        flushExecutor = Executors.newFixedThreadPool(partitions);
+        engine = new BalanceEnginePartition[partitions];
+        for (int p = 0; p < partitions; p++) {
+            engine[p] = new BalanceEnginePartition(p, new TransferJournal(dir, p, 256), new NoDbStore(), flushExecutor,
+                    1, 10_000, 256, TimeUnit.MILLISECONDS.toNanos(50), 1000, 100_000);
+            engine[p].start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        for (BalanceEnginePartition partition : engine) {
+            partition.stop();
+        }
+        flushExecutor.shutdownNow();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        long userId;
+        boolean forward;
+
+        @Setup(Level.Trial)
+        public void register(BalanceEngineBenchmark bench) {
+            userId = bench.users.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public void transfer(Client client) {
+        client.forward = !client.forward;
+        BalanceEnginePartition.Transfer command = new BalanceEnginePartition.Transfer(client.userId,
+                client.forward ? "from" : "to", client.forward ? "to" : "from", "****", "****",
+                AMOUNT_CENTS, null, false, new CompletableFuture<>());
+        BalanceEnginePartition partition = engine[(int) (client.userId % partitions)];
+        while (!partition.submit(command)) {
+            Thread.onSpinWait();
+        }
+        command.result().join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BalanceEngineBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.service.CryptoService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Аллокации на операцию (gc.alloc.rate.norm) для байтового пути {@link CryptoService}
+ * против строкового: перешифровка номера и blind index для поиска карты.
+ * Профилировщик GC подключается в main, что эквивалентно запуску с {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoAllocationBenchmark {
+
+    private static final String KEY = "base64:MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY=";
+    private static final String PAN = "4111111111111111";
+
+    private CryptoService cryptoService;
+    private String encrypted;
+    private Mac mac;
+
+    @Setup
+    public void setup() throws Exception {
+        cryptoService = new CryptoService(KEY, "AES/ECB/PKCS5Padding");
+        encrypted = cryptoService.encrypt(PAN);
+        mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+    }
+
+    @Benchmark
+    public String reencryptViaStrings() {
+        return cryptoService.encrypt(cryptoService.decrypt(encrypted));
+    }
+
+    @Benchmark
+    public String reencryptViaBytes() {
+        return cryptoService.reencrypt(encrypted, 1);
+    }
+
+    @Benchmark
+    public String blindIndexViaStrings() {
+        StringBuilder sb = new StringBuilder(PAN.length());
+        for (int i = 0; i < PAN.length(); i++) {
+            char ch = PAN.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                sb.append(ch);
+            }
+        }
+        return HexFormat.of().formatHex(mac.doFinal(sb.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    public String blindIndexViaBytes() {
+        return cryptoService.blindIndex(PAN);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CryptoAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.service.CryptoService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CryptoService#decryptAll(List)} против поштучного {@link CryptoService#decrypt(String)}
+ * для страниц 20, 200 и 2000 карт.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoBatchBenchmark {
+
+    private static final String KEY = "base64:MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY=";
+
+    @Param({"20", "200", "2000"})
+    private int pageSize;
+
+    private CryptoService cryptoService;
+    private List<String> plain;
+    private List<String> encrypted;
+
+    @Setup
+    public void setup() {
+        cryptoService = new CryptoService(KEY, "AES/ECB/PKCS5Padding");
+        plain = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            plain.add(String.format("4111%012d", i));
+        }
+        encrypted = plain.stream().map(cryptoService::encrypt).toList();
+    }
+
+    @Benchmark
+    public List<String> decryptOneByOne() {
+        List<String> out = new ArrayList<>(pageSize);
+        for (String enc : encrypted) {
+            out.add(cryptoService.decrypt(enc));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public List<String> decryptAll() {
+        return cryptoService.decryptAll(encrypted);
+    }
+
+    @Benchmark
+    public List<String> encryptOneByOne() {
+        List<String> out = new ArrayList<>(pageSize);
+        for (String p : plain) {
+            out.add(cryptoService.encrypt(p));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public List<String> encryptAll() {
+        return cryptoService.encryptAll(plain);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CryptoBatchBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.service.CryptoService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение пула Cipher в {@link CryptoService} с прежним путём
+ * "Cipher.getInstance + init на каждый вызов".
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.mainClass=com.example.bankcards.benchmark.CryptoServiceBenchmark -Dexec.classpathScope=test}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoServiceBenchmark {
+
+    private static final String KEY = "base64:MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY=";
+    private static final String TRANSFORMATION = "AES/ECB/PKCS5Padding";
+    private static final String PAN = "4111111111111111";
+
+    private CryptoService cryptoService;
+    private SecretKeySpec keySpec;
+    private String encrypted;
+
+    @Setup
+    public void setup() {
+        cryptoService = new CryptoService(KEY, TRANSFORMATION);
+        keySpec = new SecretKeySpec(Base64.getDecoder().decode(KEY.substring(7)), "AES");
+        encrypted = cryptoService.encrypt(PAN);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String encryptPooled() {
+        return cryptoService.encrypt(PAN);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String encryptPerCall() throws Exception {
+        Cipher c = Cipher.getInstance(TRANSFORMATION);
+        c.init(Cipher.ENCRYPT_MODE, keySpec);
+        return Base64.getEncoder().encodeToString(c.doFinal(PAN.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String decryptPooled() {
+        return cryptoService.decrypt(encrypted);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String decryptPerCall() throws Exception {
+        Cipher c = Cipher.getInstance(TRANSFORMATION);
+        c.init(Cipher.DECRYPT_MODE, keySpec);
+        return new String(c.doFinal(Base64.getDecoder().decode(encrypted)), StandardCharsets.US_ASCII);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CryptoServiceBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.entity.Money;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Арифметика перевода и сериализация баланса: BigDecimal против Money (long копеек).
+ * transfer_* повторяет путь CardService под блокировкой: округление суммы, проверка остатка, списание и зачисление.
+ * json_* — ответ с балансом через ObjectMapper. Аллокации смотреть с -prof gc.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MoneyBenchmark {
+
+    record BigDecimalCard(Long id, String maskedNumber, BigDecimal balance) {
+    }
+
+    record MoneyCard(Long id, String maskedNumber, Money balance) {
+    }
+
+    final ObjectMapper objectMapper = new ObjectMapper();
+
+    BigDecimal amountDecimal = new BigDecimal("0.01");
+    BigDecimal fromDecimal = new BigDecimal("1000000.00");
+    BigDecimal toDecimal = new BigDecimal("0.00");
+
+    Money amountMoney = Money.of("0.01");
+    Money fromMoney = Money.of("1000000.00");
+    Money toMoney = Money.ZERO;
+
+    BigDecimalCard decimalCard = new BigDecimalCard(42L, "**** **** **** 3333", new BigDecimal("1999.99"));
+    MoneyCard moneyCard = new MoneyCard(42L, "**** **** **** 3333", Money.of("1999.99"));
+
+    @Benchmark
+    public BigDecimal transfer_bigDecimal() {
+        BigDecimal amount = amountDecimal.setScale(2, RoundingMode.HALF_UP);
+        if (fromDecimal.compareTo(amount) < 0) {
+            // Деньги ходят туда-обратно, чтобы баланс не кончался
+            BigDecimal swap = fromDecimal;
+            fromDecimal = toDecimal;
+            toDecimal = swap;
+        }
+        fromDecimal = fromDecimal.subtract(amount);
+        toDecimal = toDecimal.add(amount);
+        return toDecimal;
+    }
+
+    @Benchmark
+    public Money transfer_money() {
+        Money amount = amountMoney;
+        if (fromMoney.isLessThan(amount)) {
+            Money swap = fromMoney;
+            fromMoney = toMoney;
+            toMoney = swap;
+        }
+        fromMoney = fromMoney.minus(amount);
+        toMoney = toMoney.plus(amount);
+        return toMoney;
+    }
+
+    @Benchmark
+    public String json_bigDecimal() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(decimalCard);
+    }
+
+    @Benchmark
+    public String json_money() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(moneyCard);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MoneyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.bankcards.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Переводы по одной и той же паре карт при 1, 8 и 64 параллельных потоках:
+ * SELECT ... FOR UPDATE в порядке id против чтения с версией и UPDATE ... WHERE version = ?
+ * с повтором и jitter-паузой (как TransferStrategy.OPTIMISTIC).
+ * Вспомогательный счётчик conflicts показывает, сколько записей не прошло проверку версии.
+ * <p>
+ * Подключение: DB_URL / DB_USER / DB_PASS, как у TransferSqlBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class OptimisticTransferBenchmark {
+
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    static final long BACKOFF_BASE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    static final long BACKOFF_MAX_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Setup(Level.Trial)
+    public void createTable() throws SQLException {
+        try (Connection c = DriverManager.getConnection(
+                TransferSqlBenchmark.URL, TransferSqlBenchmark.USER, TransferSqlBenchmark.PASS);
+             Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS bench_versioned_cards");
+            st.execute("""
+                    CREATE TABLE bench_versioned_cards (
+                        id BIGINT PRIMARY KEY,
+                        balance NUMERIC(15, 2) NOT NULL,
+                        version BIGINT NOT NULL)""");
+            st.execute("INSERT INTO bench_versioned_cards VALUES (1, 1000000000, 0), (2, 1000000000, 0)");
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Conn {
+        public long conflicts;
+
+        Connection connection;
+        PreparedStatement lock;
+        PreparedStatement write;
+        PreparedStatement read;
+        PreparedStatement cas;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(
+                    TransferSqlBenchmark.URL, TransferSqlBenchmark.USER, TransferSqlBenchmark.PASS);
+            connection.setAutoCommit(false);
+            lock = connection.prepareStatement("SELECT balance FROM bench_versioned_cards WHERE id = ? FOR UPDATE");
+            write = connection.prepareStatement(
+                    "UPDATE bench_versioned_cards SET balance = ?, version = version + 1 WHERE id = ?");
+            read = connection.prepareStatement("SELECT balance, version FROM bench_versioned_cards WHERE id = ?");
+            cas = connection.prepareStatement(
+                    "UPDATE bench_versioned_cards SET balance = ?, version = version + 1 WHERE id = ? AND version = ?");
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            conflicts = 0;
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void pessimistic_1(Conn conn) throws SQLException {
+        pessimistic(conn);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void pessimistic_8(Conn conn) throws SQLException {
+        pessimistic(conn);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void pessimistic_64(Conn conn) throws SQLException {
+        pessimistic(conn);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void optimistic_1(Conn conn) throws SQLException {
+        optimistic(conn);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void optimistic_8(Conn conn) throws SQLException {
+        optimistic(conn);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void optimistic_64(Conn conn) throws SQLException {
+        optimistic(conn);
+    }
+
+    private static void pessimistic(Conn conn) throws SQLException {
+        BigDecimal from = lock(conn, 1);
+        BigDecimal to = lock(conn, 2);
+        set(conn, 1, from.subtract(AMOUNT));
+        set(conn, 2, to.add(AMOUNT));
+        conn.connection.commit();
+    }
+
+    private static void optimistic(Conn conn) throws SQLException {
+        casWithRetry(conn, 1, AMOUNT.negate());
+        casWithRetry(conn, 2, AMOUNT);
+        conn.connection.commit();
+    }
+
+    private static void casWithRetry(Conn conn, long id, BigDecimal delta) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            BigDecimal balance;
+            long version;
+            conn.read.setLong(1, id);
+            try (ResultSet rs = conn.read.executeQuery()) {
+                rs.next();
+                balance = rs.getBigDecimal(1);
+                version = rs.getLong(2);
+            }
+            conn.cas.setBigDecimal(1, balance.add(delta));
+            conn.cas.setLong(2, id);
+            conn.cas.setLong(3, version);
+            if (conn.cas.executeUpdate() == 1) {
+                return;
+            }
+            conn.conflicts++;
+            long cap = Math.min(BACKOFF_MAX_NANOS, BACKOFF_BASE_NANOS << Math.min(attempt, 20));
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(cap + 1));
+        }
+    }
+
+    private static BigDecimal lock(Conn conn, long id) throws SQLException {
+        conn.lock.setLong(1, id);
+        try (ResultSet rs = conn.lock.executeQuery()) {
+            rs.next();
+            return rs.getBigDecimal(1);
+        }
+    }
+
+    private static void set(Conn conn, long id, BigDecimal balance) throws SQLException {
+        conn.write.setBigDecimal(1, balance);
+        conn.write.setLong(2, id);
+        conn.write.executeUpdate();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OptimisticTransferBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.bankcards.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность зачислений на одну «горячую» карту в зависимости от числа шардов баланса.
+ * 16 потоков выполняют тот же UPDATE ... FROM cards, что и CardRepository.creditShard, по случайному шарду;
+ * shards = 1 соответствует нешардированной карте (все ждут одну строку).
+ * <p>
+ * Подключение: DB_URL / DB_USER / DB_PASS, как у TransferSqlBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ShardedCreditBenchmark {
+
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1", "4", "16", "64"})
+    public int shards;
+
+    @Setup(Level.Trial)
+    public void createTables() throws SQLException {
+        try (Connection c = DriverManager.getConnection(
+                TransferSqlBenchmark.URL, TransferSqlBenchmark.USER, TransferSqlBenchmark.PASS);
+             Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS bench_card_shards");
+            st.execute("DROP TABLE IF EXISTS bench_shard_cards");
+            st.execute("""
+                    CREATE TABLE bench_shard_cards (
+                        id BIGINT PRIMARY KEY,
+                        user_id BIGINT NOT NULL,
+                        status VARCHAR(20) NOT NULL,
+                        balance NUMERIC(15, 2) NOT NULL)""");
+            st.execute("""
+                    CREATE TABLE bench_card_shards (
+                        card_id BIGINT NOT NULL,
+                        shard INTEGER NOT NULL,
+                        balance NUMERIC(15, 2) NOT NULL,
+                        PRIMARY KEY (card_id, shard))""");
+            st.execute("INSERT INTO bench_shard_cards VALUES (1, 1, 'ACTIVE', 0)");
+            st.execute("INSERT INTO bench_card_shards SELECT 1, g, 0 FROM generate_series(0, " + (shards - 1) + ") AS g");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Conn {
+        Connection connection;
+        PreparedStatement credit;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(
+                    TransferSqlBenchmark.URL, TransferSqlBenchmark.USER, TransferSqlBenchmark.PASS);
+            connection.setAutoCommit(false);
+            credit = connection.prepareStatement("""
+                    UPDATE bench_card_shards s SET balance = s.balance + ?
+                    FROM bench_shard_cards c
+                    WHERE s.card_id = 1 AND s.shard = ? AND c.id = s.card_id
+                      AND c.user_id = 1 AND c.status = 'ACTIVE'
+                    RETURNING s.balance""");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            credit.close();
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void credit(Conn conn) throws SQLException {
+        conn.credit.setBigDecimal(1, AMOUNT);
+        conn.credit.setInt(2, ThreadLocalRandom.current().nextInt(shards));
+        conn.credit.executeQuery().close();
+        conn.connection.commit();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShardedCreditBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
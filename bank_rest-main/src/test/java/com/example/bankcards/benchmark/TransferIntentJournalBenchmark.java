@@ -0,0 +1,124 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.service.TransferIntentJournal;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Журнал намерений переводов на MappedByteBuffer:
+ * append без ожидания диска, append с ожиданием группового fsync при 1, 8 и 32 потоках
+ * и полный проход сканера восстановления по 100 000 записей.
+ * Каталог — BENCH_JOURNAL_DIR или java.io.tmpdir; для честных цифр fsync нужен реальный диск, не tmpfs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TransferIntentJournalBenchmark {
+
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    static final int SCAN_RECORDS = 100_000;
+    static final byte[] HASH = new byte[32];
+
+    Path dir;
+    Path scanDir;
+    TransferIntentJournal journal;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        Path base = Path.of(System.getenv().getOrDefault("BENCH_JOURNAL_DIR", System.getProperty("java.io.tmpdir")));
+        dir = Files.createTempDirectory(base, "intent-journal-bench");
+        journal = new TransferIntentJournal(dir, SEGMENT_SIZE, 4);
+
+        scanDir = Files.createTempDirectory(base, "intent-journal-scan");
+        try (TransferIntentJournal filled = new TransferIntentJournal(scanDir, SEGMENT_SIZE, 4)) {
+            for (int i = 0; i < SCAN_RECORDS; i++) {
+                long seq = filled.appendIntent(i, 1, HASH, HASH, 100, i);
+                filled.appendOutcome(TransferIntentJournal.COMPLETE, seq, TransferIntentJournal.COMMITTED);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        journal.close();
+        delete(dir);
+        delete(scanDir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long append_1() throws IOException {
+        return append();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long append_8() throws IOException {
+        return append();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long appendDurable_1() throws IOException {
+        return appendDurable();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long appendDurable_8() throws IOException {
+        return appendDurable();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public long appendDurable_32() throws IOException {
+        return appendDurable();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @BenchmarkMode(Mode.AverageTime)
+    public void scan(Blackhole bh) throws IOException {
+        bh.consume(TransferIntentJournal.scan(scanDir, bh::consume));
+    }
+
+    private long append() throws IOException {
+        return journal.appendIntent(1, 1, HASH, HASH, 100, System.currentTimeMillis());
+    }
+
+    private long appendDurable() throws IOException {
+        long seq = append();
+        journal.awaitDurable(seq);
+        return seq;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TransferIntentJournalBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.bankcards.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение SQL-паттернов перевода на живом PostgreSQL (docker-compose, порт 5433):
+ * прежний путь с поиском и SELECT ... FOR UPDATE против двух условных UPDATE ... RETURNING.
+ * Работает на отдельной таблице bench_cards, которая пересоздаётся при старте.
+ * <p>
+ * Подключение: DB_URL / DB_USER / DB_PASS, как у приложения.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TransferSqlBenchmark {
+
+    static final String URL = System.getenv().getOrDefault("DB_URL", "jdbc:postgresql://localhost:5433/bankcards");
+    static final String USER = System.getenv().getOrDefault("DB_USER", "bankcards");
+    static final String PASS = System.getenv().getOrDefault("DB_PASS", "bankcards");
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Setup(Level.Trial)
+    public void createTable() throws SQLException {
+        try (Connection c = DriverManager.getConnection(URL, USER, PASS); Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS bench_cards");
+            st.execute("""
+                    CREATE TABLE bench_cards (
+                        id BIGINT PRIMARY KEY,
+                        user_id BIGINT NOT NULL,
+                        card_number_hash VARCHAR(64) NOT NULL UNIQUE,
+                        status VARCHAR(20) NOT NULL,
+                        balance NUMERIC(15, 2) NOT NULL)""");
+            st.execute("INSERT INTO bench_cards VALUES (1, 1, 'from', 'ACTIVE', 1000000000), (2, 1, 'to', 'ACTIVE', 1000000000)");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Conn {
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void open() throws SQLException {
+            connection = DriverManager.getConnection(URL, USER, PASS);
+            connection.setAutoCommit(false);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void lockingTransfer(Conn conn) throws SQLException {
+        Connection c = conn.connection;
+        long fromId = findId(c, "from");
+        long toId = findId(c, "to");
+        BigDecimal fromBalance = lock(c, Math.min(fromId, toId));
+        BigDecimal toBalance = lock(c, Math.max(fromId, toId));
+        setBalance(c, fromId, fromBalance.subtract(AMOUNT));
+        setBalance(c, toId, toBalance.add(AMOUNT));
+        c.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void conditionalTransfer(Conn conn) throws SQLException {
+        Connection c = conn.connection;
+        long fromId;
+        long toId;
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT id, card_number_hash FROM bench_cards WHERE card_number_hash IN ('from', 'to') AND user_id = 1")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                long a = rs.getLong(1);
+                boolean aIsFrom = "from".equals(rs.getString(2));
+                rs.next();
+                long b = rs.getLong(1);
+                fromId = aIsFrom ? a : b;
+                toId = aIsFrom ? b : a;
+            }
+        }
+        try (PreparedStatement debit = c.prepareStatement("""
+                UPDATE bench_cards SET balance = balance - ?
+                WHERE id = ? AND user_id = 1 AND status = 'ACTIVE' AND balance >= ? RETURNING balance""");
+             PreparedStatement credit = c.prepareStatement("""
+                UPDATE bench_cards SET balance = balance + ?
+                WHERE id = ? AND user_id = 1 AND status = 'ACTIVE' RETURNING balance""")) {
+            debit.setBigDecimal(1, AMOUNT);
+            debit.setLong(2, fromId);
+            debit.setBigDecimal(3, AMOUNT);
+            credit.setBigDecimal(1, AMOUNT);
+            credit.setLong(2, toId);
+            if (fromId < toId) {
+                debit.executeQuery().close();
+                credit.executeQuery().close();
+            } else {
+                credit.executeQuery().close();
+                debit.executeQuery().close();
+            }
+        }
+        c.commit();
+    }
+
+    private static long findId(Connection c, String hash) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT id FROM bench_cards WHERE card_number_hash = ? AND user_id = 1")) {
+            ps.setString(1, hash);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static BigDecimal lock(Connection c, long id) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT balance FROM bench_cards WHERE id = ? AND user_id = 1 AND status = 'ACTIVE' FOR UPDATE")) {
+            ps.setLong(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getBigDecimal(1);
+            }
+        }
+    }
+
+    private static void setBalance(Connection c, long id, BigDecimal balance) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("UPDATE bench_cards SET balance = ? WHERE id = ?")) {
+            ps.setBigDecimal(1, balance);
+            ps.setLong(2, id);
+            ps.executeUpdate();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TransferSqlBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.bankcards.benchmark;
+
+import com.example.bankcards.exception.TransferVelocityException;
+import com.example.bankcards.service.TransferVelocity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость TransferVelocity.check на 8 потоках с правилами из application.yml.
+ * allowed — случайные карты и пользователи (users штук, по 2 карты), лимиты не достигаются;
+ * hotCard — все потоки бьют в одну карту сверх лимита, то есть путь отказа с исключением.
+ * Цель — заметно меньше микросекунды на вызов в обоих случаях.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TransferVelocityBenchmark {
+
+    static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    TransferVelocity velocity;
+    TransferVelocity hot;
+    String[] cards;
+
+    @Setup
+    public void setUp() {
+        velocity = new TransferVelocity(new SimpleMeterRegistry(), true,
+                "card:count:1000000000/10s:reject, card:count:1000000000/1h:reject, user:amount:1000000000/1h:flag",
+                10, 2L * users + 1000);
+        hot = new TransferVelocity(new SimpleMeterRegistry(), true,
+                "card:count:10/10s:reject", 10, 1000);
+
+        cards = new String[users * 2];
+        for (int i = 0; i < cards.length; i++) {
+            cards[i] = String.format("4%015d", i);
+        }
+    }
+
+    @Benchmark
+    public void allowed() {
+        int card = ThreadLocalRandom.current().nextInt(cards.length);
+        velocity.check((long) (card / 2), cards[card], AMOUNT);
+    }
+
+    @Benchmark
+    public boolean hotCard() {
+        try {
+            hot.check(1L, cards[0], AMOUNT);
+            return true;
+        } catch (TransferVelocityException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TransferVelocityBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -2,10 +2,19 @@ package com.example.bankcards.controller;
 
 import com.example.bankcards.dto.CardCreateDto;
 import com.example.bankcards.dto.CardResponseDto;
+import com.example.bankcards.dto.TransferStatusDto;
+import com.example.bankcards.entity.TransferOutboxStatus;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
+import com.example.bankcards.exception.DailyLimitExceededException;
 import com.example.bankcards.exception.GlobalExceptionHandler;
+import com.example.bankcards.exception.TransferVelocityException;
 import com.example.bankcards.security.JwtAuthenticationFilter;
+import com.example.bankcards.service.AsyncTransferService;
 import com.example.bankcards.service.CardService;
+import com.example.bankcards.service.GroupCommitTransferExecutor;
+import com.example.bankcards.service.IdempotentTransferService;
+import com.example.bankcards.service.TransferVelocity;
 import com.example.bankcards.util.AuthUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -26,6 +35,7 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.UUID;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.mockito.Mockito.*;
@@ -45,6 +55,18 @@ class CardControllerSecurityTest {
     @MockBean
     private CardService service;
 
+    @MockBean
+    private IdempotentTransferService idempotentTransfers;
+
+    @MockBean
+    private GroupCommitTransferExecutor transferExecutor;
+
+    @MockBean
+    private AsyncTransferService asyncTransfers;
+
+    @MockBean
+    private TransferVelocity velocity;
+
     @MockBean
     private JwtAuthenticationFilter jwtAuthFilter;
 
@@ -79,7 +101,7 @@ class CardControllerSecurityTest {
         CardResponseDto resp = CardResponseDto.builder()
                 .id(100L).userId(10L).maskedNumber("**** **** **** 1111")
                 .expiryDate(LocalDate.now().plusYears(3))
-                .status(CardStatus.ACTIVE).balance(BigDecimal.ZERO).build();
+                .status(CardStatus.ACTIVE).balance(Money.ZERO).build();
 
         when(service.create(any(CardCreateDto.class))).thenReturn(resp);
 
@@ -157,7 +179,7 @@ class CardControllerSecurityTest {
     @WithMockUser(roles = "USER")
     void user_balance_ok() throws Exception {
         when(service.getBalance(10L, "4111111111111111"))
-                .thenReturn(new BigDecimal("123.45"));
+                .thenReturn(Money.of("123.45"));
 
         try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
             mocked.when(AuthUtils::currentUserId).thenReturn(10L);
@@ -196,7 +218,96 @@ class CardControllerSecurityTest {
                     .andExpect(status().isOk())
                     .andExpect(content().string("Перевод выполнен"));
 
-            verify(service).transferBetweenUserCards(10L, "4111111111111111", "4222222222222222", new BigDecimal("100.00"));
+            verify(transferExecutor).transfer(10L, "4111111111111111", "4222222222222222", new BigDecimal("100.00"));
+        }
+    }
+
+    @Test
+    @DisplayName("USER: PUT /api/cards/transfer сверх дневного лимита — 422")
+    @WithMockUser(roles = "USER")
+    void user_transfer_dailyLimitExceeded() throws Exception {
+        doThrow(new DailyLimitExceededException("Превышен дневной лимит списаний по карте **** **** **** 1111"))
+                .when(transferExecutor).transfer(10L, "4111111111111111", "4222222222222222", new BigDecimal("100.00"));
+
+        try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
+            mocked.when(AuthUtils::currentUserId).thenReturn(10L);
+
+            mockMvc.perform(put("/api/cards/transfer")
+                            .param("cardNumberFrom", "4111111111111111")
+                            .param("cardNumberTo", "4222222222222222")
+                            .param("amount", "100.00")
+                    .with(csrf()))
+                    .andExpect(status().isUnprocessableEntity())
+                    .andExpect(jsonPath("$.message").value("Превышен дневной лимит списаний по карте"));
+        }
+    }
+
+    @Test
+    @DisplayName("USER: POST /api/cards/transfers чаще правила частоты — 429, перевод не ставится в очередь")
+    @WithMockUser(roles = "USER")
+    void user_submitTransfer_velocityExceeded() throws Exception {
+        doThrow(new TransferVelocityException("Слишком много переводов за короткое время, повторите позже"))
+                .when(velocity).check(10L, "4111111111111111", new BigDecimal("100.00"));
+
+        try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
+            mocked.when(AuthUtils::currentUserId).thenReturn(10L);
+
+            mockMvc.perform(post("/api/cards/transfers")
+                            .param("cardNumberFrom", "4111111111111111")
+                            .param("cardNumberTo", "4222222222222222")
+                            .param("amount", "100.00")
+                    .with(csrf()))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(jsonPath("$.message").value("Превышена допустимая частота переводов"));
+        }
+        verifyNoInteractions(asyncTransfers);
+    }
+
+    @Test
+    @DisplayName("USER: PUT /api/cards/transfer с Idempotency-Key — повтор отдаёт сохранённый ответ")
+    @WithMockUser(roles = "USER")
+    void user_transfer_idempotentReplay() throws Exception {
+        when(idempotentTransfers.transfer(10L, "key-1", "4111111111111111", "4222222222222222", new BigDecimal("100.00")))
+                .thenReturn(new IdempotentTransferService.Receipt("hash", 200, "Перевод выполнен", true));
+
+        try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
+            mocked.when(AuthUtils::currentUserId).thenReturn(10L);
+
+            mockMvc.perform(put("/api/cards/transfer")
+                            .header("Idempotency-Key", "key-1")
+                            .param("cardNumberFrom", "4111111111111111")
+                            .param("cardNumberTo", "4222222222222222")
+                            .param("amount", "100.00")
+                    .with(csrf()))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("Idempotent-Replayed", "true"))
+                    .andExpect(content().string("Перевод выполнен"));
+
+            verify(service, never()).transferBetweenUserCards(anyLong(), anyString(), anyString(), any());
+        }
+    }
+
+    @Test
+    @DisplayName("USER: POST /api/cards/transfers — 202 Accepted с id перевода")
+    @WithMockUser(roles = "USER")
+    void user_submitTransfer_accepted() throws Exception {
+        UUID id = UUID.fromString("3f1c6f5e-3b0a-4a57-9f53-2c1d4f7a9b10");
+        when(asyncTransfers.submit(10L, "4111111111111111", "4222222222222222", new BigDecimal("100.00")))
+                .thenReturn(TransferStatusDto.builder().id(id).status(TransferOutboxStatus.PENDING).build());
+
+        try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
+            mocked.when(AuthUtils::currentUserId).thenReturn(10L);
+
+            mockMvc.perform(post("/api/cards/transfers")
+                            .param("cardNumberFrom", "4111111111111111")
+                            .param("cardNumberTo", "4222222222222222")
+                            .param("amount", "100.00")
+                    .with(csrf()))
+                    .andExpect(status().isAccepted())
+                    .andExpect(header().string("Location", "/api/cards/transfers/" + id))
+                    .andExpect(jsonPath("$.status").value("PENDING"));
+
+            verify(transferExecutor, never()).transfer(anyLong(), anyString(), anyString(), any());
         }
     }
 
@@ -209,7 +320,7 @@ class CardControllerSecurityTest {
                         .param("cardNumberTo", "4222222222222222")
                         .param("amount", "100.00"))
                 .andExpect(status().isForbidden());
-        verify(service, never()).transferBetweenUserCards(anyLong(), anyString(), anyString(), any());
+        verify(transferExecutor, never()).transfer(anyLong(), anyString(), anyString(), any());
     }
 
     @Test
@@ -219,7 +330,7 @@ class CardControllerSecurityTest {
         CardResponseDto resp = CardResponseDto.builder()
                 .id(7L).userId(10L).status(CardStatus.BLOCKED)
                 .maskedNumber("**** **** **** 1111")
-                .balance(new BigDecimal("123.45")).build();
+                .balance(Money.of("123.45")).build();
 
         when(service.blockByUser(7L, 10L)).thenReturn(resp);
 
@@ -230,7 +341,8 @@ class CardControllerSecurityTest {
                             .param("userId", "10")
                             .with(csrf()))
                     .andExpect(status().isOk())
-                    .andExpect(jsonPath("$.status").value("BLOCKED"));
+                    .andExpect(jsonPath("$.status").value("BLOCKED"))
+                    .andExpect(jsonPath("$.balance").value(123.45));
         }
     }
 
@@ -249,7 +361,7 @@ class CardControllerSecurityTest {
     void user_getById_ok() throws Exception {
         CardResponseDto resp = CardResponseDto.builder()
                 .id(123L).userId(10L).maskedNumber("**** **** **** 1111")
-                .status(CardStatus.ACTIVE).balance(BigDecimal.ZERO)
+                .status(CardStatus.ACTIVE).balance(Money.ZERO)
                 .expiryDate(LocalDate.now().plusYears(3)).build();
 
         try (MockedStatic<AuthUtils> mocked = mockStatic(AuthUtils.class)) {
@@ -0,0 +1,46 @@
+package com.example.bankcards.entity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MoneyTest {
+
+    @Test
+    @DisplayName("Money: округление до копеек, арифметика и обратное преобразование в BigDecimal")
+    void arithmetic() {
+        Money balance = Money.of("100.00");
+        Money amount = Money.of(new BigDecimal("0.005"));
+
+        assertThat(amount.minor()).isEqualTo(1);
+        assertThat(balance.minus(amount)).isEqualTo(Money.of("99.99"));
+        assertThat(balance.plus(amount).toBigDecimal()).isEqualTo(new BigDecimal("100.01"));
+        assertThat(amount.isLessThan(balance)).isTrue();
+        assertThat(Money.of("-1.5").toString()).isEqualTo("-1.50");
+        assertThat(Money.ZERO.toString()).isEqualTo("0.00");
+    }
+
+    @Test
+    @DisplayName("Money: переполнение — ArithmeticException, а не тихий перенос")
+    void overflow() {
+        Money max = Money.ofMinor(Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> max.plus(Money.ofMinor(1))).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> Money.of("1e30")).isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    @DisplayName("Money: в JSON — число с двумя знаками, читается из числа и из строки")
+    void json() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        assertThat(objectMapper.writeValueAsString(Money.of("1999.9"))).isEqualTo("1999.90");
+        assertThat(objectMapper.readValue("12.34", Money.class)).isEqualTo(Money.of("12.34"));
+        assertThat(objectMapper.readValue("\"5\"", Money.class)).isEqualTo(Money.of("5.00"));
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.bankcards.security;
+
+import com.example.bankcards.repository.UserRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class TokenVersionRegistryTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final TokenVersionRegistry registry = new TokenVersionRegistry(userRepository, 86400000, 5000, 1000);
+
+    @Test
+    @DisplayName("isCurrent: пользователь, удалённый на другом узле (нет в БД), не проходит по токену")
+    void deletedElsewhere_rejected() {
+        when(userRepository.findTokenStates()).thenReturn(List.of());
+        when(userRepository.existsById(1L)).thenReturn(true);
+        when(userRepository.existsById(2L)).thenReturn(false);
+        registry.refresh();
+
+        assertThat(registry.isCurrent(1L, 0)).isTrue();
+        assertThat(registry.isCurrent(1L, 0)).isTrue();
+        assertThat(registry.isCurrent(2L, 0)).isFalse();
+        // Ответ БД кэшируется, а не запрашивается на каждый токен
+        verify(userRepository, times(1)).existsById(1L);
+    }
+}
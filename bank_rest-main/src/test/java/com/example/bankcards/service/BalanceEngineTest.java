@@ -0,0 +1,274 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.exception.CardNotFoundException;
+import com.example.bankcards.exception.DailyLimitExceededException;
+import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.repository.CardEngineView;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+class BalanceEngineTest {
+
+    @TempDir
+    Path dir;
+
+    private BalanceEnginePartition partition;
+
+    @AfterEach
+    void stop() {
+        if (partition != null) {
+            partition.stop();
+        }
+    }
+
+    record View(Long id, String cardNumberHash, String status, BigDecimal balance,
+                BigDecimal dailyLimit, BigDecimal spentToday) implements CardEngineView {
+        View(Long id, String cardNumberHash, String status, BigDecimal balance) {
+            this(id, cardNumberHash, status, balance, null, BigDecimal.ZERO);
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public String getCardNumberHash() {
+            return cardNumberHash;
+        }
+
+        @Override
+        public String getStatus() {
+            return status;
+        }
+
+        @Override
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        @Override
+        public BigDecimal getDailyLimit() {
+            return dailyLimit;
+        }
+
+        @Override
+        public BigDecimal getSpentToday() {
+            return spentToday;
+        }
+    }
+
+    /**
+     * БД в памяти: балансы и дневной расход карт, applied_seq партиции и записанные ключи запросов.
+     */
+    static class FakeStore implements BalanceEnginePartition.Store {
+        final Map<Long, View> cards = new ConcurrentHashMap<>();
+        final List<Long> flushedUpTo = new CopyOnWriteArrayList<>();
+        final Set<BalanceEnginePartition.RequestKey> keys = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public List<CardEngineView> loadUser(Long userId, LocalDate day) {
+            return List.copyOf(cards.values());
+        }
+
+        @Override
+        public boolean userExists(Long userId) {
+            return true;
+        }
+
+        @Override
+        public boolean isApplied(BalanceEnginePartition.RequestKey key) {
+            return keys.contains(key);
+        }
+
+        @Override
+        public List<CardEngineView> flush(int partition, long upToSeq, Map<Long, BigDecimal> deltas,
+                                          Map<Long, BigDecimal> spent, LocalDate day,
+                                          Collection<BalanceEnginePartition.RequestKey> keys) {
+            this.keys.addAll(keys);
+            deltas.forEach((id, delta) -> cards.computeIfPresent(id, (key, card) -> new View(key, card.cardNumberHash(),
+                    card.status(), card.balance().add(delta), card.dailyLimit(), card.spentToday())));
+            spent.forEach((id, amount) -> cards.computeIfPresent(id, (key, card) -> new View(key, card.cardNumberHash(),
+                    card.status(), card.balance(), card.dailyLimit(), card.spentToday().add(amount))));
+            flushedUpTo.add(upToSeq);
+            return deltas.keySet().stream().map(cards::get).map(CardEngineView.class::cast).toList();
+        }
+    }
+
+    private static BalanceEnginePartition.Transfer transfer(String from, String to, long cents) {
+        return transfer(from, to, cents, null, false);
+    }
+
+    private static BalanceEnginePartition.Transfer transfer(String from, String to, long cents,
+                                                            String requestKey, boolean retry) {
+        return new BalanceEnginePartition.Transfer(1L, from, to, "**** " + from, "**** " + to, cents,
+                requestKey == null ? null : BalanceEnginePartition.RequestKey.of(requestKey), retry,
+                new CompletableFuture<>());
+    }
+
+    private static void join(BalanceEnginePartition.Transfer transfer) {
+        transfer.result().orTimeout(5, TimeUnit.SECONDS).join();
+    }
+
+    @Test
+    @DisplayName("Журнал: записи читаются по порядку, обрыв последней записи отбрасывается")
+    void journal_readsSyncedRecords_dropsTornTail() throws Exception {
+        try (TransferJournal journal = new TransferJournal(dir, 0, 16)) {
+            journal.append(new TransferJournal.Entry(1, 1, 10, 20, 500, 0, 0, 0));
+            journal.append(new TransferJournal.Entry(2, 1, 20, 10, 100, 20000, 7, 9));
+            journal.sync();
+            journal.append(new TransferJournal.Entry(3, 1, 10, 20, 700, 0, 0, 0));
+            journal.discardUnsynced();
+        }
+        Path segment = dir.resolve(TransferJournal.segmentName(0, 1));
+        Files.write(segment, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+
+        List<TransferJournal.Entry> entries = TransferJournal.readAll(dir, 0);
+
+        assertThat(entries).extracting(TransferJournal.Entry::seq).containsExactly(1L, 2L);
+        assertThat(entries.get(0).amountCents()).isEqualTo(500);
+        assertThat(entries.get(1).spentDay()).isEqualTo(20000);
+        assertThat(entries.get(1).keyHigh()).isEqualTo(7);
+        assertThat(entries.get(1).keyLow()).isEqualTo(9);
+        assertThat(TransferJournal.partitions(dir)).containsExactly(0);
+    }
+
+    @Test
+    @DisplayName("Партиция: переводы применяются по очереди, дельты уходят в БД, сегмент журнала удаляется")
+    void partition_appliesAndWritesBehind() {
+        FakeStore store = new FakeStore();
+        store.cards.put(1L, new View(1L, "a", "ACTIVE", new BigDecimal("10.00")));
+        store.cards.put(2L, new View(2L, "b", "ACTIVE", new BigDecimal("0.00")));
+        partition = new BalanceEnginePartition(0, journal(), store, Runnable::run, 1, 100, 16,
+                TimeUnit.MILLISECONDS.toNanos(5), 1000, 100);
+        partition.start();
+
+        BalanceEnginePartition.Transfer first = transfer("a", "b", 600);
+        BalanceEnginePartition.Transfer second = transfer("a", "b", 600);
+        partition.submit(first);
+        join(first);
+        partition.submit(second);
+
+        assertThatThrownBy(() -> join(second))
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(TransferException.class);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> !store.flushedUpTo.isEmpty());
+        assertThat(store.cards.get(1L).balance()).isEqualByComparingTo("4.00");
+        assertThat(store.cards.get(2L).balance()).isEqualByComparingTo("6.00");
+        assertThat(store.flushedUpTo).containsExactly(1L);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> isEmpty(dir));
+    }
+
+    @Test
+    @DisplayName("Партиция: повтор перевода с тем же ключом не списывает деньги ни до, ни после записи в БД")
+    void partition_requestKeyAppliedOnce() {
+        FakeStore store = new FakeStore();
+        store.cards.put(1L, new View(1L, "a", "ACTIVE", new BigDecimal("10.00")));
+        store.cards.put(2L, new View(2L, "b", "ACTIVE", new BigDecimal("0.00")));
+        partition = new BalanceEnginePartition(0, journal(), store, Runnable::run, 1, 100, 16,
+                TimeUnit.SECONDS.toNanos(60), 1000, 100);
+        partition.start();
+
+        BalanceEnginePartition.Transfer first = transfer("a", "b", 300, "outbox:1", false);
+        BalanceEnginePartition.Transfer unflushed = transfer("a", "b", 300, "outbox:1", true);
+        partition.submit(first);
+        partition.submit(unflushed);
+        join(first);
+        join(unflushed);
+        assertThat(partition.applied()).isEqualTo(1);
+
+        // Партиция перезапущена: ключ известен только БД
+        partition.stop();
+        store.keys.add(BalanceEnginePartition.RequestKey.of("outbox:1"));
+        partition = new BalanceEnginePartition(0, journal(), store, Runnable::run, 2, 100, 16,
+                TimeUnit.SECONDS.toNanos(60), 1000, 100);
+        partition.start();
+
+        BalanceEnginePartition.Transfer flushed = transfer("a", "b", 300, "outbox:1", true);
+        BalanceEnginePartition.Transfer other = transfer("a", "b", 300, "outbox:2", false);
+        partition.submit(flushed);
+        partition.submit(other);
+        join(flushed);
+        join(other);
+        assertThat(partition.applied()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Партиция: дневной лимит учитывает расход из БД и незаписанные переводы, расход уходит в БД")
+    void partition_enforcesDailyLimit() {
+        FakeStore store = new FakeStore();
+        store.cards.put(1L, new View(1L, "a", "ACTIVE", new BigDecimal("100.00"),
+                new BigDecimal("10.00"), new BigDecimal("4.00")));
+        store.cards.put(2L, new View(2L, "b", "ACTIVE", new BigDecimal("0.00")));
+        partition = new BalanceEnginePartition(0, journal(), store, Runnable::run, 1, 100, 16,
+                TimeUnit.MILLISECONDS.toNanos(5), 1000, 100);
+        partition.start();
+
+        BalanceEnginePartition.Transfer first = transfer("a", "b", 500);
+        BalanceEnginePartition.Transfer second = transfer("a", "b", 200);
+        partition.submit(first);
+        join(first);
+        partition.submit(second);
+
+        assertThatThrownBy(() -> join(second))
+                .hasCauseInstanceOf(DailyLimitExceededException.class);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> !store.flushedUpTo.isEmpty());
+        assertThat(store.cards.get(1L).spentToday()).isEqualByComparingTo("9.00");
+        assertThat(store.cards.get(2L).spentToday()).isEqualByComparingTo("0.00");
+
+        BalanceEnginePartition.Transfer reverse = transfer("b", "a", 500);
+        partition.submit(reverse);
+        join(reverse);
+    }
+
+    @Test
+    @DisplayName("Партиция: неизвестная карта — CardNotFoundException")
+    void partition_unknownCard() {
+        FakeStore store = new FakeStore();
+        store.cards.put(1L, new View(1L, "a", "ACTIVE", new BigDecimal("10.00")));
+        partition = new BalanceEnginePartition(0, journal(), store, Runnable::run, 1, 100, 16,
+                TimeUnit.MILLISECONDS.toNanos(5), 1000, 100);
+        partition.start();
+
+        BalanceEnginePartition.Transfer transfer = transfer("a", "zzz", 100);
+        partition.submit(transfer);
+
+        assertThatThrownBy(() -> join(transfer))
+                .hasCauseInstanceOf(CardNotFoundException.class);
+    }
+
+    private TransferJournal journal() {
+        try {
+            return new TransferJournal(dir, 0, 16);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isEmpty(Path dir) throws Exception {
+        try (var files = Files.list(dir)) {
+            return files.findAny().isEmpty();
+        }
+    }
+}
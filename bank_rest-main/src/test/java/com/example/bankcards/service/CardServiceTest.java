@@ -1,19 +1,39 @@
 package com.example.bankcards.service;
 
 
+import com.example.bankcards.dto.BatchTransferMode;
+import com.example.bankcards.dto.BatchTransferRequestDto;
+import com.example.bankcards.dto.BatchTransferResponseDto;
 import com.example.bankcards.dto.CardCreateDto;
 import com.example.bankcards.dto.CardResponseDto;
 import com.example.bankcards.dto.CardUpdateDto;
+import com.example.bankcards.dto.TransferItemDto;
+import com.example.bankcards.dto.TransferItemResultDto;
+import com.example.bankcards.dto.TransferItemStatus;
 import com.example.bankcards.entity.Card;
+import com.example.bankcards.entity.CardLedgerEntry;
 import com.example.bankcards.entity.CardStatus;
+import com.example.bankcards.entity.Money;
 import com.example.bankcards.entity.User;
 import com.example.bankcards.exception.CardNotFoundException;
 import com.example.bankcards.exception.CardNumberIsNotFree;
+import com.example.bankcards.exception.DailyLimitExceededException;
+import com.example.bankcards.exception.TransferBusyException;
+import com.example.bankcards.exception.TransferConflictException;
 import com.example.bankcards.exception.TransferException;
+import com.example.bankcards.exception.TransferVelocityException;
 import com.example.bankcards.exception.UserNotFoundCustomException;
+import com.example.bankcards.repository.CardLedgerRepository;
+import com.example.bankcards.repository.CardRefView;
 import com.example.bankcards.repository.CardRepository;
+import com.example.bankcards.repository.CardShardView;
+import com.example.bankcards.repository.CardVersionView;
 import com.example.bankcards.repository.UserRepository;
 import com.example.bankcards.util.CardMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -21,10 +41,15 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.data.domain.*;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
@@ -38,6 +63,9 @@ class CardServiceTest {
     @Mock
     private CardRepository cardRepository;
 
+    @Mock
+    private CardLedgerRepository ledgerRepository;
+
     @Mock
     private UserRepository userRepository;
 
@@ -49,10 +77,26 @@ class CardServiceTest {
 
     private CardService service;
 
+    private static CardContention contention() {
+        return new CardContention(new SimpleMeterRegistry(), 3, Duration.ZERO, Duration.ZERO, 0.2, Duration.ofSeconds(10), 100);
+    }
+
+    private TransferIntentLog intentLog() {
+        return new TransferIntentLog(cardRepository, cryptoService, new SimpleMeterRegistry(), false, "data/journal", DataSize.ofMegabytes(1), 1);
+    }
+
+    private static TransferVelocity velocity() {
+        return new TransferVelocity(new SimpleMeterRegistry(), false, "", 10, 1000);
+    }
+
+    private TransferLockPolicy lockPolicy() {
+        return new TransferLockPolicy(cardRepository, new SimpleMeterRegistry(), Duration.ofSeconds(2), 3, Duration.ZERO, Duration.ZERO);
+    }
+
     @BeforeEach
     void setup() {
         MockitoAnnotations.openMocks(this);
-        service = new CardService(cardRepository, userRepository, mapper, cryptoService, "36");
+        service = new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService, "36", TransferStrategy.PESSIMISTIC, contention(), lockPolicy(), intentLog(), velocity(), false);
     }
 
     private Card stubCard(Long id, Long userId) {
@@ -62,7 +106,7 @@ class CardServiceTest {
         Card c = new Card();
         c.setId(id);
         c.setUser(u);
-        c.setBalance(BigDecimal.ZERO);
+        c.setBalance(Money.ZERO);
         c.setStatus(CardStatus.ACTIVE);
         c.setExpiryDate(LocalDate.now().plusMonths(36));
         c.setCardNumberEncrypted("enc#123");
@@ -76,7 +120,7 @@ class CardServiceTest {
         u.setId(userId);
         c.setUser(u);
         c.setCardNumberEncrypted(enc);
-        c.setBalance(balance);
+        c.setBalance(Money.of(balance));
         c.setStatus(status);
         return c;
     }
@@ -119,8 +163,7 @@ class CardServiceTest {
         Page<Card> page = new PageImpl<>(List.of(c1, c2), pageable, 5);
 
         when(cardRepository.findAll(pageable)).thenReturn(page);
-        when(mapper.toDto(c1)).thenReturn(new CardResponseDto());
-        when(mapper.toDto(c2)).thenReturn(new CardResponseDto());
+        when(mapper.toDtos(List.of(c1, c2))).thenReturn(List.of(new CardResponseDto(), new CardResponseDto()));
 
         Page<CardResponseDto> result = service.getAll(pageable);
 
@@ -130,8 +173,7 @@ class CardServiceTest {
         assertThat(result.getSize()).isEqualTo(2);
 
         verify(cardRepository).findAll(pageable);
-        verify(mapper).toDto(c1);
-        verify(mapper).toDto(c2);
+        verify(mapper).toDtos(List.of(c1, c2));
     }
 
     @Test
@@ -145,8 +187,9 @@ class CardServiceTest {
         User u = new User(); u.setId(10L);
 
         when(userRepository.findById(10L)).thenReturn(Optional.of(u));
+        when(cryptoService.blindIndex("4111111111111111")).thenReturn("hash#4111");
         when(cryptoService.encrypt("4111111111111111")).thenReturn("enc#4111");
-        when(cardRepository.findByCardNumberEncrypted("enc#4111")).thenReturn(Optional.empty());
+        when(cardRepository.findByCardNumberHash("hash#4111")).thenReturn(Optional.empty());
 
         ArgumentCaptor<Card> toSave = ArgumentCaptor.forClass(Card.class);
         Card saved = stubCard(100L, 10L);
@@ -160,14 +203,16 @@ class CardServiceTest {
 
         Card entity = toSave.getValue();
         assertThat(entity.getUser().getId()).isEqualTo(10L);
-        assertThat(entity.getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(entity.getBalance()).isEqualTo(Money.ZERO);
         assertThat(entity.getStatus()).isEqualTo(CardStatus.ACTIVE);
         assertThat(entity.getCardNumberEncrypted()).isEqualTo("enc#4111");
+        assertThat(entity.getCardNumberHash()).isEqualTo("hash#4111");
+        assertThat(entity.getCardLast4()).isEqualTo("1111");
         assertThat(entity.getExpiryDate()).isAfter(LocalDate.now().plusMonths(35));
 
         verify(userRepository).findById(10L);
         verify(cryptoService).encrypt("4111111111111111");
-        verify(cardRepository).findByCardNumberEncrypted("enc#4111");
+        verify(cardRepository).findByCardNumberHash("hash#4111");
         verify(cardRepository).save(any(Card.class));
         verify(mapper).toDto(saved);
     }
@@ -183,8 +228,8 @@ class CardServiceTest {
         User u = new User(); u.setId(10L);
 
         when(userRepository.findById(10L)).thenReturn(Optional.of(u));
-        when(cryptoService.encrypt("4111111111111111")).thenReturn("enc#4111");
-        when(cardRepository.findByCardNumberEncrypted("enc#4111"))
+        when(cryptoService.blindIndex("4111111111111111")).thenReturn("hash#4111");
+        when(cardRepository.findByCardNumberHash("hash#4111"))
                 .thenReturn(Optional.of(new Card()));
 
         assertThatThrownBy(() -> service.create(req))
@@ -223,7 +268,8 @@ class CardServiceTest {
 
         when(userRepository.findById(20L)).thenReturn(Optional.of(newUser));
 
-        when(cryptoService.decrypt("enc#123")).thenReturn("4111111111111111");
+        when(cryptoService.blindIndex("5555444433332222")).thenReturn("hash#5555");
+        when(cardRepository.findByCardNumberHash("hash#5555")).thenReturn(Optional.empty());
         when(cryptoService.encrypt("5555444433332222")).thenReturn("enc#5555");
 
         when(cardRepository.save(any(Card.class))).thenAnswer(inv -> inv.getArgument(0));
@@ -234,11 +280,13 @@ class CardServiceTest {
         assertThat(out).isNotNull();
         assertThat(existing.getUser().getId()).isEqualTo(20L);
         assertThat(existing.getStatus()).isEqualTo(CardStatus.BLOCKED);
-        assertThat(existing.getBalance()).isEqualByComparingTo("123.45");
+        assertThat(existing.getBalance()).isEqualTo(Money.of("123.45"));
         assertThat(existing.getExpiryDate()).isEqualTo(dto.getExpiryDate());
         assertThat(existing.getCardNumberEncrypted()).isEqualTo("enc#5555");
+        assertThat(existing.getCardNumberHash()).isEqualTo("hash#5555");
+        assertThat(existing.getCardLast4()).isEqualTo("2222");
 
-        verify(cryptoService).decrypt("enc#123");
+        verify(cryptoService, never()).decrypt(anyString());
         verify(cryptoService).encrypt("5555444433332222");
         verify(cardRepository).save(existing);
         verify(mapper).toDto(existing);
@@ -308,19 +356,19 @@ class CardServiceTest {
         String to   = "4222222222222222";
         String encFrom = "encFrom";
         String encTo   = "encTo";
-        BigDecimal amount = new BigDecimal("100.005");
+        BigDecimal amount = new BigDecimal("100.010");
 
         stubUserExists(userId);
 
-        when(cryptoService.encrypt(from)).thenReturn(encFrom);
-        when(cryptoService.encrypt(to)).thenReturn(encTo);
+        when(cryptoService.blindIndex(from)).thenReturn(encFrom);
+        when(cryptoService.blindIndex(to)).thenReturn(encTo);
         when(cryptoService.getMaskedNumber(anyString())).then(inv ->
                 "****" + inv.getArgument(0, String.class).substring(inv.getArgument(0, String.class).length() - 4));
 
         Card fromPeek = card(1L, userId, encFrom, new BigDecimal("500.00"), CardStatus.ACTIVE);
         Card toPeek   = card(2L, userId, encTo,   new BigDecimal("50.00"),  CardStatus.ACTIVE);
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
 
         Card fromLocked = card(1L, userId, encFrom, new BigDecimal("500.00"), CardStatus.ACTIVE);
         Card toLocked   = card(2L, userId, encTo,   new BigDecimal("50.00"),  CardStatus.ACTIVE);
@@ -333,15 +381,14 @@ class CardServiceTest {
 
         service.transferBetweenUserCards(userId, from, to, amount);
 
-        BigDecimal scaled = amount.setScale(2, RoundingMode.HALF_UP);
-        assertThat(fromLocked.getBalance()).isEqualByComparingTo(new BigDecimal("399.99"));
-        assertThat(toLocked.getBalance()).isEqualByComparingTo(new BigDecimal("150.01"));
+        assertThat(fromLocked.getBalance()).isEqualTo(Money.of("399.99"));
+        assertThat(toLocked.getBalance()).isEqualTo(Money.of("150.01"));
 
         verify(cardRepository, times(2)).save(any(Card.class));
 
         InOrder inOrder = inOrder(cardRepository);
-        inOrder.verify(cardRepository).findByCardNumberEncryptedAndUser_Id(encFrom, userId);
-        inOrder.verify(cardRepository).findByCardNumberEncryptedAndUser_Id(encTo, userId);
+        inOrder.verify(cardRepository).findByCardNumberHashAndUser_Id(encFrom, userId);
+        inOrder.verify(cardRepository).findByCardNumberHashAndUser_Id(encTo, userId);
         inOrder.verify(cardRepository).lockByIdAndUserAndStatus(1L, userId, CardStatus.ACTIVE);
         inOrder.verify(cardRepository).lockByIdAndUserAndStatus(2L, userId, CardStatus.ACTIVE);
         inOrder.verify(cardRepository, times(2)).save(any(Card.class));
@@ -397,10 +444,10 @@ class CardServiceTest {
         String from = "4111111111111111";
         String to   = "4222222222222222";
         when(userRepository.findById(userId)).thenReturn(Optional.of(new User()));
-        when(cryptoService.encrypt(from)).thenReturn("encFrom");
-        when(cryptoService.encrypt(to)).thenReturn("encTo");
+        when(cryptoService.blindIndex(from)).thenReturn("encFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("encTo");
 
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id("encFrom", userId))
+        when(cardRepository.findByCardNumberHashAndUser_Id("encFrom", userId))
                 .thenReturn(Optional.empty());
 
         assertThatThrownBy(() ->
@@ -417,12 +464,12 @@ class CardServiceTest {
         String from = "4111111111111111";
         String to   = "4222222222222222";
         when(userRepository.findById(userId)).thenReturn(Optional.of(new User()));
-        when(cryptoService.encrypt(from)).thenReturn("encFrom");
-        when(cryptoService.encrypt(to)).thenReturn("encTo");
+        when(cryptoService.blindIndex(from)).thenReturn("encFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("encTo");
 
         Card fromPeek = card(1L, userId, "encFrom", new BigDecimal("100.00"), CardStatus.ACTIVE);
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id("encFrom", userId)).thenReturn(Optional.of(fromPeek));
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id("encTo", userId)).thenReturn(Optional.empty());
+        when(cardRepository.findByCardNumberHashAndUser_Id("encFrom", userId)).thenReturn(Optional.of(fromPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id("encTo", userId)).thenReturn(Optional.empty());
 
         assertThatThrownBy(() ->
                 service.transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"))
@@ -439,14 +486,14 @@ class CardServiceTest {
         String encFrom = "encFrom";
         String encTo   = "encTo";
         when(userRepository.findById(userId)).thenReturn(Optional.of(new User()));
-        when(cryptoService.encrypt(from)).thenReturn(encFrom);
-        when(cryptoService.encrypt(to)).thenReturn(encTo);
+        when(cryptoService.blindIndex(from)).thenReturn(encFrom);
+        when(cryptoService.blindIndex(to)).thenReturn(encTo);
         when(cryptoService.getMaskedNumber(anyString())).thenReturn("****1111");
 
         Card fromPeek = card(1L, userId, encFrom, new BigDecimal("50.00"), CardStatus.ACTIVE);
         Card toPeek   = card(2L, userId, encTo,   new BigDecimal("50.00"), CardStatus.ACTIVE);
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
 
         when(cardRepository.lockByIdAndUserAndStatus(1L, userId, CardStatus.ACTIVE))
                 .thenReturn(Optional.of(card(1L, userId, encFrom, new BigDecimal("50.00"), CardStatus.ACTIVE)));
@@ -471,14 +518,14 @@ class CardServiceTest {
         String encTo   = "encTo";
 
         stubUserExists(userId);
-        when(cryptoService.encrypt(from)).thenReturn(encFrom);
-        when(cryptoService.encrypt(to)).thenReturn(encTo);
+        when(cryptoService.blindIndex(from)).thenReturn(encFrom);
+        when(cryptoService.blindIndex(to)).thenReturn(encTo);
         when(cryptoService.getMaskedNumber(anyString())).thenReturn("****1111");
 
         Card fromPeek = card(5L, userId, encFrom, new BigDecimal("200.00"), CardStatus.ACTIVE);
         Card toPeek   = card(3L, userId, encTo,   new BigDecimal("10.00"),  CardStatus.ACTIVE);
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
-        when(cardRepository.findByCardNumberEncryptedAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encFrom, userId)).thenReturn(Optional.of(fromPeek));
+        when(cardRepository.findByCardNumberHashAndUser_Id(encTo, userId)).thenReturn(Optional.of(toPeek));
 
         Card lowLocked  = card(3L, userId, encTo,   new BigDecimal("10.00"),  CardStatus.ACTIVE);
         Card highLocked = card(5L, userId, encFrom, new BigDecimal("200.00"), CardStatus.ACTIVE);
@@ -490,9 +537,596 @@ class CardServiceTest {
         service.transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"));
 
         InOrder inOrder = inOrder(cardRepository);
-        inOrder.verify(cardRepository).findByCardNumberEncryptedAndUser_Id(encFrom, userId);
-        inOrder.verify(cardRepository).findByCardNumberEncryptedAndUser_Id(encTo, userId);
+        inOrder.verify(cardRepository).findByCardNumberHashAndUser_Id(encFrom, userId);
+        inOrder.verify(cardRepository).findByCardNumberHashAndUser_Id(encTo, userId);
         inOrder.verify(cardRepository).lockByIdAndUserAndStatus(3L, userId, CardStatus.ACTIVE);
         inOrder.verify(cardRepository).lockByIdAndUserAndStatus(5L, userId, CardStatus.ACTIVE);
     }
-}
\ No newline at end of file
+
+    private CardRefView ref(Long id, String hash) {
+        CardRefView ref = mock(CardRefView.class);
+        when(ref.getId()).thenReturn(id);
+        when(ref.getCardNumberHash()).thenReturn(hash);
+        when(ref.getStatus()).thenReturn(CardStatus.ACTIVE);
+        return ref;
+    }
+
+    private CardService conditionalService() {
+        return new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService, "36", TransferStrategy.CONDITIONAL, contention(), lockPolicy(), intentLog(), velocity(), false);
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: условные UPDATE в порядке id, без чтения пользователя и локов")
+    void transferConditional_ok_lowIdFirst() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(5L, "hFrom");
+        CardRefView toRef = ref(3L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.creditActive(3L, userId, new BigDecimal("10.00"))).thenReturn(Optional.of(new BigDecimal("20.00")));
+        when(cardRepository.debitIfSufficient(5L, userId, new BigDecimal("10.00"))).thenReturn(Optional.of(new BigDecimal("190.00")));
+
+        conditionalService().transferBetweenUserCards(userId, from, to, new BigDecimal("10"));
+
+        InOrder inOrder = inOrder(cardRepository);
+        inOrder.verify(cardRepository).setLocalLockTimeout("2000ms");
+        inOrder.verify(cardRepository).findRefsByHashes(List.of("hFrom", "hTo"), userId);
+        inOrder.verify(cardRepository).creditActive(3L, userId, new BigDecimal("10.00"));
+        inOrder.verify(cardRepository).debitIfSufficient(5L, userId, new BigDecimal("10.00"));
+        verify(cardRepository, never()).lockByIdAndUserAndStatus(anyLong(), anyLong(), any());
+        verify(cardRepository, never()).save(any(Card.class));
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: недостаточно средств — TransferException")
+    void transferConditional_insufficientFunds() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.debitIfSufficient(1L, userId, new BigDecimal("100.00"))).thenReturn(Optional.empty());
+        when(cardRepository.findByIdAndStatus(1L, CardStatus.ACTIVE))
+                .thenReturn(Optional.of(card(1L, userId, "encFrom", new BigDecimal("50.00"), CardStatus.ACTIVE)));
+
+        assertThatThrownBy(() ->
+                conditionalService().transferBetweenUserCards(userId, from, to, new BigDecimal("100.00"))
+        ).isInstanceOf(TransferException.class)
+                .hasMessageContaining("Недостаточно средств");
+
+        verify(cardRepository, never()).creditActive(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: средств хватает, но списание не прошло — DailyLimitExceededException")
+    void transferConditional_dailyLimitExceeded() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.debitIfSufficient(1L, userId, new BigDecimal("100.00"))).thenReturn(Optional.empty());
+        when(cardRepository.findByIdAndStatus(1L, CardStatus.ACTIVE))
+                .thenReturn(Optional.of(card(1L, userId, "encFrom", new BigDecimal("500.00"), CardStatus.ACTIVE)));
+
+        assertThatThrownBy(() ->
+                conditionalService().transferBetweenUserCards(userId, from, to, new BigDecimal("100.00"))
+        ).isInstanceOf(DailyLimitExceededException.class);
+
+        verify(cardRepository, never()).creditActive(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("PESSIMISTIC: дневной лимит исчерпан — балансы не меняются")
+    void transfer_dailyLimitExceeded() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        stubUserExists(userId);
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        Card fromCard = card(1L, userId, "encFrom", new BigDecimal("500.00"), CardStatus.ACTIVE);
+        fromCard.setDailyLimit(Money.of("150.00"));
+        Card toCard = card(2L, userId, "encTo", new BigDecimal("50.00"), CardStatus.ACTIVE);
+        when(cardRepository.findByCardNumberHashAndUser_Id("hFrom", userId)).thenReturn(Optional.of(fromCard));
+        when(cardRepository.findByCardNumberHashAndUser_Id("hTo", userId)).thenReturn(Optional.of(toCard));
+        when(cardRepository.lockByIdAndUserAndStatus(1L, userId, CardStatus.ACTIVE)).thenReturn(Optional.of(fromCard));
+        when(cardRepository.lockByIdAndUserAndStatus(2L, userId, CardStatus.ACTIVE)).thenReturn(Optional.of(toCard));
+        when(cardRepository.spendWithinDailyLimit(1L, new BigDecimal("100.00"))).thenReturn(0);
+
+        assertThatThrownBy(() -> service.transferBetweenUserCards(userId, from, to, new BigDecimal("100.00")))
+                .isInstanceOf(DailyLimitExceededException.class)
+                .hasMessageContaining("дневной лимит");
+
+        assertThat(fromCard.getBalance()).isEqualTo(Money.of("500.00"));
+        assertThat(toCard.getBalance()).isEqualTo(Money.of("50.00"));
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("update: дневной лимит задаётся и снимается")
+    void update_dailyLimit() {
+        Card existing = stubCard(5L, 10L);
+        when(cardRepository.findByIdAndStatus(5L, CardStatus.ACTIVE)).thenReturn(Optional.of(existing));
+        when(cardRepository.save(any(Card.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        CardUpdateDto set = new CardUpdateDto();
+        set.setDailyLimit(new BigDecimal("1000"));
+        service.update(5L, set);
+        assertThat(existing.getDailyLimit()).isEqualTo(Money.of("1000.00"));
+
+        CardUpdateDto clear = new CardUpdateDto();
+        clear.setDailyLimit(new BigDecimal("5.00"));
+        clear.setClearDailyLimit(true);
+        service.update(5L, clear);
+        assertThat(existing.getDailyLimit()).isNull();
+    }
+
+    @Test
+    @DisplayName("transferBatch BEST_EFFORT: перевод сверх лимита частоты — отклонённый элемент; откат пачки возвращает учёт")
+    void transferBatch_velocityPerAppliedItem() {
+        TransferVelocity velocity = new TransferVelocity(new SimpleMeterRegistry(), true, "card:count:1/10s:reject", 10, 1000);
+        CardService batchService = new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService,
+                "36", TransferStrategy.CONDITIONAL, contention(), lockPolicy(), intentLog(), velocity, false);
+        stubBatchCards(new BigDecimal("10.00"), new BigDecimal("10.00"));
+
+        BatchTransferRequestDto request = bestEffort(
+                new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1.00")),
+                new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1.00")),
+                new TransferItemDto(BATCH_B, BATCH_A, new BigDecimal("1.00")));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            BatchTransferResponseDto response = batchService.transferBatch(1L, request);
+
+            assertThat(response.getResults()).extracting(TransferItemResultDto::getStatus).containsExactly(
+                    TransferItemStatus.APPLIED, TransferItemStatus.REJECTED, TransferItemStatus.APPLIED);
+            assertThatThrownBy(() -> velocity.check(1L, BATCH_A, BigDecimal.ONE))
+                    .isInstanceOf(TransferVelocityException.class);
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+            velocity.check(1L, BATCH_A, BigDecimal.ONE);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("transferBatch: сумма вне диапазона копеек и переполнение зачисления — отклонённые элементы, а не ошибка пачки")
+    void transferBatch_overflowIsItemRejection() {
+        stubBatchCards(new BigDecimal("10.00"), new BigDecimal("92233720368547758.00"));
+
+        BatchTransferRequestDto request = bestEffort(
+                new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1e20")),
+                new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1.00")),
+                new TransferItemDto(BATCH_B, BATCH_A, new BigDecimal("1.00")));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            BatchTransferResponseDto response = conditionalService().transferBatch(1L, request);
+
+            assertThat(response.getResults()).extracting(TransferItemResultDto::getStatus).containsExactly(
+                    TransferItemStatus.REJECTED, TransferItemStatus.REJECTED, TransferItemStatus.APPLIED);
+            assertThat(response.getResults().get(0).getMessage()).isEqualTo("Сумма перевода слишком велика");
+            assertThat(response.getResults().get(1).getMessage()).contains("превысит допустимую");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("TransferItemDto: сумма меньше копейки, с долями копейки или длиннее 13 знаков не проходит валидацию")
+    void transferItemDto_amountConstraints() {
+        try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
+            Validator validator = factory.getValidator();
+
+            assertThat(validator.validate(new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("0.01")))).isEmpty();
+            assertThat(validator.validate(new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("0.00")))).hasSize(1);
+            assertThat(validator.validate(new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1.005")))).hasSize(1);
+            assertThat(validator.validate(new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("1e20")))).hasSize(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Доли копейки отклоняются до округления: 0.004 не становится нулевым переводом, 0.005 — списанием 0.01")
+    void transfer_fractionalKopeckRejected() {
+        assertThat(CardService.transferAmount(new BigDecimal("0.010")).minor()).isEqualTo(1);
+        assertThatThrownBy(() -> CardService.transferAmount(new BigDecimal("0.004")))
+                .isInstanceOf(TransferException.class)
+                .hasMessageContaining("с точностью до копейки");
+        assertThatThrownBy(() -> conditionalService().transferBetweenUserCards(1L, BATCH_A, BATCH_B, new BigDecimal("0.005")))
+                .isInstanceOf(TransferException.class)
+                .hasMessageContaining("с точностью до копейки");
+        verifyNoInteractions(cardRepository, ledgerRepository);
+
+        stubBatchCards(new BigDecimal("10.00"), new BigDecimal("10.00"));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            BatchTransferResponseDto response = conditionalService().transferBatch(1L, bestEffort(
+                    new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("0.004")),
+                    new TransferItemDto(BATCH_A, BATCH_B, new BigDecimal("0.01"))));
+
+            assertThat(response.getResults()).extracting(TransferItemResultDto::getStatus).containsExactly(
+                    TransferItemStatus.REJECTED, TransferItemStatus.APPLIED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static final String BATCH_A = "1111222233334444";
+    private static final String BATCH_B = "5555666677778888";
+
+    private void stubBatchCards(BigDecimal balanceA, BigDecimal balanceB) {
+        when(cryptoService.blindIndex(BATCH_A)).thenReturn("hA");
+        when(cryptoService.blindIndex(BATCH_B)).thenReturn("hB");
+        CardRefView refA = mock(CardRefView.class);
+        when(refA.getId()).thenReturn(10L);
+        when(refA.getCardNumberHash()).thenReturn("hA");
+        CardRefView refB = mock(CardRefView.class);
+        when(refB.getId()).thenReturn(20L);
+        when(refB.getCardNumberHash()).thenReturn("hB");
+        when(cardRepository.findRefsByHashes(anyCollection(), eq(1L))).thenReturn(List.of(refA, refB));
+        when(cardRepository.lockAllByIdsAndUser(anyCollection(), eq(1L))).thenReturn(List.of(
+                card(10L, 1L, "encA", balanceA, CardStatus.ACTIVE),
+                card(20L, 1L, "encB", balanceB, CardStatus.ACTIVE)));
+    }
+
+    private static BatchTransferRequestDto bestEffort(TransferItemDto... items) {
+        return BatchTransferRequestDto.builder()
+                .mode(BatchTransferMode.BEST_EFFORT)
+                .transfers(List.of(items))
+                .build();
+    }
+
+    @Test
+    @DisplayName("Движок балансов включён: прямые списания в БД и правка баланса отклоняются")
+    void engineEnabled_rejectsSqlDebits() {
+        CardService engineService = new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService,
+                "36", TransferStrategy.CONDITIONAL, contention(), lockPolicy(), intentLog(), velocity(), true);
+        CardUpdateDto balance = new CardUpdateDto();
+        balance.setBalance(new BigDecimal("100.00"));
+
+        assertThatThrownBy(() -> engineService.transferBetweenUserCards(1L, "4".repeat(16), "5".repeat(16), new BigDecimal("10.00")))
+                .isInstanceOf(TransferException.class);
+        assertThatThrownBy(() -> engineService.update(5L, balance))
+                .isInstanceOf(TransferException.class);
+        verifyNoInteractions(cardRepository, ledgerRepository);
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: неизвестный пользователь — UserNotFoundCustomException")
+    void transferConditional_userNotFound() {
+        when(cryptoService.blindIndex(anyString())).thenAnswer(inv -> "h" + inv.getArgument(0));
+        when(cardRepository.findRefsByHashes(anyList(), eq(1L))).thenReturn(List.of());
+        when(userRepository.existsById(1L)).thenReturn(false);
+
+        assertThatThrownBy(() ->
+                conditionalService().transferBetweenUserCards(1L, "4".repeat(16), "5".repeat(16), new BigDecimal("10.00"))
+        ).isInstanceOf(UserNotFoundCustomException.class);
+    }
+
+    private CardService ledgerService() {
+        return new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService, "36", TransferStrategy.LEDGER, contention(), lockPolicy(), intentLog(), velocity(), false);
+    }
+
+    @Test
+    @DisplayName("LEDGER: блокируется только карта списания, в журнал пишутся две проводки")
+    @SuppressWarnings("unchecked")
+    void transferLedger_ok_onlySourceLocked() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(5L, "hFrom");
+        CardRefView toRef = ref(3L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.lockByIdAndUserAndStatus(5L, userId, CardStatus.ACTIVE))
+                .thenReturn(Optional.of(card(5L, userId, "encFrom", new BigDecimal("5.00"), CardStatus.ACTIVE)));
+        when(ledgerRepository.sumPending(5L)).thenReturn(new BigDecimal("20.00"));
+
+        ledgerService().transferBetweenUserCards(userId, from, to, new BigDecimal("10"));
+
+        ArgumentCaptor<List<CardLedgerEntry>> entries = ArgumentCaptor.forClass(List.class);
+        verify(ledgerRepository).saveAll(entries.capture());
+        assertThat(entries.getValue()).hasSize(2);
+        assertThat(entries.getValue().get(0).getCardId()).isEqualTo(5L);
+        assertThat(entries.getValue().get(0).getAmount()).isEqualByComparingTo("-10.00");
+        assertThat(entries.getValue().get(1).getCardId()).isEqualTo(3L);
+        assertThat(entries.getValue().get(1).getAmount()).isEqualByComparingTo("10.00");
+        assertThat(entries.getValue().get(0).getTransferId()).isEqualTo(entries.getValue().get(1).getTransferId());
+
+        verify(cardRepository, never()).lockByIdAndUserAndStatus(eq(3L), anyLong(), any());
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("LEDGER: снимка плюс проводок не хватает — TransferException, журнал не меняется")
+    void transferLedger_insufficientFunds() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.lockByIdAndUserAndStatus(1L, userId, CardStatus.ACTIVE))
+                .thenReturn(Optional.of(card(1L, userId, "encFrom", new BigDecimal("100.00"), CardStatus.ACTIVE)));
+        when(ledgerRepository.sumPending(1L)).thenReturn(new BigDecimal("-95.00"));
+
+        assertThatThrownBy(() ->
+                ledgerService().transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"))
+        ).isInstanceOf(TransferException.class)
+                .hasMessageContaining("Недостаточно средств");
+
+        verify(ledgerRepository, never()).saveAll(anyList());
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: зачисление на шардированную карту идёт в один шард, строка карты не трогается")
+    void transferConditional_shardedCredit() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(toRef.getBalanceShards()).thenReturn(8);
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.debitIfSufficient(1L, userId, new BigDecimal("10.00"))).thenReturn(Optional.of(new BigDecimal("90.00")));
+        when(cardRepository.creditShard(eq(2L), eq(userId), anyInt(), eq(new BigDecimal("10.00"))))
+                .thenReturn(Optional.of(new BigDecimal("10.00")));
+
+        conditionalService().transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"));
+
+        ArgumentCaptor<Integer> shard = ArgumentCaptor.forClass(Integer.class);
+        verify(cardRepository).creditShard(eq(2L), eq(userId), shard.capture(), eq(new BigDecimal("10.00")));
+        assertThat(shard.getValue()).isBetween(0, 7);
+        verify(cardRepository, never()).creditActive(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("CONDITIONAL: шарда не хватает — блокировка всех шардов и раскладка остатка")
+    void transferConditional_shardedDebitRebalances() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        when(fromRef.getBalanceShards()).thenReturn(2);
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        when(cardRepository.debitShard(eq(1L), eq(userId), anyInt(), any())).thenReturn(Optional.empty());
+        when(cardRepository.lockActiveBalance(1L, userId)).thenReturn(Optional.of(new BigDecimal("1.00")));
+        // Моки шардов создаём заранее: вложенный when внутри thenReturn даёт UnfinishedStubbingException
+        CardShardView s0 = shard(0, "6.00");
+        CardShardView s1 = shard(1, "6.00");
+        when(cardRepository.lockShards(1L)).thenReturn(List.of(s0, s1));
+        when(cardRepository.creditActive(2L, userId, new BigDecimal("10.00"))).thenReturn(Optional.of(new BigDecimal("10.00")));
+
+        conditionalService().transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"));
+
+        verify(cardRepository).spreadOverShards(1L, new BigDecimal("1.50"), new BigDecimal("0.00"));
+        verify(cardRepository, never()).debitIfSufficient(anyLong(), anyLong(), any());
+    }
+
+    private CardShardView shard(int shard, String balance) {
+        CardShardView view = mock(CardShardView.class);
+        when(view.getShard()).thenReturn(shard);
+        when(view.getBalance()).thenReturn(new BigDecimal(balance));
+        return view;
+    }
+
+    private CardVersionView state(Long id, String balance, long version) {
+        CardVersionView view = mock(CardVersionView.class);
+        when(view.getId()).thenReturn(id);
+        when(view.getBalance()).thenReturn(Money.of(balance));
+        when(view.getVersion()).thenReturn(version);
+        when(view.getStatus()).thenReturn(CardStatus.ACTIVE);
+        return view;
+    }
+
+    private CardService optimisticService() {
+        return new CardService(cardRepository, ledgerRepository, userRepository, mapper, cryptoService, "36", TransferStrategy.OPTIMISTIC, contention(), lockPolicy(), intentLog(), velocity(), false);
+    }
+
+    @Test
+    @DisplayName("OPTIMISTIC: конфликт версии — перечитывание и повтор записи")
+    void transferOptimistic_retriesOnConflict() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        CardVersionView v1 = state(1L, "100.00", 7);
+        CardVersionView v2 = state(1L, "90.00", 8);
+        when(cardRepository.findVersionedState(1L, userId)).thenReturn(Optional.of(v1), Optional.of(v2));
+        when(cardRepository.compareAndSetBalance(1L, 7L, Money.of("90.00"))).thenReturn(0);
+        when(cardRepository.compareAndSetBalance(1L, 8L, Money.of("80.00"))).thenReturn(1);
+        CardVersionView to1 = state(2L, "5.00", 3);
+        when(cardRepository.findVersionedState(2L, userId)).thenReturn(Optional.of(to1));
+        when(cardRepository.compareAndSetBalance(2L, 3L, Money.of("15.00"))).thenReturn(1);
+
+        optimisticService().transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"));
+
+        verify(cardRepository).compareAndSetBalance(1L, 8L, Money.of("80.00"));
+        verify(cardRepository).compareAndSetBalance(2L, 3L, Money.of("15.00"));
+        verify(cardRepository, never()).lockByIdAndUserAndStatus(anyLong(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("OPTIMISTIC: попытки исчерпаны — TransferConflictException")
+    void transferOptimistic_exhausted() {
+        Long userId = 10L;
+        String from = "4111111111111111";
+        String to   = "4222222222222222";
+        when(cryptoService.blindIndex(from)).thenReturn("hFrom");
+        when(cryptoService.blindIndex(to)).thenReturn("hTo");
+
+        CardRefView fromRef = ref(1L, "hFrom");
+        CardRefView toRef = ref(2L, "hTo");
+        when(cardRepository.findRefsByHashes(List.of("hFrom", "hTo"), userId)).thenReturn(List.of(fromRef, toRef));
+        CardVersionView v1 = state(1L, "100.00", 7);
+        when(cardRepository.findVersionedState(1L, userId)).thenReturn(Optional.of(v1));
+        when(cardRepository.compareAndSetBalance(anyLong(), anyLong(), any())).thenReturn(0);
+
+        assertThatThrownBy(() ->
+                optimisticService().transferBetweenUserCards(userId, from, to, new BigDecimal("10.00"))
+        ).isInstanceOf(TransferConflictException.class);
+
+        verify(cardRepository, times(3)).compareAndSetBalance(1L, 7L, Money.of("90.00"));
+    }
+
+    @Test
+    @DisplayName("applyGroup — ошибка одного перевода не мешает остальным, карты блокируются одним запросом")
+    void applyGroup_failedItemDoesNotPoisonOthers() {
+        when(cryptoService.blindIndex(anyString())).thenAnswer(inv -> "h" + inv.getArgument(0));
+        CardRefView a = ref(1L, "h1111");
+        CardRefView b = ref(2L, "h2222");
+        CardRefView c = ref(3L, "h3333");
+        CardRefView d = ref(4L, "h4444");
+        when(cardRepository.findRefsByHashes(anyCollection(), eq(10L))).thenReturn(List.of(a, b));
+        when(cardRepository.findRefsByHashes(anyCollection(), eq(20L))).thenReturn(List.of(c, d));
+
+        Card card1 = card(1L, 10L, "e1", new BigDecimal("100.00"), CardStatus.ACTIVE);
+        Card card2 = card(2L, 10L, "e2", new BigDecimal("0.00"), CardStatus.ACTIVE);
+        Card card3 = card(3L, 20L, "e3", new BigDecimal("5.00"), CardStatus.ACTIVE);
+        Card card4 = card(4L, 20L, "e4", new BigDecimal("0.00"), CardStatus.ACTIVE);
+        when(cardRepository.lockAllByIds(anyCollection())).thenReturn(List.of(card1, card2, card3, card4));
+
+        List<RuntimeException> outcomes = service.applyGroup(List.of(
+                new GroupTransfer(10L, "1111", "2222", new BigDecimal("30")),
+                new GroupTransfer(20L, "3333", "4444", new BigDecimal("50")),
+                new GroupTransfer(10L, "2222", "1111", new BigDecimal("10"))));
+
+        assertThat(outcomes.get(0)).isNull();
+        assertThat(outcomes.get(1)).isInstanceOf(TransferException.class);
+        assertThat(outcomes.get(2)).isNull();
+        assertThat(card1.getBalance()).isEqualTo(Money.of("80.00"));
+        assertThat(card2.getBalance()).isEqualTo(Money.of("20.00"));
+        assertThat(card3.getBalance()).isEqualTo(Money.of("5.00"));
+        verify(cardRepository, times(1)).lockAllByIds(anyCollection());
+    }
+
+    @Test
+    @DisplayName("applyGroup — сумма, не помещающаяся в Money, даёт TransferException этого перевода, а не 500")
+    void applyGroup_overflowingAmountIsTransferError() {
+        when(cryptoService.blindIndex(anyString())).thenAnswer(inv -> "h" + inv.getArgument(0));
+        CardRefView a = ref(1L, "h1111");
+        CardRefView b = ref(2L, "h2222");
+        when(cardRepository.findRefsByHashes(anyCollection(), eq(10L))).thenReturn(List.of(a, b));
+
+        Card card1 = card(1L, 10L, "e1", new BigDecimal("100.00"), CardStatus.ACTIVE);
+        Card card2 = card(2L, 10L, "e2", new BigDecimal("0.00"), CardStatus.ACTIVE);
+        when(cardRepository.lockAllByIds(anyCollection())).thenReturn(List.of(card1, card2));
+
+        List<RuntimeException> outcomes = service.applyGroup(List.of(
+                new GroupTransfer(10L, "1111", "2222", new BigDecimal("1e30")),
+                new GroupTransfer(10L, "1111", "2222", new BigDecimal("10"))));
+
+        assertThat(outcomes.get(0)).isInstanceOf(TransferException.class);
+        assertThat(outcomes.get(1)).isNull();
+        assertThat(card1.getBalance()).isEqualTo(Money.of("90.00"));
+        assertThat(card2.getBalance()).isEqualTo(Money.of("10.00"));
+    }
+
+    @Test
+    @DisplayName("Lock timeout: перевод повторяется, после исчерпания попыток — TransferBusyException")
+    void lockPolicy_retriesTimeoutThenBusy() {
+        TransferLockPolicy policy = lockPolicy();
+        int[] calls = {0};
+        PessimisticLockingFailureException timeout = new PessimisticLockingFailureException("lock",
+                new SQLException("canceling statement due to lock timeout", "55P03"));
+
+        assertThatThrownBy(() -> policy.runWithRetry(() -> {
+            calls[0]++;
+            throw timeout;
+        })).isInstanceOf(TransferBusyException.class);
+        assertThat(calls[0]).isEqualTo(3);
+
+        calls[0] = 0;
+        policy.runWithRetry(() -> {
+            if (++calls[0] == 1) {
+                throw timeout;
+            }
+        });
+        assertThat(calls[0]).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Прерванный поток не повторяет перевод: ни после таймаута блокировки, ни после конфликта версии")
+    void retries_stopWhenInterrupted() {
+        int[] calls = {0};
+        PessimisticLockingFailureException timeout = new PessimisticLockingFailureException("lock",
+                new SQLException("canceling statement due to lock timeout", "55P03"));
+        CardContention contention = contention();
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> lockPolicy().runWithRetry(() -> {
+                calls[0]++;
+                throw timeout;
+            })).isInstanceOf(TransferBusyException.class);
+            assertThat(calls[0]).isEqualTo(1);
+            assertThat(contention.backoff(0)).isFalse();
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+        assertThat(contention.backoff(0)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Lock policy: прочие ошибки не повторяются")
+    void lockPolicy_doesNotRetryBusinessErrors() {
+        int[] calls = {0};
+
+        assertThatThrownBy(() -> lockPolicy().runWithRetry(() -> {
+            calls[0]++;
+            throw new TransferException("Недостаточно средств");
+        })).isInstanceOf(TransferException.class);
+        assertThat(calls[0]).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Admission: второй перевод того же пользователя ждёт, другой пользователь проходит")
+    void admission_serializesSameUserOnly() {
+        TransferAdmission admission = new TransferAdmission(new SimpleMeterRegistry(), true, 1024, true, Duration.ZERO);
+        int[] applied = {0};
+
+        admission.run(1L, () -> {
+            assertThatThrownBy(() -> admission.run(1L, () -> applied[0]++))
+                    .isInstanceOf(TransferBusyException.class);
+            admission.run(2L, () -> applied[0]++);
+        });
+        admission.run(1L, () -> applied[0]++);
+
+        assertThat(applied[0]).isEqualTo(2);
+    }
+}
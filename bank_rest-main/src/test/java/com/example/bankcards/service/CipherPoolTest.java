@@ -0,0 +1,44 @@
+package com.example.bankcards.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CipherPoolTest {
+
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[16], "AES");
+
+    @Test
+    @DisplayName("ECB: возвращённый экземпляр переиспользуется и расшифровывает то, что зашифровал пул")
+    void ecbRoundTripReusesCipher() throws Exception {
+        CipherPool encryptors = new CipherPool("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, KEY, 2);
+        CipherPool decryptors = new CipherPool("AES/ECB/PKCS5Padding", Cipher.DECRYPT_MODE, KEY, 2);
+
+        Cipher encryptor = encryptors.borrow();
+        byte[] encrypted = encryptor.doFinal("4111111111111111".getBytes(StandardCharsets.UTF_8));
+        encryptors.release(encryptor);
+        assertThat(encryptors.borrow()).isSameAs(encryptor);
+
+        Cipher decryptor = decryptors.borrow();
+        assertThat(new String(decryptor.doFinal(encrypted), StandardCharsets.UTF_8)).isEqualTo("4111111111111111");
+    }
+
+    @Test
+    @DisplayName("Преобразования с IV отклоняются при создании пула понятной ошибкой, а не InvalidKeyException")
+    void ivTransformationsFailFast() {
+        for (String transformation : new String[]{"AES/CBC/PKCS5Padding", "AES/GCM/NoPadding"}) {
+            for (int mode : new int[]{Cipher.ENCRYPT_MODE, Cipher.DECRYPT_MODE}) {
+                assertThatThrownBy(() -> new CipherPool(transformation, mode, KEY, 2))
+                        .isInstanceOf(IllegalArgumentException.class)
+                        .hasMessageContaining("без IV")
+                        .hasMessageContaining(transformation);
+            }
+        }
+    }
+}
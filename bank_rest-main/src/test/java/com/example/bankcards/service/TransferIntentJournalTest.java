@@ -0,0 +1,72 @@
+package com.example.bankcards.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransferIntentJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static final byte[] FROM = new byte[32];
+    private static final byte[] TO = new byte[32];
+
+    @Test
+    @DisplayName("Намерение и итог читаются сканером, после переоткрытия seq продолжается")
+    void appendScanAndReopen() throws Exception {
+        try (TransferIntentJournal journal = new TransferIntentJournal(dir, 1 << 20, 4)) {
+            long intent = journal.appendIntent(42, 7, FROM, TO, 1050, 1_000L);
+            long outcome = journal.appendOutcome(TransferIntentJournal.COMPLETE, intent, TransferIntentJournal.COMMITTED);
+            journal.awaitDurable(outcome);
+            assertThat(journal.durableSeq()).isEqualTo(2);
+        }
+
+        List<TransferIntentJournal.Record> records = new ArrayList<>();
+        TransferIntentJournal.ScanResult scan = TransferIntentJournal.scan(dir, records::add);
+
+        assertThat(scan.records()).isEqualTo(2);
+        assertThat(records.get(0).txid()).isEqualTo(42);
+        assertThat(records.get(0).amountCents()).isEqualTo(1050);
+        assertThat(records.get(1).refSeq()).isEqualTo(1);
+
+        try (TransferIntentJournal journal = new TransferIntentJournal(dir, 1 << 20, 4)) {
+            assertThat(journal.appendIntent(43, 7, FROM, TO, 100, 2_000L)).isEqualTo(3);
+        }
+    }
+
+    @Test
+    @DisplayName("Битая запись в середине пропускается по CRC, сегменты переключаются по размеру")
+    void checksumAndRolling() throws Exception {
+        int perSegment = 4;
+        try (TransferIntentJournal journal = new TransferIntentJournal(dir, perSegment * TransferIntentJournal.RECORD_SIZE, 8)) {
+            for (int i = 0; i < 10; i++) {
+                journal.appendIntent(i, 1, FROM, TO, 100, 1_000L);
+            }
+        }
+        try (var files = Files.list(dir)) {
+            assertThat(files.count()).isEqualTo(3);
+        }
+
+        Path first = dir.resolve(TransferIntentJournal.segmentName(1));
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), TransferIntentJournal.RECORD_SIZE + 30);
+        }
+
+        TransferIntentJournal.ScanResult scan = TransferIntentJournal.scan(dir, record -> { });
+
+        assertThat(scan.records()).isEqualTo(9);
+        assertThat(scan.corrupted()).isEqualTo(1);
+        assertThat(scan.lastSeq()).isEqualTo(10);
+    }
+}
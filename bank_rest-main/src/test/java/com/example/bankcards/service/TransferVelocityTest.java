@@ -0,0 +1,128 @@
+package com.example.bankcards.service;
+
+import com.example.bankcards.exception.TransferVelocityException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferVelocityTest {
+
+    static final String CARD = "4111111111111111";
+    static final BigDecimal AMOUNT = new BigDecimal("100.00");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+
+    private TransferVelocity velocity(String rules) {
+        return new TransferVelocity(meterRegistry, true, rules, 10, 1000, now::get);
+    }
+
+    private void advance(long seconds) {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    @Test
+    @DisplayName("velocity: сверх N переводов карты за окно — отказ и метрика, после окна — снова можно")
+    void cardCount_rejectsUntilWindowSlides() {
+        TransferVelocity velocity = velocity("card:count:3/10s:reject");
+
+        for (int i = 0; i < 3; i++) {
+            velocity.check(1L, CARD, AMOUNT);
+        }
+        assertThatThrownBy(() -> velocity.check(1L, CARD, AMOUNT))
+                .isInstanceOf(TransferVelocityException.class);
+        // Другая карта того же пользователя считается отдельно
+        velocity.check(1L, "4222222222222222", AMOUNT);
+
+        assertThat(meterRegistry.counter("card.transfer.velocity.rejected", "rule", "card:count:3/10s").count())
+                .isEqualTo(1.0);
+
+        advance(11);
+        velocity.check(1L, CARD, AMOUNT);
+    }
+
+    @Test
+    @DisplayName("velocity: правило flag по сумме пользователя не отклоняет, а считает превышения")
+    void userAmount_flagOnly() {
+        TransferVelocity velocity = velocity("user:amount:250/1h:flag");
+
+        velocity.check(7L, CARD, AMOUNT);
+        velocity.check(7L, CARD, AMOUNT);
+        velocity.check(7L, "4222222222222222", AMOUNT);
+        velocity.check(8L, CARD, AMOUNT);
+
+        assertThat(meterRegistry.counter("card.transfer.velocity.flagged", "rule", "user:amount:250/1h").count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("velocity: отклонённый перевод не занимает окно, простаивающие ключи вытесняются")
+    void rejectedNotRecorded_idleKeysEvicted() {
+        TransferVelocity velocity = velocity("card:count:1/10s:reject, user:count:2/10s:reject");
+
+        velocity.check(1L, CARD, AMOUNT);
+        assertThatThrownBy(() -> velocity.check(1L, CARD, AMOUNT))
+                .isInstanceOf(TransferVelocityException.class);
+        // Отказ по карте не израсходовал лимит пользователя
+        velocity.check(1L, "4222222222222222", AMOUNT);
+        assertThat(velocity.trackedKeys()).isEqualTo(3);
+
+        advance(11);
+        assertThat(velocity.trackedKeys()).isZero();
+    }
+
+    @Test
+    @DisplayName("velocity: параллельные проверки одной карты не проходят сверх лимита")
+    void concurrentChecks_neverOvershoot() throws Exception {
+        TransferVelocity velocity = velocity("user:count:1000000/10s:reject, card:count:100/10s:reject");
+        AtomicInteger passed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        velocity.check(1L, CARD, AMOUNT);
+                        passed.incrementAndGet();
+                    } catch (TransferVelocityException e) {
+                        // ожидаемо
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(passed.get()).isPositive().isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    @DisplayName("velocity: некорректное правило — ошибка при старте")
+    void invalidRule() {
+        assertThatThrownBy(() -> velocity("card:count:10:reject"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("card:count:10:reject");
+        assertThatThrownBy(() -> velocity("card:count:10/5ms:reject"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
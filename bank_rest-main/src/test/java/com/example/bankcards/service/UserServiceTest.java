@@ -8,6 +8,8 @@ import com.example.bankcards.exception.PasswordIsShortException;
 import com.example.bankcards.exception.UserNameNotFreeException;
 import com.example.bankcards.exception.UserNotFoundCustomException;
 import com.example.bankcards.repository.UserRepository;
+import com.example.bankcards.security.CustomUserDetailsService;
+import com.example.bankcards.security.TokenVersionRegistry;
 import com.example.bankcards.util.UserMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -32,6 +34,10 @@ class UserServiceTest {
     private PasswordEncoder passwordEncoder;
     @Mock
     private UserMapper userMapper;
+    @Mock
+    private TokenVersionRegistry tokenVersions;
+    @Mock
+    private CustomUserDetailsService userDetailsService;
 
     @InjectMocks
     private UserService userService;
@@ -263,6 +269,9 @@ class UserServiceTest {
 
         Assertions.assertEquals(existing.isEnabled(), false);
         Assertions.assertEquals(res.isEnabled(), false);
+        Assertions.assertEquals(1, existing.getTokenVersion());
+        verify(tokenVersions).publishAfterCommit(9L, saved.getTokenVersion(), false);
+        verify(userDetailsService).evict(9L);
     }
 
     @Test